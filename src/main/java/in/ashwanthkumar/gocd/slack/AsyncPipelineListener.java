@@ -0,0 +1,92 @@
+package in.ashwanthkumar.gocd.slack;
+
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineRule;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+import in.ashwanthkumar.gocd.slack.ruleset.Rules;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Base class for listeners that deliver without blocking, e.g. with an asynchronous HTTP client. Notifications for
+ * every matched rule are started on the thread GoCD notifies us on, none of the delivery threads are used.
+ *
+ * The synchronous <code>on*</code> methods wait for {@link #onNotification(PipelineRule, PipelineStatus, GoNotificationMessage)}.
+ */
+public abstract class AsyncPipelineListener extends PipelineListener {
+
+    public AsyncPipelineListener(Rules rules) {
+        super(rules);
+    }
+
+    /**
+     * Start delivering the notification for the rule. Must not block, failures can be reported either as a failed
+     * {@link DeliveryResult} or by completing exceptionally.
+     */
+    public abstract CompletionStage<DeliveryResult> onNotification(PipelineRule rule, PipelineStatus status, GoNotificationMessage message);
+
+    @Override
+    public CompletionStage<DeliveryResult> deliverAsync(PipelineRule rule, PipelineStatus status, GoNotificationMessage message, Executor executor) {
+        try {
+            return onNotification(rule, status, message);
+        } catch (RuntimeException e) {
+            CompletableFuture<DeliveryResult> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    @Override
+    public void onBuilding(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        await(onNotification(rule, PipelineStatus.BUILDING, message));
+    }
+
+    @Override
+    public void onPassed(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        await(onNotification(rule, PipelineStatus.PASSED, message));
+    }
+
+    @Override
+    public void onFailed(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        await(onNotification(rule, PipelineStatus.FAILED, message));
+    }
+
+    @Override
+    public void onBroken(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        await(onNotification(rule, PipelineStatus.BROKEN, message));
+    }
+
+    @Override
+    public void onFixed(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        await(onNotification(rule, PipelineStatus.FIXED, message));
+    }
+
+    @Override
+    public void onCancelled(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        await(onNotification(rule, PipelineStatus.CANCELLED, message));
+    }
+
+    private static void await(CompletionStage<DeliveryResult> delivery) throws Exception {
+        DeliveryResult result;
+        try {
+            result = delivery.toCompletableFuture().get();
+        } catch (ExecutionException e) {
+            throw asException(e.getCause());
+        }
+        if (!result.isDelivered()) {
+            throw asException(result.getError());
+        }
+    }
+
+    static Exception asException(Throwable error) {
+        if (error instanceof Exception) {
+            return (Exception) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        return new Exception(error);
+    }
+}
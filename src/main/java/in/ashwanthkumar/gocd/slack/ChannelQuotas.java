@@ -0,0 +1,127 @@
+package in.ashwanthkumar.gocd.slack;
+
+import in.ashwanthkumar.gocd.slack.ruleset.Destination;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+
+import java.util.*;
+
+/**
+ * Caps how many messages go to a {@link Destination} per window. Messages over the cap are held back and only
+ * counted; once the window ends, the counts are handed out as an {@link Overflow} so a single summary can be posted.
+ *
+ * Windows are fixed and start with the first message to a destination.
+ */
+public class ChannelQuotas {
+    private final int messagesPerWindow;
+    private final long windowMillis;
+    private final Map<Destination, Window> windows = new HashMap<>();
+    private final List<Overflow> overflows = new ArrayList<>();
+
+    public ChannelQuotas(int messagesPerWindow, long windowMillis) {
+        this.messagesPerWindow = messagesPerWindow;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @return true if the message can be posted, false if it was held back
+     */
+    public synchronized boolean tryAcquire(Destination destination, PipelineStatus status, long nowMillis) {
+        Window window = windows.get(destination);
+        if (window == null || nowMillis - window.start >= windowMillis) {
+            if (window != null) {
+                endWindow(destination, window);
+            }
+            window = new Window(nowMillis);
+            windows.put(destination, window);
+        }
+        if (window.sent < messagesPerWindow) {
+            window.sent++;
+            return true;
+        }
+        Integer held = window.held.get(status);
+        window.held.put(status, held == null ? 1 : held + 1);
+        return false;
+    }
+
+    /**
+     * Remove and return what was held back in the windows that ended by now.
+     */
+    public synchronized List<Overflow> endedWindows(long nowMillis) {
+        Iterator<Map.Entry<Destination, Window>> it = windows.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Destination, Window> entry = it.next();
+            if (nowMillis - entry.getValue().start >= windowMillis) {
+                endWindow(entry.getKey(), entry.getValue());
+                it.remove();
+            }
+        }
+        List<Overflow> ended = new ArrayList<>(overflows);
+        overflows.clear();
+        return ended;
+    }
+
+    /**
+     * @return number of messages held back in windows that haven't ended yet
+     */
+    public synchronized int getHeld() {
+        int held = 0;
+        for (Window window : windows.values()) {
+            for (Integer count : window.held.values()) {
+                held += count;
+            }
+        }
+        return held;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    private void endWindow(Destination destination, Window window) {
+        if (!window.held.isEmpty()) {
+            overflows.add(new Overflow(destination, window.held));
+        }
+    }
+
+    private static class Window {
+        private final long start;
+        private int sent;
+        private final Map<PipelineStatus, Integer> held = new EnumMap<>(PipelineStatus.class);
+
+        Window(long start) {
+            this.start = start;
+        }
+    }
+
+    /**
+     * What was held back for a destination during one window.
+     */
+    public static class Overflow {
+        private final Destination destination;
+        private final Map<PipelineStatus, Integer> held;
+
+        Overflow(Destination destination, Map<PipelineStatus, Integer> held) {
+            this.destination = destination;
+            this.held = Collections.unmodifiableMap(new EnumMap<>(held));
+        }
+
+        public Destination getDestination() {
+            return destination;
+        }
+
+        /**
+         * @return number of held back messages per status
+         */
+        public Map<PipelineStatus, Integer> getHeld() {
+            return held;
+        }
+
+        public int getTotal() {
+            int total = 0;
+            for (Integer count : held.values()) {
+                total += count;
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package in.ashwanthkumar.gocd.slack;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import in.ashwanthkumar.gocd.slack.ruleset.ListenerSettings;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineRule;
+import in.ashwanthkumar.gocd.slack.ruleset.Rules;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends every notification to several listeners at once, e.g. Slack and an audit log. Each listener runs in its own
+ * bulkhead: its own threads, a bounded queue and a time limit. A listener that stalls fills up its own queue and
+ * times out, the others, and the thread that handed over the notification, carry on.
+ */
+public class CompositePipelineListener extends PipelineListener {
+    private static Logger LOG = Logger.getLoggerFor(CompositePipelineListener.class);
+
+    private final List<Bulkhead> bulkheads;
+    private final ScheduledThreadPoolExecutor watchdog;
+
+    public CompositePipelineListener(Rules rules, List<Bulkhead> bulkheads) {
+        super(rules);
+        this.bulkheads = bulkheads;
+        this.watchdog = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("gocd-slack-listener-watchdog"));
+        // most deliveries finish in time, don't keep their watchdogs around until then
+        this.watchdog.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Route the notification for every listener, on this thread, and hand it to the ones that deliver it. Delivering
+     * doesn't wait for them. A listener that fails or goes over its timeout is logged and counted in its stats, the
+     * watchdog cancels the ones that are overdue.
+     *
+     * @return null if none of the listeners delivers it, else delivery throws {@link DeliveryFailedException} when
+     * the queue of some of them was full
+     */
+    @Override
+    public RoutedNotification route(final GoNotificationMessage message) {
+        final List<Bulkhead> routedBulkheads = new ArrayList<>();
+        final List<RoutedNotification> routes = new ArrayList<>();
+        for (Bulkhead bulkhead : bulkheads) {
+            RoutedNotification routed = bulkhead.listener.route(message);
+            if (routed != null) {
+                routedBulkheads.add(bulkhead);
+                routes.add(routed);
+            }
+        }
+        if (routes.isEmpty()) {
+            return null;
+        }
+        return new RoutedNotification() {
+            @Override
+            public boolean needsEnrichment() {
+                for (RoutedNotification routed : routes) {
+                    if (routed.needsEnrichment()) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public void deliver() throws Exception {
+                List<String> failures = new ArrayList<>();
+                for (int i = 0; i < routedBulkheads.size(); i++) {
+                    Bulkhead bulkhead = routedBulkheads.get(i);
+                    if (!bulkhead.deliver(message, routes.get(i), watchdog)) {
+                        failures.add(String.format("%s: queue is full", bulkhead.getName()));
+                    }
+                }
+                if (!failures.isEmpty()) {
+                    throw new DeliveryFailedException(routedBulkheads.size(), failures);
+                }
+            }
+        };
+    }
+
+    public List<Bulkhead> getBulkheads() {
+        return bulkheads;
+    }
+
+    @Override
+    public boolean usesEnrichment() {
+        for (Bulkhead bulkhead : bulkheads) {
+            if (bulkhead.listener.usesEnrichment()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int getHeldBackCount() {
+        int held = 0;
+        for (Bulkhead bulkhead : bulkheads) {
+            held += bulkhead.listener.getHeldBackCount();
+        }
+        return held;
+    }
+
+    @Override
+    public int getDigestSize() {
+        int size = 0;
+        for (Bulkhead bulkhead : bulkheads) {
+            size += bulkhead.listener.getDigestSize();
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+        watchdog.shutdownNow();
+        for (Bulkhead bulkhead : bulkheads) {
+            bulkhead.executor.shutdown();
+            bulkhead.listener.close();
+        }
+        super.close();
+    }
+
+    @Override
+    public void onBuilding(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        for (Bulkhead bulkhead : bulkheads) {
+            bulkhead.listener.onBuilding(rule, message);
+        }
+    }
+
+    @Override
+    public void onPassed(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        for (Bulkhead bulkhead : bulkheads) {
+            bulkhead.listener.onPassed(rule, message);
+        }
+    }
+
+    @Override
+    public void onFailed(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        for (Bulkhead bulkhead : bulkheads) {
+            bulkhead.listener.onFailed(rule, message);
+        }
+    }
+
+    @Override
+    public void onBroken(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        for (Bulkhead bulkhead : bulkheads) {
+            bulkhead.listener.onBroken(rule, message);
+        }
+    }
+
+    @Override
+    public void onFixed(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        for (Bulkhead bulkhead : bulkheads) {
+            bulkhead.listener.onFixed(rule, message);
+        }
+    }
+
+    @Override
+    public void onCancelled(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        for (Bulkhead bulkhead : bulkheads) {
+            bulkhead.listener.onCancelled(rule, message);
+        }
+    }
+
+    /**
+     * A listener with the threads and queue that are only used for it.
+     */
+    public static class Bulkhead {
+        private final PipelineListener listener;
+        private final ListenerSettings settings;
+        private final ThreadPoolExecutor executor;
+        private final long timeoutNanos;
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong timedOut = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+
+        public Bulkhead(PipelineListener listener, ListenerSettings settings) {
+            this.listener = listener;
+            this.settings = settings;
+            int threads = Math.max(1, settings.getThreads());
+            this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(Math.max(1, settings.getQueueSize())),
+                    new DaemonThreadFactory("gocd-slack-" + settings.getName()), new ThreadPoolExecutor.AbortPolicy());
+            this.executor.allowCoreThreadTimeOut(true);
+            this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(settings.getTimeoutMillis());
+        }
+
+        /**
+         * Queue the routed notification for the listener, and have the watchdog cancel it once it's overdue. A closed
+         * bulkhead delivers on this thread, like any closed listener does.
+         *
+         * @return false if the queue was full
+         */
+        boolean deliver(final GoNotificationMessage message, RoutedNotification routed, ScheduledExecutorService watchdog) {
+            final Delivery delivery = new Delivery(message, routed);
+            try {
+                delivery.overdue = watchdog.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (delivery.cancel(true)) {
+                            timedOut.incrementAndGet();
+                            LOG.warn(String.format("%s took more than %d ms on %s", getName(), getTimeoutMillis(), message.fullyQualifiedJobName()));
+                        }
+                    }
+                }, timeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // the watchdog is gone with the composite, no time limit for what's still coming in
+            }
+            try {
+                executor.execute(delivery);
+                return true;
+            } catch (RejectedExecutionException e) {
+                if (delivery.overdue != null) {
+                    delivery.overdue.cancel(false);
+                }
+                if (executor.isShutdown()) {
+                    delivery.run();
+                    return true;
+                }
+                rejected.incrementAndGet();
+                LOG.warn(String.format("Queue of %s is full, not sending %s to it", getName(), message.fullyQualifiedJobName()));
+                return false;
+            }
+        }
+
+        public PipelineListener getListener() {
+            return listener;
+        }
+
+        public String getName() {
+            return settings.getName();
+        }
+
+        public long getTimeoutMillis() {
+            return settings.getTimeoutMillis();
+        }
+
+        /**
+         * @return notifications waiting for one of this listener's threads
+         */
+        public int getQueued() {
+            return executor.getQueue().size();
+        }
+
+        public int getActive() {
+            return executor.getActiveCount();
+        }
+
+        public long getDelivered() {
+            return delivered.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public long getTimedOut() {
+            return timedOut.get();
+        }
+
+        /**
+         * @return notifications not sent to this listener because its queue was full
+         */
+        public long getRejected() {
+            return rejected.get();
+        }
+
+        /**
+         * One notification for the listener, counting how it went once it's done.
+         */
+        private class Delivery extends FutureTask<Void> {
+            private final GoNotificationMessage message;
+            private volatile Future<?> overdue;
+
+            Delivery(GoNotificationMessage message, final RoutedNotification routed) {
+                super(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        routed.deliver();
+                        return null;
+                    }
+                });
+                this.message = message;
+            }
+
+            @Override
+            protected void done() {
+                if (overdue != null) {
+                    overdue.cancel(false);
+                }
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    get();
+                    delivered.incrementAndGet();
+                } catch (ExecutionException e) {
+                    failed.incrementAndGet();
+                    LOG.warn(String.format("%s failed on %s", getName(), message.fullyQualifiedJobName()), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package in.ashwanthkumar.gocd.slack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Raised when a notification was handed to several rules and some of them failed. The others were delivered.
+ */
+public class DeliveryFailedException extends Exception {
+    private final int attempted;
+    private final List<String> failures;
+
+    public DeliveryFailedException(int attempted, List<String> failures) {
+        super(String.format("%d of %d deliveries failed", failures.size(), attempted));
+        this.attempted = attempted;
+        this.failures = Collections.unmodifiableList(new ArrayList<>(failures));
+    }
+
+    public int getAttempted() {
+        return attempted;
+    }
+
+    /**
+     * @return one message per failed delivery
+     */
+    public List<String> getFailures() {
+        return failures;
+    }
+}
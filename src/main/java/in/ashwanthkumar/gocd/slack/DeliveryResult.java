@@ -0,0 +1,40 @@
+package in.ashwanthkumar.gocd.slack;
+
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineRule;
+
+/**
+ * How the delivery of a notification for a rule went, see
+ * {@link PipelineListener#deliverAsync(PipelineRule, in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus, GoNotificationMessage, java.util.concurrent.Executor)}.
+ */
+public class DeliveryResult {
+    private final PipelineRule rule;
+    private final Throwable error;
+
+    private DeliveryResult(PipelineRule rule, Throwable error) {
+        this.rule = rule;
+        this.error = error;
+    }
+
+    public static DeliveryResult delivered(PipelineRule rule) {
+        return new DeliveryResult(rule, null);
+    }
+
+    public static DeliveryResult failed(PipelineRule rule, Throwable error) {
+        return new DeliveryResult(rule, error);
+    }
+
+    public PipelineRule getRule() {
+        return rule;
+    }
+
+    public boolean isDelivered() {
+        return error == null;
+    }
+
+    /**
+     * @return why the delivery failed, null if it didn't
+     */
+    public Throwable getError() {
+        return error;
+    }
+}
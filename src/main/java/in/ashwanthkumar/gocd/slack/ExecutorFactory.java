@@ -0,0 +1,159 @@
+package in.ashwanthkumar.gocd.slack;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import in.ashwanthkumar.gocd.slack.ruleset.Rules;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Picks the threads blocking work runs on. With <code>virtual-threads</code> on a JVM that has them (Java 21+),
+ * every task gets a virtual thread of its own. Otherwise it's pools of platform threads, as before. Virtual threads
+ * are looked up by reflection, the plugin still builds and runs on older JVMs.
+ */
+public class ExecutorFactory {
+    private static Logger LOG = Logger.getLoggerFor(ExecutorFactory.class);
+    private static final int FETCH_THREADS = 4;
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findVirtualThreadPerTaskExecutor();
+    private static final AtomicBoolean warnedUnavailable = new AtomicBoolean();
+    private static ExecutorService fetchExecutor;
+    private static ExecutorService enrichmentExecutor;
+    private static ExecutorService hedgeExecutor;
+    // whether the executors above start virtual threads, they're replaced once the rules ask for the other kind
+    private static boolean virtualExecutors;
+
+    public static boolean isVirtualThreadsAvailable() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * @return true if the rules ask for virtual threads and this JVM has them
+     */
+    public static boolean useVirtualThreads(Rules rules) {
+        if (!rules.isVirtualThreads()) {
+            return false;
+        }
+        if (!isVirtualThreadsAvailable()) {
+            if (warnedUnavailable.compareAndSet(false, true)) {
+                LOG.warn(String.format("virtual-threads needs Java 21 or later, running on %s with platform threads", System.getProperty("java.version")));
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return an executor that starts a new virtual thread for every task
+     * @throws IllegalStateException if this JVM has no virtual threads
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (!isVirtualThreadsAvailable()) {
+            throw new IllegalStateException("Virtual threads aren't available on Java " + System.getProperty("java.version"));
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Couldn't create a virtual thread executor", e);
+        }
+    }
+
+    /**
+     * Where the upstream pipelines of a notification are fetched from the GoCD server, in parallel.
+     *
+     * @return null to fetch them one after another on the calling thread, unless <code>virtual-threads</code> is on
+     */
+    public static synchronized ExecutorService fetchExecutor(Rules rules) {
+        followMode(rules);
+        if (!rules.isVirtualThreads()) {
+            return null;
+        }
+        if (fetchExecutor == null) {
+            if (useVirtualThreads(rules)) {
+                fetchExecutor = newVirtualThreadPerTaskExecutor();
+            } else {
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(FETCH_THREADS, FETCH_THREADS, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), new PipelineListener.DaemonThreadFactory("gocd-slack-fetch"));
+                pool.allowCoreThreadTimeOut(true);
+                fetchExecutor = pool;
+            }
+        }
+        return fetchExecutor;
+    }
+
+    /**
+     * Where the enrichment of a notification is fetched when it has an <code>enrichment-deadline</code>, so the
+     * notifying thread can stop waiting for it. Threads are started as needed, there's at most a couple of fetches
+     * per notification in flight.
+     */
+    public static synchronized ExecutorService enrichmentExecutor(Rules rules) {
+        followMode(rules);
+        if (enrichmentExecutor == null) {
+            if (useVirtualThreads(rules)) {
+                enrichmentExecutor = newVirtualThreadPerTaskExecutor();
+            } else {
+                enrichmentExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                        new SynchronousQueue<Runnable>(), new PipelineListener.DaemonThreadFactory("gocd-slack-enrichment"));
+            }
+        }
+        return enrichmentExecutor;
+    }
+
+    /**
+     * Where the calls to a GoCD server with <code>hedge</code> set run, so the calling thread can send a second one
+     * while the first one is still out. Threads are started as needed.
+     */
+    public static synchronized ExecutorService hedgeExecutor(Rules rules) {
+        followMode(rules);
+        if (hedgeExecutor == null) {
+            if (useVirtualThreads(rules)) {
+                hedgeExecutor = newVirtualThreadPerTaskExecutor();
+            } else {
+                hedgeExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                        new SynchronousQueue<Runnable>(), new PipelineListener.DaemonThreadFactory("gocd-slack-hedge"));
+            }
+        }
+        return hedgeExecutor;
+    }
+
+    /**
+     * Stop the executors, called when the plugin is shut down. Tasks already handed to them still run, and they
+     * are created again if they're asked for afterwards.
+     */
+    public static synchronized void shutdown() {
+        if (fetchExecutor != null) {
+            fetchExecutor.shutdown();
+            fetchExecutor = null;
+        }
+        if (enrichmentExecutor != null) {
+            enrichmentExecutor.shutdown();
+            enrichmentExecutor = null;
+        }
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdown();
+            hedgeExecutor = null;
+        }
+    }
+
+    // after a reload turned virtual-threads on or off, the executors are replaced by ones of the other kind
+    private static void followMode(Rules rules) {
+        boolean virtual = useVirtualThreads(rules);
+        if (virtual != virtualExecutors) {
+            shutdown();
+            virtualExecutors = virtual;
+        }
+    }
+
+    private static Method findVirtualThreadPerTaskExecutor() {
+        try {
+            return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package in.ashwanthkumar.gocd.slack;
+
+import java.util.*;
+
+/**
+ * Spots failure storms, like an agent outage failing lots of pipelines at once. Once more than
+ * <code>threshold</code> failures happen within a sliding window, individual failures are suppressed and
+ * collected into a single {@link Incident} instead. The storm is over when the failures in the window drop below
+ * the threshold again.
+ *
+ * A growing incident is reported at most once per window, as each report is a new message. When the incident's
+ * message is edited in place instead, it's reported on every check it grew.
+ */
+public class FailureStormDetector {
+
+    public enum Verdict {
+        /**
+         * No storm, deliver as usual.
+         */
+        DELIVER,
+        /**
+         * This failure started a storm, announce the incident instead of delivering it.
+         */
+        STORM_STARTED,
+        /**
+         * Part of an ongoing storm, only counted in the incident.
+         */
+        SUPPRESS
+    }
+
+    private final int threshold;
+    private final long windowMillis;
+    private final boolean editedInPlace;
+    private final Deque<Failure> failures = new ArrayDeque<>();
+
+    private long incidentStartedAt = -1L;
+    private Map<String, Integer> affected;
+    private int incidentFailures;
+    private long lastReportedAt;
+    private int reportedFailures;
+
+    public FailureStormDetector(int threshold, long windowMillis) {
+        this(threshold, windowMillis, false);
+    }
+
+    /**
+     * @param editedInPlace true if reports edit the incident's message, so they aren't throttled
+     */
+    public FailureStormDetector(int threshold, long windowMillis, boolean editedInPlace) {
+        this.threshold = threshold;
+        this.windowMillis = windowMillis;
+        this.editedInPlace = editedInPlace;
+    }
+
+    public synchronized Verdict record(String pipeline, long nowMillis) {
+        prune(nowMillis);
+        failures.addLast(new Failure(pipeline, nowMillis));
+        if (incidentStartedAt >= 0) {
+            count(pipeline);
+            return Verdict.SUPPRESS;
+        }
+        if (failures.size() <= threshold) {
+            return Verdict.DELIVER;
+        }
+        incidentStartedAt = nowMillis;
+        affected = new LinkedHashMap<>();
+        incidentFailures = 0;
+        for (Failure failure : failures) {
+            count(failure.pipeline);
+        }
+        lastReportedAt = nowMillis;
+        reportedFailures = incidentFailures;
+        return Verdict.STORM_STARTED;
+    }
+
+    /**
+     * @return the ongoing incident, null if there's no storm right now
+     */
+    public synchronized Incident current() {
+        return incidentStartedAt < 0 ? null : snapshot(false);
+    }
+
+    /**
+     * Look at the ongoing storm.
+     *
+     * @return the incident if it's over, or if it grew and wasn't reported for a whole window (or at all, when it's
+     * edited in place); null otherwise
+     */
+    public synchronized Incident check(long nowMillis) {
+        if (incidentStartedAt < 0) {
+            return null;
+        }
+        prune(nowMillis);
+        if (failures.size() < threshold) {
+            Incident over = snapshot(true);
+            incidentStartedAt = -1L;
+            affected = null;
+            return over;
+        }
+        if (incidentFailures > reportedFailures && (editedInPlace || nowMillis - lastReportedAt >= windowMillis)) {
+            lastReportedAt = nowMillis;
+            reportedFailures = incidentFailures;
+            return snapshot(false);
+        }
+        return null;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    private void count(String pipeline) {
+        Integer count = affected.get(pipeline);
+        affected.put(pipeline, count == null ? 1 : count + 1);
+        incidentFailures++;
+    }
+
+    private void prune(long nowMillis) {
+        while (!failures.isEmpty() && nowMillis - failures.peekFirst().at >= windowMillis) {
+            failures.removeFirst();
+        }
+    }
+
+    private Incident snapshot(boolean over) {
+        return new Incident(incidentStartedAt, affected, incidentFailures, over);
+    }
+
+    private static class Failure {
+        private final String pipeline;
+        private final long at;
+
+        Failure(String pipeline, long at) {
+            this.pipeline = pipeline;
+            this.at = at;
+        }
+    }
+
+    /**
+     * State of a failure storm at some point in time.
+     */
+    public static class Incident {
+        private final long startedAt;
+        private final Map<String, Integer> failuresByPipeline;
+        private final int failures;
+        private final boolean over;
+
+        Incident(long startedAt, Map<String, Integer> failuresByPipeline, int failures, boolean over) {
+            this.startedAt = startedAt;
+            this.failuresByPipeline = Collections.unmodifiableMap(new LinkedHashMap<>(failuresByPipeline));
+            this.failures = failures;
+            this.over = over;
+        }
+
+        /**
+         * @return when the storm started, also identifies the incident
+         */
+        public long getStartedAt() {
+            return startedAt;
+        }
+
+        /**
+         * @return failures per pipeline, in the order the pipelines first failed
+         */
+        public Map<String, Integer> getFailuresByPipeline() {
+            return failuresByPipeline;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        public boolean isOver() {
+            return over;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package in.ashwanthkumar.gocd.slack;
 import com.google.gson.annotations.SerializedName;
 import com.thoughtworks.go.plugin.api.logging.Logger;
 import in.ashwanthkumar.gocd.slack.jsonapi.*;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
 import in.ashwanthkumar.gocd.slack.ruleset.Rules;
 import in.ashwanthkumar.utils.lang.StringUtils;
 
@@ -12,7 +13,7 @@ import java.net.URISyntaxException;
 import java.util.List;
 
 public class GoNotificationMessage {
-    private Logger LOG = Logger.getLoggerFor(GoNotificationMessage.class);
+    private static Logger LOG = Logger.getLoggerFor(GoNotificationMessage.class);
 
     private final ServerFactory serverFactory;
 
@@ -83,6 +84,15 @@ public class GoNotificationMessage {
     // Internal cache of pipeline history data from GoCD's JSON API.
     private History mRecentPipelineHistory;
 
+    // Shared by all the rules matching this notification, built on first use.
+    private transient NotificationEnrichment enrichment;
+
+    // When GoCD notified us, the enrichment-deadline counts from there.
+    private transient long receivedAt;
+
+    // Whether tryToFixStageResult already ran, a classified message isn't classified again.
+    private transient boolean classified;
+
     public String goServerUrl(String host) throws URISyntaxException {
         return new URI(String.format("%s/go/pipelines/%s/%s/%s/%s", host, pipeline.name, pipeline.counter, pipeline.stage.name, pipeline.stage.counter)).normalize().toASCIIString();
     }
@@ -135,7 +145,7 @@ public class GoNotificationMessage {
         throws URISyntaxException, IOException
     {
         if (mRecentPipelineHistory == null) {
-            Server server = serverFactory.getServer(rules);
+            Server server = serverFactory.getServer(rules, pipeline.name, pipeline.group);
             mRecentPipelineHistory = server.getPipelineHistory(pipeline.name);
         }
         return mRecentPipelineHistory;
@@ -158,8 +168,26 @@ public class GoNotificationMessage {
         throw new BuildDetailsNotFoundException(getPipelineName(), counter);
     }
 
-    public void tryToFixStageResult(Rules rules)
+    /**
+     * @return the status as GoCD reported it, without asking the server whether the stage is broken or fixed
+     */
+    public PipelineStatus reportedStatus() {
+        if (pipeline.stage.state.equalsIgnoreCase("BUILDING") && pipeline.stage.result.equalsIgnoreCase("UNKNOWN")) {
+            return PipelineStatus.BUILDING;
+        }
+        try {
+            return PipelineStatus.valueOf(pipeline.stage.result.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return PipelineStatus.BUILDING;
+        }
+    }
+
+    public synchronized void tryToFixStageResult(Rules rules)
     {
+        if (classified) {
+            return;
+        }
+        classified = true;
         String currentStatus = pipeline.stage.state.toUpperCase();
         String currentResult = pipeline.stage.result.toUpperCase();
         if (currentStatus.equals("BUILDING") && currentResult.equals("UNKNOWN")) {
@@ -212,10 +240,35 @@ public class GoNotificationMessage {
     }
 
     public List<MaterialRevision> fetchChanges(Rules rules) throws IOException {
-        Server server = serverFactory.getServer(rules);
+        Server server = serverFactory.getServer(rules, pipeline.name, pipeline.group);
 
         Pipeline pipelineInstance = server.getPipelineInstance(pipeline.name, Integer.parseInt(pipeline.counter));
         LOG.info("fetchChanges for " + pipeline.name + pipeline.counter);
-        return pipelineInstance.rootChanges(server);
+        return pipelineInstance.rootChanges(server, ExecutorFactory.fetchExecutor(rules));
+    }
+
+    public long getReceivedAt() {
+        return receivedAt == 0 ? System.currentTimeMillis() : receivedAt;
+    }
+
+    public void setReceivedAt(long receivedAt) {
+        this.receivedAt = receivedAt;
+    }
+
+    /**
+     * Everything the listeners need from the GoCD server about this notification, fetched on the first call and
+     * shared by every later one. If the first call had to settle for a partial enrichment, later calls get the
+     * complete one as soon as it's there.
+     */
+    public synchronized NotificationEnrichment enrichment(Rules rules) {
+        if (enrichment == null) {
+            enrichment = NotificationEnrichment.build(this, rules);
+        } else if (!enrichment.isComplete()) {
+            NotificationEnrichment complete = enrichment.whenComplete().toCompletableFuture().getNow(null);
+            if (complete != null) {
+                enrichment = complete;
+            }
+        }
+        return enrichment;
     }
 }
@@ -1,22 +1,42 @@
 package in.ashwanthkumar.gocd.slack;
 
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParser;
 import com.thoughtworks.go.plugin.api.GoApplicationAccessor;
 import com.thoughtworks.go.plugin.api.GoPlugin;
 import com.thoughtworks.go.plugin.api.GoPluginIdentifier;
 import com.thoughtworks.go.plugin.api.annotation.Extension;
+import com.thoughtworks.go.plugin.api.annotation.UnLoad;
+import com.thoughtworks.go.plugin.api.info.PluginContext;
 import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import in.ashwanthkumar.gocd.slack.base.AbstractNotificationPlugin;
+import in.ashwanthkumar.gocd.slack.dispatch.NotificationDispatcher;
+import in.ashwanthkumar.gocd.slack.dispatch.PriorityLanes;
+import in.ashwanthkumar.gocd.slack.flow.Stage;
+import in.ashwanthkumar.gocd.slack.flow.StagedPipeline;
+import in.ashwanthkumar.gocd.slack.jsonapi.PipelineInstanceCache;
+import in.ashwanthkumar.gocd.slack.jsonapi.Server;
+import in.ashwanthkumar.gocd.slack.jsonapi.ServerFactory;
+import in.ashwanthkumar.gocd.slack.ruleset.RuleStatsReport;
 import in.ashwanthkumar.gocd.slack.ruleset.Rules;
+import in.ashwanthkumar.gocd.slack.ruleset.RulesCache;
+import in.ashwanthkumar.gocd.slack.ruleset.RulesDirectory;
 import in.ashwanthkumar.gocd.slack.ruleset.RulesReader;
+import in.ashwanthkumar.gocd.slack.ruleset.StageSettings;
 import in.ashwanthkumar.utils.lang.StringUtils;
+import in.ashwanthkumar.utils.lang.option.Option;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static java.util.Arrays.asList;
@@ -43,37 +63,67 @@ public class GoNotificationPlugin extends AbstractNotificationPlugin implements
     public static final String CONFIG_FILE_NAME = "go_notify.conf";
     public static final String HOME_PLUGIN_CONFIG_PATH = System.getProperty("user.home") + File.separator + CONFIG_FILE_NAME;
 
+    public static final String DATA_DIR_NAME = ".go_notify";
+    private static final int PENDING_NOTIFICATIONS_CAPACITY = 100;
+
     private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
     private GoEnvironment environment = new GoEnvironment();
     private Rules rules;
+    // null when notifications are delivered on the thread GoCD notifies us on
+    private NotificationDispatcher dispatcher;
+    // null unless notifications go through stages, which then takes precedence over the dispatcher
+    private StagedPipeline<StagedNotification> stagedPipeline;
 
     private final Timer timer = new Timer();
     private long configLastModified = 0L;
     private File pluginConfig;
+    private RulesCache rulesCache;
+    private PluginStats pluginStats;
+    private RulesDirectory rulesDirectory;
+    private UndeliveredNotifications undeliveredNotifications;
+
+    private final long startedAt = System.nanoTime();
+    private volatile long startupTimeMillis = -1L;
+    private PendingNotifications pendingNotifications = new PendingNotifications(PENDING_NOTIFICATIONS_CAPACITY);
+    private final AtomicBoolean shutDown = new AtomicBoolean();
+    // guards saving the undelivered notifications on shutdown against notifications that still come in
+    private final Object undeliveredLock = new Object();
+    private boolean undeliveredSaved;
+    private Thread shutdownHook;
 
     public GoNotificationPlugin() {
         pluginConfig = findGoNotifyConfigPath();
+        File dataDirectory = new File(pluginConfig.getAbsoluteFile().getParentFile(), DATA_DIR_NAME);
+        rulesCache = new RulesCache(dataDirectory);
+        pluginStats = new PluginStats(dataDirectory);
+        undeliveredNotifications = new UndeliveredNotifications(dataDirectory);
+        // sized by the rules once they're loaded
+        ServerFactory.setInstanceCache(new PipelineInstanceCache(new File(dataDirectory, PipelineInstanceCache.DIRECTORY_NAME), 0));
+        replayUndeliveredNotifications();
+        loadCachedRules();
+        if (pluginConfig.isDirectory()) {
+            // pipeline rules are swapped in the live rules, while no notification is going through them
+            rulesDirectory = new RulesDirectory(pluginConfig, lock.writeLock());
+        }
         timer.scheduleAtFixedRate(new TimerTask() {
             @Override
             public void run() {
-                if (pluginConfig.lastModified() != configLastModified) {
-                    if (configLastModified == 0L) {
-                        LOGGER.info("Loading configuration file");
-                    } else {
-                        LOGGER.info("Reloading configuration file since some modifications were found");
-                    }
-                    try {
-                        lock.writeLock().lock();
-                        rules = RulesReader.read(pluginConfig);
-                    } catch (Exception e) {
-                        LOGGER.error(e.getMessage(), e);
-                    } finally {
-                        lock.writeLock().unlock();
-                    }
-                    configLastModified = pluginConfig.lastModified();
+                if (rulesDirectory != null) {
+                    reloadConfigDirectory();
+                } else {
+                    reloadConfigFile();
                 }
+                dumpStats();
             }
         }, 0, CONFIG_REFRESH_INTERVAL);
+
+        shutdownHook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                shutdown();
+            }
+        }, "gocd-slack-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
     }
 
     // used for tests
@@ -81,6 +131,473 @@ public class GoNotificationPlugin extends AbstractNotificationPlugin implements
         this.environment = environment;
     }
 
+    /**
+     * Whatever wasn't delivered when we were last shut down goes through the rules as soon as they are ready.
+     */
+    private void replayUndeliveredNotifications() {
+        List<String> undelivered = undeliveredNotifications.takeAll();
+        if (!undelivered.isEmpty()) {
+            LOGGER.info(String.format("Replaying %d notification(s) left undelivered at the last shutdown", undelivered.size()));
+            pendingNotifications = new PendingNotifications(Math.max(PENDING_NOTIFICATIONS_CAPACITY, undelivered.size()));
+            for (String requestBody : undelivered) {
+                pendingNotifications.add(requestBody);
+            }
+        }
+    }
+
+    @UnLoad
+    public void onUnload(PluginContext context) {
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // the JVM is already shutting down, the hook takes care of it
+                return;
+            }
+        }
+        shutdown();
+    }
+
+    /**
+     * Stop taking notifications in, give the queued ones up to <code>shutdown-timeout</code> to be delivered, and
+     * save whatever is left for the next start.
+     */
+    void shutdown() {
+        if (!shutDown.compareAndSet(false, true)) {
+            return;
+        }
+        timer.cancel();
+
+        NotificationDispatcher currentDispatcher;
+        StagedPipeline<StagedNotification> currentStages;
+        long timeoutMillis;
+        lock.readLock().lock();
+        try {
+            currentDispatcher = dispatcher;
+            currentStages = stagedPipeline;
+            timeoutMillis = rules == null ? 0 : rules.getShutdownTimeoutMillis();
+        } finally {
+            lock.readLock().unlock();
+        }
+        LOGGER.info(String.format("Shutting down, delivering queued notifications for up to %d ms", timeoutMillis));
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        boolean locked = false;
+        try {
+            if (currentDispatcher != null && !currentDispatcher.awaitIdle(timeoutMillis)) {
+                LOGGER.warn("Queued notifications weren't all delivered in time");
+            }
+            if (currentStages != null) {
+                currentStages.close();
+                if (!currentStages.awaitIdle(Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())))) {
+                    LOGGER.warn("Notifications in the stages weren't all delivered in time");
+                }
+            }
+            // notifications being delivered on GoCD's threads hold the read lock
+            locked = lock.writeLock().tryLock(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<String> undelivered = new ArrayList<>();
+        PipelineListener listener;
+        try {
+            if (dispatcher != null) {
+                for (PriorityLanes.Queued<Runnable> queued : dispatcher.close()) {
+                    undelivered.add(((Delivery) queued.getItem()).requestBody);
+                }
+                dispatcher = null;
+            }
+            if (stagedPipeline != null) {
+                for (StagedNotification notification : stagedPipeline.getInFlight()) {
+                    undelivered.add(notification.requestBody);
+                }
+                stagedPipeline.abort();
+                stagedPipeline = null;
+            }
+            listener = rules == null ? null : rules.getPipelineListener();
+        } finally {
+            if (locked) {
+                lock.writeLock().unlock();
+            }
+        }
+        // posts what the listener was holding back for later, like digests
+        if (listener != null) {
+            listener.close();
+        }
+        ExecutorFactory.shutdown();
+        synchronized (undeliveredLock) {
+            undelivered.addAll(pendingNotifications.drain());
+            if (undeliveredNotifications != null) {
+                undeliveredNotifications.save(undelivered);
+            } else if (!undelivered.isEmpty()) {
+                LOGGER.warn(String.format("Dropped %d undelivered notification(s) on shutdown", undelivered.size()));
+            }
+            undeliveredSaved = true;
+        }
+    }
+
+    /**
+     * A notification came in too late to be delivered, keep it for the next start. Once the rest was saved on
+     * shutdown, it's added to the saved ones.
+     */
+    private void keepForNextStart(String requestBody) {
+        synchronized (undeliveredLock) {
+            if (!undeliveredSaved) {
+                // saved along with the rest
+                pendingNotifications.add(requestBody);
+            } else if (undeliveredNotifications != null) {
+                undeliveredNotifications.add(requestBody);
+            } else {
+                LOGGER.warn("Dropped a notification that came in after the shutdown");
+            }
+        }
+    }
+
+    private void reloadConfigFile() {
+        if (pluginConfig.lastModified() != configLastModified) {
+            if (configLastModified == 0L) {
+                LOGGER.info("Loading configuration file");
+            } else {
+                LOGGER.info("Reloading configuration file since some modifications were found");
+            }
+            try {
+                Rules newRules = RulesReader.read(pluginConfig);
+                rulesCache.save(newRules, pluginConfig);
+                rulesReady(newRules, "configuration file");
+            } catch (Exception e) {
+                LOGGER.error(e.getMessage(), e);
+            }
+            configLastModified = pluginConfig.lastModified();
+        }
+    }
+
+    private void reloadConfigDirectory() {
+        if (rulesDirectory.hasChanges()) {
+            LOGGER.info("Reloading configuration fragments since some modifications were found");
+            try {
+                Rules newRules = rulesDirectory.refresh();
+                rulesCache.save(newRules, pluginConfig);
+                // when only pipelines changed the live rules were updated in place
+                if (newRules != rules) {
+                    rulesReady(newRules, "configuration directory");
+                }
+            } catch (Exception e) {
+                LOGGER.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Serve notifications from the last good rules we compiled, while the timer re-reads the config in the background.
+     */
+    private void loadCachedRules() {
+        Option<RulesCache.CachedRules> cached = rulesCache.load();
+        if (cached.isDefined()) {
+            // the timer still parses the config in the background, for the values it takes from the environment
+            // and, with a config directory, to start tracking its fragments
+            if (!cached.get().isUpToDateWith(pluginConfig)) {
+                LOGGER.info("The config changed since the rules were cached, using them until it's parsed again");
+            }
+            rulesReady(cached.get().getRules(), "rules cache");
+        }
+    }
+
+    private void rulesReady(Rules newRules, String source) {
+        List<String> pending;
+        Rules oldRules;
+        lock.writeLock().lock();
+        try {
+            oldRules = rules;
+            rules = newRules;
+            pending = pendingNotifications.drain();
+            if (oldRules == null || dispatchChanged(oldRules, newRules)) {
+                reconfigureDispatcher(newRules);
+            }
+            if (oldRules == null || !oldRules.getStages().equals(newRules.getStages())) {
+                reconfigureStages(newRules);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // nothing is delivering through the old listener anymore once we got the write lock
+        if (oldRules != null && oldRules != newRules && oldRules.getPipelineListener() != null) {
+            oldRules.getPipelineListener().close();
+        }
+
+        if (startupTimeMillis < 0) {
+            startupTimeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+            LOGGER.info(String.format("Rules loaded from %s, plugin ready in %d ms", source, startupTimeMillis));
+        }
+
+        if (!pending.isEmpty()) {
+            LOGGER.info(String.format("Delivering %d notification(s) received before the rules were ready", pending.size()));
+            for (String requestBody : pending) {
+                if (submitToStages(requestBody)) {
+                    continue;
+                }
+                lock.readLock().lock();
+                try {
+                    deliverOrDispatch(requestBody);
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+        }
+    }
+
+    private static boolean dispatchChanged(Rules oldRules, Rules newRules) {
+        return oldRules.getDispatchWorkers() != newRules.getDispatchWorkers()
+                || oldRules.getDispatchMaxQueued() != newRules.getDispatchMaxQueued()
+                || !oldRules.getDispatchLaneDepths().equals(newRules.getDispatchLaneDepths());
+    }
+
+    // should be called holding the write lock
+    private void reconfigureDispatcher(Rules newRules) {
+        List<PriorityLanes.Queued<Runnable>> waiting = new ArrayList<>();
+        if (dispatcher != null) {
+            waiting = dispatcher.close();
+        }
+        dispatcher = null;
+        if (newRules.getDispatchWorkers() > 0) {
+            dispatcher = new NotificationDispatcher(newRules.getDispatchWorkers(), newRules.getDispatchLaneDepths(), newRules.getDispatchMaxQueued());
+        }
+        for (PriorityLanes.Queued<Runnable> queued : waiting) {
+            if (dispatcher != null) {
+                dispatcher.submit(queued.getKey(), queued.getStatus(), queued.getItem());
+            } else {
+                // runs once we let go of the write lock
+                timer.schedule(asTimerTask(queued.getItem()), 0);
+            }
+        }
+    }
+
+    // should be called holding the write lock
+    private void reconfigureStages(Rules newRules) {
+        if (stagedPipeline != null) {
+            // goes on delivering what it has once we let go of the write lock
+            stagedPipeline.close();
+        }
+        stagedPipeline = null;
+        if (!newRules.getStages().isEmpty()) {
+            stagedPipeline = newStagedPipeline(newRules.getStages());
+        }
+    }
+
+    private StagedPipeline<StagedNotification> newStagedPipeline(List<StageSettings> settings) {
+        Map<String, Stage.Step<StagedNotification>> steps = new HashMap<>();
+        steps.put(StageSettings.PARSE, new Stage.Step<StagedNotification>() {
+            @Override
+            public StagedNotification process(StagedNotification notification) {
+                notification.message = parseNotificationMessage(notification.requestBody);
+                notification.message.setReceivedAt(notification.receivedAt);
+                return notification;
+            }
+        });
+        steps.put(StageSettings.CLASSIFY, new Stage.Step<StagedNotification>() {
+            @Override
+            public StagedNotification process(StagedNotification notification) {
+                // marks the message classified, the listener doesn't fetch the history for it again
+                notification.message.tryToFixStageResult(currentRules());
+                return notification;
+            }
+        });
+        steps.put(StageSettings.ROUTE, new Stage.Step<StagedNotification>() {
+            @Override
+            public StagedNotification process(StagedNotification notification) {
+                // matched once here, with the storm, digest and quota already applied, so nothing is enriched
+                // that won't be posted right away
+                lock.readLock().lock();
+                try {
+                    notification.routed = rules.getPipelineListener().route(notification.message);
+                } finally {
+                    lock.readLock().unlock();
+                }
+                if (notification.routed == null) {
+                    return null;
+                }
+                notification.enrich = notification.routed.needsEnrichment();
+                return notification;
+            }
+        });
+        steps.put(StageSettings.ENRICH, new Stage.Step<StagedNotification>() {
+            @Override
+            public StagedNotification process(StagedNotification notification) {
+                if (notification.enrich) {
+                    notification.message.enrichment(currentRules());
+                }
+                return notification;
+            }
+        });
+        steps.put(StageSettings.DELIVER, new Stage.Step<StagedNotification>() {
+            @Override
+            public StagedNotification process(StagedNotification notification) throws Exception {
+                GoNotificationMessage message = notification.message;
+                LOGGER.info(message.fullyQualifiedJobName() + " has " + message.getStageState() + "/" + message.getStageResult());
+                // by the listener that routed it, even if the rules were reloaded in the meantime. A failure is
+                // logged and counted by the stage
+                lock.readLock().lock();
+                try {
+                    notification.routed.deliver();
+                } finally {
+                    lock.readLock().unlock();
+                }
+                return notification;
+            }
+        });
+
+        Function<StagedNotification, String> pipelineOf = new Function<StagedNotification, String>() {
+            @Override
+            public String apply(StagedNotification notification) {
+                // not parsed yet, all on the same thread
+                return notification.message == null ? "" : notification.message.getPipelineName();
+            }
+        };
+        List<Stage<StagedNotification>> stages = new ArrayList<>();
+        for (StageSettings stage : settings) {
+            stages.add(new Stage<>(stage.getName(), stage.getThreads(), stage.getBufferSize(), pipelineOf, steps.get(stage.getName())));
+        }
+        return new StagedPipeline<>(settings.get(0).getBufferSize(), stages);
+    }
+
+    private Rules currentRules() {
+        lock.readLock().lock();
+        try {
+            return rules;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Hand the notification to the stages, waiting for room in them. This mustn't hold the read lock: the stages
+     * take it to deliver, and couldn't once a reload of the rules is waiting for the write lock.
+     *
+     * @return false if notifications don't go through stages
+     */
+    private boolean submitToStages(String requestBody) {
+        while (true) {
+            StagedPipeline<StagedNotification> current;
+            lock.readLock().lock();
+            try {
+                if (shutDown.get()) {
+                    keepForNextStart(requestBody);
+                    return true;
+                }
+                current = stagedPipeline;
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (current == null) {
+                return false;
+            }
+            try {
+                current.submit(new StagedNotification(requestBody));
+                return true;
+            } catch (IllegalStateException e) {
+                // the stages were replaced in the meantime, try the new ones
+            }
+        }
+    }
+
+    private static TimerTask asTimerTask(final Runnable runnable) {
+        return new TimerTask() {
+            @Override
+            public void run() {
+                runnable.run();
+            }
+        };
+    }
+
+    private void dumpStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("startupTimeMillis", startupTimeMillis);
+        stats.put("pendingNotifications", pendingNotifications.size());
+        stats.put("droppedPendingNotifications", pendingNotifications.getDropped());
+        lock.readLock().lock();
+        try {
+            if (rules != null) {
+                stats.put("heldBackNotifications", rules.getPipelineListener().getHeldBackCount());
+                stats.put("digestedNotifications", rules.getPipelineListener().getDigestSize());
+                stats.put("rules", RuleStatsReport.toMaps(rules.getPipelineRules()));
+                if (rules.getPipelineListener() instanceof CompositePipelineListener) {
+                    stats.put("listeners", listenerStats((CompositePipelineListener) rules.getPipelineListener()));
+                } else if (rules.getPipelineListener() instanceof WebhookPipelineListener) {
+                    stats.put("lostEvents", ((WebhookPipelineListener) rules.getPipelineListener()).getLostEvents());
+                }
+            }
+            if (stagedPipeline != null) {
+                stats.put("stages", stagedPipeline.getStageStats());
+            }
+            stats.put("goServers", goServerStats());
+            PipelineInstanceCache instanceCache = ServerFactory.getInstanceCache();
+            if (instanceCache != null) {
+                Map<String, Object> cacheStats = new LinkedHashMap<>();
+                cacheStats.put("instances", instanceCache.getSize());
+                cacheStats.put("bytes", instanceCache.getBytes());
+                cacheStats.put("hits", instanceCache.getHits());
+                cacheStats.put("misses", instanceCache.getMisses());
+                stats.put("instanceCache", cacheStats);
+            }
+            if (dispatcher != null) {
+                Map<String, Object> dispatch = new LinkedHashMap<>();
+                dispatch.put("shed", dispatcher.getShed());
+                dispatch.put("shards", dispatcher.getShardStats());
+                stats.put("dispatch", dispatch);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        pluginStats.write(stats);
+    }
+
+    private static List<Map<String, Object>> goServerStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (Server server : ServerFactory.getServers()) {
+            Map<String, Object> serverStats = new LinkedHashMap<>();
+            serverStats.put("name", server.getName());
+            serverStats.put("maxConcurrentRequests", server.getMaxConcurrentRequests());
+            serverStats.put("concurrencyLimit", server.getConcurrencyLimit());
+            serverStats.put("inFlight", server.getInFlight());
+            serverStats.put("timedOut", server.getTimedOut());
+            serverStats.put("hedged", server.getHedged());
+            serverStats.put("hedgesWon", server.getHedgesWon());
+            serverStats.put("cachedInstances", server.getCachedInstances());
+            stats.add(serverStats);
+        }
+        return stats;
+    }
+
+    private static List<Map<String, Object>> listenerStats(CompositePipelineListener listener) {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (CompositePipelineListener.Bulkhead bulkhead : listener.getBulkheads()) {
+            Map<String, Object> bulkheadStats = new LinkedHashMap<>();
+            bulkheadStats.put("name", bulkhead.getName());
+            bulkheadStats.put("active", bulkhead.getActive());
+            bulkheadStats.put("queued", bulkhead.getQueued());
+            bulkheadStats.put("delivered", bulkhead.getDelivered());
+            bulkheadStats.put("failed", bulkhead.getFailed());
+            bulkheadStats.put("timedOut", bulkhead.getTimedOut());
+            bulkheadStats.put("rejected", bulkhead.getRejected());
+            if (bulkhead.getListener() instanceof WebhookPipelineListener) {
+                bulkheadStats.put("lostEvents", ((WebhookPipelineListener) bulkhead.getListener()).getLostEvents());
+            }
+            stats.add(bulkheadStats);
+        }
+        return stats;
+    }
+
+    /**
+     * @return time it took from plugin construction until the rules were first available, or -1 if they aren't yet.
+     */
+    public long getStartupTimeMillis() {
+        return startupTimeMillis;
+    }
+
+    public int getPendingNotificationsCount() {
+        return pendingNotifications.size();
+    }
+
     public void initializeGoApplicationAccessor(GoApplicationAccessor goApplicationAccessor) {
         // ignore
     }
@@ -141,7 +658,115 @@ public class GoNotificationPlugin extends AbstractNotificationPlugin implements
     }
 
     private GoPluginApiResponse handleStageNotification(GoPluginApiRequest goPluginApiRequest) {
-        GoNotificationMessage message = parseNotificationMessage(goPluginApiRequest);
+        String requestBody = goPluginApiRequest.requestBody();
+        lock.readLock().lock();
+        try {
+            if (shutDown.get()) {
+                keepForNextStart(requestBody);
+                Map<String, Object> response = new HashMap<>();
+                response.put("status", "success");
+                return renderJSON(SUCCESS_RESPONSE_CODE, response);
+            }
+            if (rules == null) {
+                // rules are still being loaded, hold on to it until they are ready
+                pendingNotifications.add(requestBody);
+                LOGGER.info("Rules aren't loaded yet, queued the notification until they are");
+                Map<String, Object> response = new HashMap<>();
+                response.put("status", "success");
+                return renderJSON(SUCCESS_RESPONSE_CODE, response);
+            }
+            recordEvent(requestBody);
+            if (stagedPipeline == null) {
+                return deliverOrDispatch(requestBody);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (!submitToStages(requestBody)) {
+            // stages were turned off in the meantime
+            lock.readLock().lock();
+            try {
+                return deliverOrDispatch(requestBody);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        return renderJSON(SUCCESS_RESPONSE_CODE, response);
+    }
+
+    // should be called holding the read lock
+    private GoPluginApiResponse deliverOrDispatch(String requestBody) {
+        GoNotificationMessage message = parseNotificationMessage(requestBody);
+        if (dispatcher != null) {
+            dispatcher.submit(message.getPipelineName(), message.reportedStatus(), new Delivery(requestBody, message));
+            Map<String, Object> response = new HashMap<>();
+            response.put("status", "success");
+            return renderJSON(SUCCESS_RESPONSE_CODE, response);
+        }
+        return notifyListener(message);
+    }
+
+    /**
+     * A notification on its way through the stages, filled in as it goes.
+     */
+    private static class StagedNotification {
+        private final String requestBody;
+        private final long receivedAt = System.currentTimeMillis();
+        private GoNotificationMessage message;
+        // the rules the listener delivers it for
+        private RoutedNotification routed;
+        // whether the listener will render from the enrichment
+        private boolean enrich;
+
+        StagedNotification(String requestBody) {
+            this.requestBody = requestBody;
+        }
+    }
+
+    /**
+     * Deliver on a dispatch worker, with whatever rules are live by then. Failures are only logged, GoCD has long
+     * been told we got the notification.
+     */
+    private class Delivery implements Runnable {
+        private final String requestBody;
+        private final GoNotificationMessage message;
+
+        Delivery(String requestBody, GoNotificationMessage message) {
+            this.requestBody = requestBody;
+            this.message = message;
+        }
+
+        @Override
+        public void run() {
+            lock.readLock().lock();
+            try {
+                notifyListener(message);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Append the notification as a single line to the <code>record-events-to</code> file, for RulesReplay.
+     */
+    private synchronized void recordEvent(String requestBody) {
+        if (StringUtils.isEmpty(rules.getRecordEventsTo())) {
+            return;
+        }
+        try {
+            String line = new JsonParser().parse(requestBody).toString() + System.lineSeparator();
+            FileUtils.writeStringToFile(new File(rules.getRecordEventsTo()), line, StandardCharsets.UTF_8, true);
+        } catch (Exception e) {
+            LOGGER.warn("Unable to record notification to " + rules.getRecordEventsTo(), e);
+        }
+    }
+
+    // should be called holding the read lock
+    private GoPluginApiResponse notifyListener(GoNotificationMessage message) {
         int responseCode = SUCCESS_RESPONSE_CODE;
 
         Map<String, Object> response = new HashMap<>();
@@ -149,8 +774,13 @@ public class GoNotificationPlugin extends AbstractNotificationPlugin implements
         try {
             response.put("status", "success");
             LOGGER.info(message.fullyQualifiedJobName() + " has " + message.getStageState() + "/" + message.getStageResult());
-            lock.readLock().lock();
             rules.getPipelineListener().notify(message);
+        } catch (DeliveryFailedException e) {
+            // some of the rules were delivered, report the ones that weren't
+            LOGGER.info(message.fullyQualifiedJobName() + " " + e.getMessage());
+            responseCode = INTERNAL_ERROR_RESPONSE_CODE;
+            response.put("status", "failure");
+            messages.addAll(e.getFailures());
         } catch (Exception e) {
             LOGGER.info(message.fullyQualifiedJobName() + " failed with error", e);
             responseCode = INTERNAL_ERROR_RESPONSE_CODE;
@@ -158,8 +788,6 @@ public class GoNotificationPlugin extends AbstractNotificationPlugin implements
             if (!isEmpty(e.getMessage())) {
                 messages.add(e.getMessage());
             }
-        } finally {
-            lock.readLock().unlock();
         }
 
         if (!messages.isEmpty()) {
@@ -172,12 +800,14 @@ public class GoNotificationPlugin extends AbstractNotificationPlugin implements
         return str == null || str.trim().isEmpty();
     }
 
-    private GoNotificationMessage parseNotificationMessage(GoPluginApiRequest goPluginApiRequest) {
-        return new GsonBuilder().create().fromJson(goPluginApiRequest.requestBody(), GoNotificationMessage.class);
+    private GoNotificationMessage parseNotificationMessage(String requestBody) {
+        GoNotificationMessage message = new GsonBuilder().create().fromJson(requestBody, GoNotificationMessage.class);
+        message.setReceivedAt(System.currentTimeMillis());
+        return message;
     }
 
     private File findGoNotifyConfigPath() {
-        // case 1: Look for an environment variable by GO_NOTIFY_CONF and if a file identified by the value exist
+        // case 1: Look for an environment variable by GO_NOTIFY_CONF and if a file (or a directory of *.conf fragments) identified by the value exist
         String goNotifyConfPath = environment.getenv(GO_NOTIFY_CONF);
         if (StringUtils.isNotEmpty(goNotifyConfPath)) {
             File pluginConfig = new File(goNotifyConfPath);
@@ -0,0 +1,103 @@
+package in.ashwanthkumar.gocd.slack;
+
+import in.ashwanthkumar.gocd.slack.ruleset.Destination;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+
+import java.util.*;
+
+/**
+ * Notifications gathered per {@link Destination} to be posted together as one digest, either on a schedule or
+ * once <code>maxSize</code> of them are waiting for the same destination.
+ */
+public class NotificationDigest {
+    private final int maxSize;
+    private final Map<Destination, List<Entry>> pending = new LinkedHashMap<>();
+
+    public NotificationDigest(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the entries for the destination if that filled it up, they have to be posted right away; null otherwise
+     */
+    public synchronized List<Entry> add(Destination destination, Entry entry) {
+        List<Entry> entries = pending.get(destination);
+        if (entries == null) {
+            entries = new ArrayList<>();
+            pending.put(destination, entries);
+        }
+        entries.add(entry);
+        if (entries.size() >= maxSize) {
+            pending.remove(destination);
+            return entries;
+        }
+        return null;
+    }
+
+    /**
+     * Remove and return everything that's waiting, per destination.
+     */
+    public synchronized Map<Destination, List<Entry>> drain() {
+        Map<Destination, List<Entry>> drained = new LinkedHashMap<>(pending);
+        pending.clear();
+        return drained;
+    }
+
+    public synchronized int size() {
+        int size = 0;
+        for (List<Entry> entries : pending.values()) {
+            size += entries.size();
+        }
+        return size;
+    }
+
+    /**
+     * A notification as it shows up in a digest, only what we got from GoCD's notification itself.
+     */
+    public static class Entry {
+        private final String pipeline;
+        private final String pipelineCounter;
+        private final String stage;
+        private final String stageCounter;
+        private final PipelineStatus status;
+        private final long receivedAt;
+
+        public Entry(String pipeline, String pipelineCounter, String stage, String stageCounter, PipelineStatus status, long receivedAt) {
+            this.pipeline = pipeline;
+            this.pipelineCounter = pipelineCounter;
+            this.stage = stage;
+            this.stageCounter = stageCounter;
+            this.status = status;
+            this.receivedAt = receivedAt;
+        }
+
+        static Entry of(GoNotificationMessage message, PipelineStatus status, long receivedAt) {
+            return new Entry(message.getPipelineName(), message.getPipelineCounter(), message.getStageName(),
+                    message.getStageCounter(), status, receivedAt);
+        }
+
+        public String getPipeline() {
+            return pipeline;
+        }
+
+        public String getPipelineCounter() {
+            return pipelineCounter;
+        }
+
+        public String getStage() {
+            return stage;
+        }
+
+        public String getStageCounter() {
+            return stageCounter;
+        }
+
+        public PipelineStatus getStatus() {
+            return status;
+        }
+
+        public long getReceivedAt() {
+            return receivedAt;
+        }
+    }
+}
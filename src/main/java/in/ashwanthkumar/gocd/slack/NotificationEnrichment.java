@@ -0,0 +1,272 @@
+package in.ashwanthkumar.gocd.slack;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import in.ashwanthkumar.gocd.slack.jsonapi.MaterialRevision;
+import in.ashwanthkumar.gocd.slack.jsonapi.Pipeline;
+import in.ashwanthkumar.gocd.slack.jsonapi.Stage;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+import in.ashwanthkumar.gocd.slack.ruleset.Rules;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Everything we know about a notification after asking the GoCD server: the build details, the stage, the root
+ * changes and the console log links. It's built once per notification (see
+ * {@link GoNotificationMessage#enrichment(Rules)}) and every matching rule renders from the same snapshot, so the
+ * server isn't asked again for every rule.
+ *
+ * Failures to fetch are kept as part of the snapshot, it's up to the listener how to show them.
+ *
+ * With an <code>enrichment-deadline</code>, the details and the changes are fetched side by side, and whatever
+ * isn't ready by the deadline is left pending. {@link #whenComplete()} then gives the complete snapshot once the
+ * late parts arrive, for the listener to follow up on what it already sent.
+ */
+public class NotificationEnrichment {
+    private static Logger LOG = Logger.getLoggerFor(NotificationEnrichment.class);
+
+    private final Pipeline details;
+    private final Stage stage;
+    private final Exception detailsError;
+    private final boolean detailsPending;
+    private final List<MaterialRevision> changes;
+    private final Exception changesError;
+    private final boolean changesPending;
+    private final List<String> consoleLogLinks;
+    private final CompletionStage<NotificationEnrichment> complete;
+
+    private NotificationEnrichment(NotificationEnrichment details, NotificationEnrichment changes, CompletionStage<NotificationEnrichment> complete) {
+        this.details = details == null ? null : details.details;
+        this.stage = details == null ? null : details.stage;
+        this.detailsError = details == null ? null : details.detailsError;
+        this.detailsPending = details == null;
+        this.consoleLogLinks = details == null ? Collections.<String>emptyList() : details.consoleLogLinks;
+        this.changes = changes == null ? null : changes.changes;
+        this.changesError = changes == null ? null : changes.changesError;
+        this.changesPending = changes == null;
+        this.complete = complete == null ? CompletableFuture.completedFuture(this) : complete;
+    }
+
+    private NotificationEnrichment(Pipeline details, Stage stage, Exception detailsError,
+                                   List<MaterialRevision> changes, Exception changesError, List<String> consoleLogLinks) {
+        this.details = details;
+        this.stage = stage;
+        this.detailsError = detailsError;
+        this.detailsPending = false;
+        this.changes = changes;
+        this.changesError = changesError;
+        this.changesPending = false;
+        this.consoleLogLinks = consoleLogLinks;
+        this.complete = CompletableFuture.completedFuture(this);
+    }
+
+    static NotificationEnrichment build(GoNotificationMessage message, Rules rules) {
+        return build(message, rules, true);
+    }
+
+    /**
+     * Only what's the same for every stage of the pipeline run: details and changes, without the stage nor console
+     * log links.
+     */
+    static NotificationEnrichment forPipelineRun(GoNotificationMessage message, Rules rules) {
+        return build(message, rules, false);
+    }
+
+    private static NotificationEnrichment build(GoNotificationMessage message, Rules rules, boolean withStage) {
+        if (rules.getEnrichmentDeadlineMillis() <= 0) {
+            return new NotificationEnrichment(fetchDetails(message, rules, withStage), fetchChanges(message, rules), null);
+        }
+        return buildWithin(message, rules, withStage, message.getReceivedAt() + rules.getEnrichmentDeadlineMillis());
+    }
+
+    /**
+     * Fetch the details and the changes as two subtasks of this notification, and wait for both until the deadline.
+     * The subtasks never fail, errors are part of what they return, so the snapshot is complete as soon as both
+     * returned. Past the deadline, we stop waiting and the late parts complete {@link #whenComplete()} instead.
+     */
+    private static NotificationEnrichment buildWithin(final GoNotificationMessage message, final Rules rules, final boolean withStage, long deadlineMillis) {
+        Executor executor = orCallingThread(ExecutorFactory.enrichmentExecutor(rules));
+        CompletableFuture<NotificationEnrichment> details = CompletableFuture.supplyAsync(new Supplier<NotificationEnrichment>() {
+            @Override
+            public NotificationEnrichment get() {
+                return fetchDetails(message, rules, withStage);
+            }
+        }, executor);
+        CompletableFuture<NotificationEnrichment> changes = CompletableFuture.supplyAsync(new Supplier<NotificationEnrichment>() {
+            @Override
+            public NotificationEnrichment get() {
+                return fetchChanges(message, rules);
+            }
+        }, executor);
+        CompletableFuture<NotificationEnrichment> complete = details.thenCombine(changes, new BiFunction<NotificationEnrichment, NotificationEnrichment, NotificationEnrichment>() {
+            @Override
+            public NotificationEnrichment apply(NotificationEnrichment details, NotificationEnrichment changes) {
+                return new NotificationEnrichment(details, changes, null);
+            }
+        });
+
+        try {
+            return complete.get(Math.max(0, deadlineMillis - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LOG.info(String.format("Enrichment of %s missed its deadline, sending what's ready", message.fullyQualifiedJobName()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Enrichment subtasks aren't supposed to fail", e.getCause());
+        }
+        return new NotificationEnrichment(details.getNow(null), changes.getNow(null), complete);
+    }
+
+    // the executor is shut down when it's replaced after a reload, or when the plugin is shutting down
+    private static Executor orCallingThread(final ExecutorService executor) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                try {
+                    executor.execute(command);
+                } catch (RejectedExecutionException e) {
+                    command.run();
+                }
+            }
+        };
+    }
+
+    private static NotificationEnrichment fetchDetails(GoNotificationMessage message, Rules rules, boolean withStage) {
+        Pipeline details = null;
+        Stage stage = null;
+        Exception detailsError = null;
+        List<String> consoleLogLinks = Collections.emptyList();
+        try {
+            details = message.fetchDetails(rules);
+            if (withStage) {
+                stage = pickCurrentStage(details.stages, message);
+                PipelineStatus status = PipelineStatus.valueOf(message.getStageResult().toUpperCase());
+                consoleLogLinks = Collections.unmodifiableList(createConsoleLogLinks(rules.goServerFor(message.getPipelineName(), message.getPipelineGroup()).getServerHost(), details, stage, status));
+            }
+        } catch (GoNotificationMessage.BuildDetailsNotFoundException e) {
+            detailsError = e;
+            LOG.warn("Couldn't fetch build details", e);
+        } catch (IOException | URISyntaxException e) {
+            detailsError = e;
+            LOG.warn(e.getMessage());
+        } catch (RuntimeException e) {
+            // e.g. a response without the stage, or a server that's no longer taking calls
+            detailsError = e;
+            LOG.warn("Couldn't fetch build details", e);
+        }
+        return new NotificationEnrichment(details, stage, detailsError, null, null, consoleLogLinks);
+    }
+
+    private static NotificationEnrichment fetchChanges(GoNotificationMessage message, Rules rules) {
+        List<MaterialRevision> changes = null;
+        Exception changesError = null;
+        try {
+            changes = Collections.unmodifiableList(new ArrayList<>(message.fetchChanges(rules)));
+        } catch (IOException | RuntimeException e) {
+            changesError = e;
+            LOG.warn("Couldn't fetch changes", e);
+        }
+        return new NotificationEnrichment(null, null, null, changes, changesError, Collections.<String>emptyList());
+    }
+
+    /**
+     * @return false if parts of it were still being fetched when the deadline passed
+     */
+    public boolean isComplete() {
+        return !detailsPending && !changesPending;
+    }
+
+    /**
+     * @return the complete snapshot, once the parts that missed the deadline arrived
+     */
+    public CompletionStage<NotificationEnrichment> whenComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the details of this pipeline run, null if they couldn't be fetched (see {@link #getDetailsError()}) or
+     * are still pending (see {@link #isDetailsPending()})
+     */
+    public Pipeline getDetails() {
+        return details;
+    }
+
+    /**
+     * @return the stage the notification is about, null if the details couldn't be fetched
+     */
+    public Stage getStage() {
+        return stage;
+    }
+
+    public Exception getDetailsError() {
+        return detailsError;
+    }
+
+    public boolean isDetailsPending() {
+        return detailsPending;
+    }
+
+    /**
+     * @return the root changes of this pipeline run, null if they couldn't be fetched (see {@link #getChangesError()})
+     * or are still pending (see {@link #isChangesPending()})
+     */
+    public List<MaterialRevision> getChanges() {
+        return changes;
+    }
+
+    public Exception getChangesError() {
+        return changesError;
+    }
+
+    public boolean isChangesPending() {
+        return changesPending;
+    }
+
+    /**
+     * @return Slack formatted links to the console log of every job of the stage
+     */
+    public List<String> getConsoleLogLinks() {
+        return consoleLogLinks;
+    }
+
+    private static List<String> createConsoleLogLinks(String host, Pipeline pipeline, Stage stage, PipelineStatus pipelineStatus) throws URISyntaxException {
+        List<String> consoleLinks = new ArrayList<>();
+        for (String job : stage.jobNames()) {
+            URI link;
+            // We should be linking to Console Tab when the status is building,
+            // while all others will be the console.log artifact.
+            if (pipelineStatus == PipelineStatus.BUILDING) {
+                link = new URI(String.format("%s/go/tab/build/detail/%s/%d/%s/%d/%s#tab-console", host, pipeline.name, pipeline.counter, stage.name, stage.counter, job));
+            } else {
+                link = new URI(String.format("%s/go/files/%s/%d/%s/%d/%s/cruise-output/console.log", host, pipeline.name, pipeline.counter, stage.name, stage.counter, job));
+            }
+            // TODO - May be it's only useful to show the failed job logs instead of all jobs?
+            consoleLinks.add("<" + link.normalize().toASCIIString() + "| View " + job + " logs>");
+        }
+        return consoleLinks;
+    }
+
+    private static Stage pickCurrentStage(Stage[] stages, GoNotificationMessage message) {
+        for (Stage stage : stages) {
+            if (message.getStageName().equals(stage.name)) {
+                return stage;
+            }
+        }
+
+        throw new IllegalArgumentException("The list of stages from the pipeline (" + message.getPipelineName() + ") doesn't have the active stage (" + message.getStageName() + ") for which we got the notification.");
+    }
+}
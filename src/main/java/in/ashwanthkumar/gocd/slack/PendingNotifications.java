@@ -0,0 +1,50 @@
+package in.ashwanthkumar.gocd.slack;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Small bounded buffer for stage-status request bodies that arrive before the rules are ready.
+ * Once full, the oldest notification is dropped to make room for the new one.
+ */
+public class PendingNotifications {
+    private static Logger LOGGER = Logger.getLoggerFor(PendingNotifications.class);
+
+    private final int capacity;
+    private final Deque<String> requestBodies = new ArrayDeque<>();
+    private long dropped = 0L;
+
+    public PendingNotifications(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public synchronized void add(String requestBody) {
+        if (requestBodies.size() >= capacity) {
+            requestBodies.removeFirst();
+            dropped++;
+            LOGGER.warn(String.format("Pending notifications buffer is full (%d), dropped the oldest notification", capacity));
+        }
+        requestBodies.addLast(requestBody);
+    }
+
+    /**
+     * Remove and return everything that's buffered, oldest first.
+     */
+    public synchronized List<String> drain() {
+        List<String> drained = new ArrayList<>(requestBodies);
+        requestBodies.clear();
+        return drained;
+    }
+
+    public synchronized int size() {
+        return requestBodies.size();
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+}
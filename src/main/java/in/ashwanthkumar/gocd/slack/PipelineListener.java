@@ -1,16 +1,40 @@
 package in.ashwanthkumar.gocd.slack;
 
 import com.thoughtworks.go.plugin.api.logging.Logger;
+import in.ashwanthkumar.gocd.slack.ruleset.Destination;
 import in.ashwanthkumar.gocd.slack.ruleset.PipelineRule;
 import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
 import in.ashwanthkumar.gocd.slack.ruleset.Rules;
 import in.ashwanthkumar.utils.lang.option.Option;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 abstract public class PipelineListener {
     private Logger LOG = Logger.getLoggerFor(PipelineListener.class);
+    // deliveries waiting for a thread, past this the notifying thread delivers itself
+    private static final int DELIVERY_QUEUE_CAPACITY = 100;
+    private static final long STORM_CHECK_INTERVAL_MILLIS = 10 * 1000;
+    // how long notify waits for the deliveries, well past the timeouts of the calls a delivery makes
+    static final long DELIVERY_TIMEOUT_MILLIS = 5 * 60 * 1000;
+    private static final Executor CALLING_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
     protected Rules rules;
+    private ExecutorService deliveryExecutor;
+    private ChannelQuotas channelQuotas;
+    private FailureStormDetector failureStorms;
+    private NotificationDigest digest;
+    private ScheduledExecutorService scheduler;
+    // once closed, deliveries run on the calling thread and nothing is scheduled any more
+    private boolean closed;
 
     public PipelineListener(Rules rules) {
         this.rules = rules;
@@ -18,25 +42,424 @@ abstract public class PipelineListener {
 
     public void notify(GoNotificationMessage message) throws Exception {
         message.tryToFixStageResult(rules);
+        RoutedNotification routed = route(message);
+        if (routed != null) {
+            routed.deliver();
+        }
+    }
+
+    /**
+     * Find the rules the notification is delivered for, leaving out what a failure storm, the digest or a channel
+     * quota takes care of. The staged pipeline calls this once ahead of enrichment and delivery.
+     *
+     * @return null if there's nothing to deliver right away
+     */
+    public RoutedNotification route(final GoNotificationMessage message) {
         LOG.info(String.format("-- Finding rules with state %s", message.getStageResult()));
         List<PipelineRule> foundRules = rules.find(message.getPipelineName(), message.getStageName(), message.getPipelineGroup(), message.getStageResult());
-        if (foundRules.size() > 0) {
-            for (PipelineRule pipelineRule : foundRules) {
-                LOG.info(String.format("-- Matching rule is %s", pipelineRule));
-                handlePipelineStatus(pipelineRule, PipelineStatus.valueOf(message.getStageResult().toUpperCase()), message);
-                if (! rules.getProcessAllRules()) {
-                    break;
+        if (foundRules.isEmpty()) {
+            LOG.warn(String.format("Couldn't find any matching rule for %s/%s with status=%s", message.getPipelineName(), message.getStageName(), message.getStageResult()));
+            return null;
+        }
+        final PipelineStatus status = PipelineStatus.valueOf(message.getStageResult().toUpperCase());
+        if (!rules.getProcessAllRules()) {
+            foundRules = foundRules.subList(0, 1);
+        } else {
+            foundRules = rules.uniqueDestinations(foundRules, status);
+        }
+        if (partOfFailureStorm(status, message)) {
+            return null;
+        }
+        foundRules = withoutDigested(foundRules, status, message);
+        foundRules = withinQuota(foundRules, status, message);
+        if (foundRules.isEmpty()) {
+            return null;
+        }
+        final List<PipelineRule> matchedRules = foundRules;
+        return new RoutedNotification() {
+            @Override
+            public boolean needsEnrichment() {
+                return usesEnrichment();
+            }
+
+            @Override
+            public void deliver() throws Exception {
+                PipelineListener.this.deliver(matchedRules, status, message);
+            }
+        };
+    }
+
+    /**
+     * Hand the message to every matched rule through {@link #deliverAsync(PipelineRule, PipelineStatus, GoNotificationMessage, Executor)}
+     * and wait for all of them. A single rule is handled on the calling thread, several rules are handled
+     * concurrently. Every rule is attempted even if some fail, none is waited for longer than
+     * {@link #DELIVERY_TIMEOUT_MILLIS}.
+     *
+     * @throws DeliveryFailedException when some of several rules failed, with a message for each of them
+     */
+    protected void deliver(List<PipelineRule> matchedRules, final PipelineStatus status, final GoNotificationMessage message) throws Exception {
+        Executor executor = matchedRules.size() == 1 ? CALLING_THREAD : deliveryExecutor();
+        List<CompletableFuture<DeliveryResult>> deliveries = new ArrayList<>();
+        for (PipelineRule pipelineRule : matchedRules) {
+            LOG.info(String.format("-- Matching rule is %s", pipelineRule));
+            deliveries.add(deliverAsync(pipelineRule, status, message, executor).toCompletableFuture());
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DELIVERY_TIMEOUT_MILLIS);
+        List<String> failures = new ArrayList<>();
+        for (int i = 0; i < deliveries.size(); i++) {
+            Throwable error;
+            try {
+                error = deliveries.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS).getError();
+            } catch (ExecutionException e) {
+                error = e.getCause();
+            } catch (TimeoutException e) {
+                error = new TimeoutException(String.format("not delivered within %d ms", DELIVERY_TIMEOUT_MILLIS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+            if (error == null) {
+                continue;
+            }
+            if (deliveries.size() == 1) {
+                throw AsyncPipelineListener.asException(error);
+            }
+            LOG.warn(String.format("Delivery of %s for rule %s failed", message.fullyQualifiedJobName(), matchedRules.get(i)), error);
+            failures.add(String.format("%s: %s", matchedRules.get(i).getChannel(), error.getMessage()));
+        }
+        if (!failures.isEmpty()) {
+            throw new DeliveryFailedException(deliveries.size(), failures);
+        }
+    }
+
+    /**
+     * Deliver the notification for a rule without waiting for it. This adapts the synchronous <code>on*</code>
+     * methods by running them on the executor, see {@link AsyncPipelineListener} for listeners that don't block.
+     *
+     * @param executor where blocking work should run, it might be the calling thread. If it doesn't take the work,
+     *                 because it's full or shut down, it runs on the calling thread
+     */
+    public CompletionStage<DeliveryResult> deliverAsync(final PipelineRule rule, final PipelineStatus status, final GoNotificationMessage message, Executor executor) {
+        final CompletableFuture<DeliveryResult> result = new CompletableFuture<>();
+        Runnable delivery = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handlePipelineStatus(rule, status, message);
+                    result.complete(DeliveryResult.delivered(rule));
+                } catch (Exception e) {
+                    result.complete(DeliveryResult.failed(rule, e));
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
                 }
             }
-        } else {
-            LOG.warn(String.format("Couldn't find any matching rule for %s/%s with status=%s", message.getPipelineName(), message.getStageName(), message.getStageResult()));
+        };
+        try {
+            executor.execute(delivery);
+        } catch (RejectedExecutionException e) {
+            delivery.run();
         }
+        return result;
+    }
+
+    /**
+     * Add the notification to the digest of the rules that digest this status, and return the other rules.
+     * Digested notifications aren't enriched, the digest only lists them.
+     */
+    private List<PipelineRule> withoutDigested(List<PipelineRule> matchedRules, PipelineStatus status, GoNotificationMessage message) {
+        List<PipelineRule> immediate = new ArrayList<>();
+        for (PipelineRule rule : matchedRules) {
+            NotificationDigest digest = rule.isDigested(status) ? digest() : null;
+            if (digest == null) {
+                immediate.add(rule);
+                continue;
+            }
+            Destination destination = Destination.of(rule, rules);
+            LOG.info(String.format("Adding %s to the digest for %s", message.fullyQualifiedJobName(), destination));
+            List<NotificationDigest.Entry> full = digest.add(destination, NotificationDigest.Entry.of(message, status, System.currentTimeMillis()));
+            if (full != null) {
+                postDigest(destination, full);
+            }
+        }
+        return immediate;
+    }
+
+    // null once closed, nothing would post the digest any more
+    private synchronized NotificationDigest digest() {
+        if (digest == null && !closed) {
+            digest = new NotificationDigest(rules.getDigestMaxSize());
+            final NotificationDigest scheduled = digest;
+            scheduler().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    postDigests(scheduled);
+                }
+            }, rules.getDigestIntervalMillis(), rules.getDigestIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+        return digest;
+    }
+
+    private void postDigests(NotificationDigest digest) {
+        for (Map.Entry<Destination, List<NotificationDigest.Entry>> entries : digest.drain().entrySet()) {
+            postDigest(entries.getKey(), entries.getValue());
+        }
+    }
+
+    private void postDigest(Destination destination, List<NotificationDigest.Entry> entries) {
+        try {
+            onDigest(destination, entries);
+        } catch (Exception e) {
+            LOG.warn(String.format("Couldn't post the digest of %d notifications to %s", entries.size(), destination), e);
+        }
+    }
+
+    /**
+     * Drop the rules whose destination already had its share of messages in the current <code>channel-quota</code>
+     * window. They are counted and summarized by {@link #onQuotaOverflow(ChannelQuotas.Overflow)} when the window ends.
+     */
+    private List<PipelineRule> withinQuota(List<PipelineRule> matchedRules, PipelineStatus status, GoNotificationMessage message) {
+        ChannelQuotas quotas = channelQuotas();
+        if (quotas == null) {
+            return matchedRules;
+        }
+        List<PipelineRule> allowed = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (PipelineRule rule : matchedRules) {
+            Destination destination = Destination.of(rule, rules);
+            if (quotas.tryAcquire(destination, status, now)) {
+                allowed.add(rule);
+            } else {
+                LOG.info(String.format("Quota for %s reached, holding back %s", destination, message.fullyQualifiedJobName()));
+            }
+        }
+        return allowed;
+    }
+
+    private synchronized ChannelQuotas channelQuotas() {
+        if (closed) {
+            // nothing would post what's held back any more
+            return null;
+        }
+        if (channelQuotas == null && rules.getChannelQuotaMessages() > 0) {
+            channelQuotas = new ChannelQuotas(rules.getChannelQuotaMessages(), rules.getChannelQuotaWindowMillis());
+            long checkEvery = Math.min(rules.getChannelQuotaWindowMillis(), 1000);
+            scheduler().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    postOverflows(System.currentTimeMillis());
+                }
+            }, checkEvery, checkEvery, TimeUnit.MILLISECONDS);
+        }
+        return channelQuotas;
+    }
+
+    private void postOverflows(long nowMillis) {
+        ChannelQuotas quotas;
+        synchronized (this) {
+            quotas = channelQuotas;
+        }
+        if (quotas == null) {
+            return;
+        }
+        for (ChannelQuotas.Overflow overflow : quotas.endedWindows(nowMillis)) {
+            try {
+                onQuotaOverflow(overflow);
+            } catch (Exception e) {
+                LOG.warn(String.format("Couldn't post the summary of %d held back messages to %s", overflow.getTotal(), overflow.getDestination()), e);
+            }
+        }
+    }
+
+    /**
+     * Count failures towards the <code>failure-storm</code> detector. During a storm the failure isn't delivered
+     * (nor enriched), the incident is announced through {@link #onFailureStorm(FailureStormDetector.Incident)} instead.
+     *
+     * @return true if the notification was taken care of by the storm detector
+     */
+    private boolean partOfFailureStorm(PipelineStatus status, GoNotificationMessage message) {
+        FailureStormDetector detector = failureStorms();
+        if (detector == null || (status != PipelineStatus.FAILED && status != PipelineStatus.BROKEN)) {
+            return false;
+        }
+        switch (detector.record(message.getPipelineName(), System.currentTimeMillis())) {
+            case STORM_STARTED:
+                LOG.warn(String.format("Failure storm started with %s", message.fullyQualifiedJobName()));
+                announceFailureStorm(detector.current());
+                return true;
+            case SUPPRESS:
+                LOG.info(String.format("Failure storm in progress, not delivering %s", message.fullyQualifiedJobName()));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private synchronized FailureStormDetector failureStorms() {
+        if (closed) {
+            // nothing would announce the end of the storm any more
+            return null;
+        }
+        if (failureStorms == null && rules.getFailureStormThreshold() > 0) {
+            failureStorms = new FailureStormDetector(rules.getFailureStormThreshold(), rules.getFailureStormWindowMillis(),
+                    editsFailureStormIncident());
+            final FailureStormDetector detector = failureStorms;
+            long checkEvery = Math.min(rules.getFailureStormWindowMillis(), STORM_CHECK_INTERVAL_MILLIS);
+            scheduler().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    FailureStormDetector.Incident incident = detector.check(System.currentTimeMillis());
+                    if (incident != null) {
+                        announceFailureStorm(incident);
+                    }
+                }
+            }, checkEvery, checkEvery, TimeUnit.MILLISECONDS);
+        }
+        return failureStorms;
+    }
+
+    private void announceFailureStorm(FailureStormDetector.Incident incident) {
+        try {
+            onFailureStorm(incident);
+        } catch (Exception e) {
+            LOG.warn(String.format("Couldn't post the failure storm incident (%d failures)", incident.getFailures()), e);
+        }
+    }
+
+    private synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("gocd-slack-scheduler"));
+        }
+        return scheduler;
+    }
+
+    /**
+     * @return number of messages held back by <code>channel-quota</code> in windows that haven't ended yet
+     */
+    public synchronized int getHeldBackCount() {
+        return channelQuotas == null ? 0 : channelQuotas.getHeld();
+    }
+
+    /**
+     * @return number of notifications waiting for the next digest
+     */
+    public synchronized int getDigestSize() {
+        return digest == null ? 0 : digest.size();
+    }
+
+    private synchronized Executor deliveryExecutor() {
+        if (closed) {
+            return CALLING_THREAD;
+        }
+        if (deliveryExecutor == null && ExecutorFactory.useVirtualThreads(rules)) {
+            deliveryExecutor = ExecutorFactory.newVirtualThreadPerTaskExecutor();
+        } else if (deliveryExecutor == null) {
+            int threads = Math.max(1, rules.getDeliveryThreads());
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(DELIVERY_QUEUE_CAPACITY), new DaemonThreadFactory("gocd-slack-delivery"));
+            pool.allowCoreThreadTimeOut(true);
+            deliveryExecutor = pool;
+        }
+        return deliveryExecutor;
+    }
+
+    /**
+     * Release the threads of this listener. Called when the rules it belongs to are replaced; deliveries that
+     * already started are allowed to finish. Notifications that still come in afterwards are delivered on the
+     * calling thread, without quotas, failure storms or digests.
+     */
+    public void close() {
+        NotificationDigest pendingDigest;
+        synchronized (this) {
+            closed = true;
+            pendingDigest = digest;
+            digest = null;
+            if (deliveryExecutor != null) {
+                deliveryExecutor.shutdown();
+                deliveryExecutor = null;
+            }
+            if (scheduler != null) {
+                scheduler.shutdown();
+                scheduler = null;
+            }
+        }
+        // don't lose what was held back in the current windows, nor what's waiting for the next digest
+        postOverflows(Long.MAX_VALUE);
+        if (pendingDigest != null) {
+            postDigests(pendingDigest);
+        }
+    }
+
+    /**
+     * Names its threads after the prefix and a count, and makes them daemons so they never keep the server running.
+     */
+    public static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        public DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * @return true if the listener renders from {@link GoNotificationMessage#enrichment(Rules)}, so the
+     * <code>enrich</code> stage should fetch it ahead of delivery
+     */
+    public boolean usesEnrichment() {
+        return true;
     }
 
     protected void handlePipelineStatus(PipelineRule rule, PipelineStatus status, GoNotificationMessage message) throws Exception {
         status.handle(this, rule, message);
     }
 
+    /**
+     * Invoked at the end of a <code>channel-quota</code> window in which messages to a destination were held back.
+     * Does nothing by default.
+     *
+     * @param overflow the destination and how many messages of each status were held back
+     * @throws Exception
+     */
+    public void onQuotaOverflow(ChannelQuotas.Overflow overflow) throws Exception {
+    }
+
+    /**
+     * Invoked when a failure storm starts, when it grew during a whole <code>failure-storm</code> window, and
+     * once it's over. Does nothing by default.
+     *
+     * @param incident the pipelines that failed during the storm so far
+     * @throws Exception
+     */
+    public void onFailureStorm(FailureStormDetector.Incident incident) throws Exception {
+    }
+
+    /**
+     * @return true if {@link #onFailureStorm(FailureStormDetector.Incident)} edits the message of the incident
+     * rather than posting a new one, so it may be called each time the incident grows
+     */
+    protected boolean editsFailureStormIncident() {
+        return false;
+    }
+
+    /**
+     * Invoked with the notifications gathered for a destination by rules in <code>digest</code> mode, either on
+     * schedule or once there are <code>digest.max-size</code> of them. Does nothing by default.
+     *
+     * @param destination where the digested rules post to
+     * @param entries     the notifications, oldest first
+     * @throws Exception
+     */
+    public void onDigest(Destination destination, List<NotificationDigest.Entry> entries) throws Exception {
+    }
+
     /**
      * Invoked when pipeline is BUILDING
      *
@@ -0,0 +1,121 @@
+package in.ashwanthkumar.gocd.slack;
+
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+import in.ashwanthkumar.gocd.slack.ruleset.Rules;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State of the recent pipeline runs for <code>roll-up</code> mode, where a single message per run shows every
+ * stage. Each run keeps the latest status of its stages and the pipeline level enrichment, fetched from the GoCD
+ * server only for the first stage notification of the run, or again for the next one when fetching it failed.
+ *
+ * A run is also the lock under which its message is built and pushed, so the messages of a run go out in the
+ * order its stages were recorded.
+ *
+ * Only the most recent <code>maxRuns</code> runs are kept.
+ */
+public class PipelineRunRollUps {
+    private final Map<String, Run> runs;
+
+    public PipelineRunRollUps(final int maxRuns) {
+        this.runs = new LinkedHashMap<String, Run>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Run> eldest) {
+                return size() > maxRuns;
+            }
+        };
+    }
+
+    public synchronized Run run(GoNotificationMessage message) {
+        String key = message.getPipelineName() + "/" + message.getPipelineCounter();
+        Run run = runs.get(key);
+        if (run == null) {
+            run = new Run(message.getPipelineName(), message.getPipelineCounter());
+            runs.put(key, run);
+        }
+        return run;
+    }
+
+    public static class Run {
+        private final String pipeline;
+        private final String counter;
+        private final Map<String, StageState> stages = new LinkedHashMap<>();
+        private NotificationEnrichment enrichment;
+
+        Run(String pipeline, String counter) {
+            this.pipeline = pipeline;
+            this.counter = counter;
+        }
+
+        public String getPipeline() {
+            return pipeline;
+        }
+
+        public String getCounter() {
+            return counter;
+        }
+
+        /**
+         * Record the latest status of a stage, a re-run of the stage replaces its earlier state.
+         */
+        public synchronized void update(String stage, String stageCounter, PipelineStatus status) {
+            stages.put(stage, new StageState(stage, stageCounter, status));
+        }
+
+        /**
+         * @return the stages in the order we first heard of them
+         */
+        public synchronized List<StageState> getStages() {
+            return new ArrayList<>(stages.values());
+        }
+
+        /**
+         * @return the enrichment of the run, fetched again if it was complete but failed, a down server shouldn't
+         * leave the rest of the run without it
+         */
+        public synchronized NotificationEnrichment enrichment(GoNotificationMessage message, Rules rules) {
+            if (enrichment != null && !enrichment.isComplete()) {
+                NotificationEnrichment complete = enrichment.whenComplete().toCompletableFuture().getNow(null);
+                if (complete != null) {
+                    enrichment = complete;
+                }
+            }
+            if (enrichment == null || failed(enrichment)) {
+                enrichment = NotificationEnrichment.forPipelineRun(message, rules);
+            }
+            return enrichment;
+        }
+
+        private static boolean failed(NotificationEnrichment enrichment) {
+            return enrichment.isComplete() && (enrichment.getDetailsError() != null || enrichment.getChangesError() != null);
+        }
+    }
+
+    public static class StageState {
+        private final String name;
+        private final String counter;
+        private final PipelineStatus status;
+
+        StageState(String name, String counter, PipelineStatus status) {
+            this.name = name;
+            this.counter = counter;
+            this.status = status;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getCounter() {
+            return counter;
+        }
+
+        public PipelineStatus getStatus() {
+            return status;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package in.ashwanthkumar.gocd.slack;
+
+import com.google.gson.GsonBuilder;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Dumps the plugin's runtime statistics as JSON into its data directory, so they can be looked at without
+ * a debugger or a metrics system. The file is only rewritten when something changed.
+ */
+public class PluginStats {
+    private static Logger LOGGER = Logger.getLoggerFor(PluginStats.class);
+    static final String STATS_FILE_NAME = "stats.json";
+
+    private final File statsFile;
+    private String lastWritten;
+
+    public PluginStats(File dataDirectory) {
+        this.statsFile = new File(dataDirectory, STATS_FILE_NAME);
+    }
+
+    public void write(Map<String, Object> stats) {
+        String json = new GsonBuilder().setPrettyPrinting().create().toJson(stats);
+        if (json.equals(lastWritten)) {
+            return;
+        }
+        try {
+            FileUtils.writeStringToFile(statsFile, json, StandardCharsets.UTF_8);
+            lastWritten = json;
+        } catch (IOException e) {
+            LOGGER.warn("Unable to write stats to " + statsFile.getAbsolutePath(), e);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package in.ashwanthkumar.gocd.slack;
+
+/**
+ * A notification together with the rules a listener delivers it for, found by
+ * {@link PipelineListener#route(GoNotificationMessage)}. Notifications in a failure storm, digested or held back by
+ * a channel quota are already taken care of by then, so what's left is delivered right away.
+ */
+public interface RoutedNotification {
+    /**
+     * @return true if delivering renders from {@link GoNotificationMessage#enrichment(in.ashwanthkumar.gocd.slack.ruleset.Rules)},
+     * so it's worth fetching ahead
+     */
+    boolean needsEnrichment();
+
+    void deliver() throws Exception;
+}
@@ -4,7 +4,7 @@ import com.thoughtworks.go.plugin.api.logging.Logger;
 import in.ashwanthkumar.gocd.slack.jsonapi.MaterialRevision;
 import in.ashwanthkumar.gocd.slack.jsonapi.Modification;
 import in.ashwanthkumar.gocd.slack.jsonapi.Pipeline;
-import in.ashwanthkumar.gocd.slack.jsonapi.Stage;
+import in.ashwanthkumar.gocd.slack.ruleset.Destination;
 import in.ashwanthkumar.gocd.slack.ruleset.PipelineRule;
 import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
 import in.ashwanthkumar.gocd.slack.ruleset.Rules;
@@ -16,12 +16,16 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import static in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus.FIXED;
 import static in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus.PASSED;
@@ -29,10 +33,17 @@ import static in.ashwanthkumar.utils.lang.StringUtils.startsWith;
 
 public class SlackPipelineListener extends PipelineListener {
 	private final Logger LOG = Logger.getLoggerFor(SlackPipelineListener.class);
-	private final Slack slack;
 
 	private final static String TESTPIT_PIPELINE = "deployTestpit";
 	private final static String DEPLOY_PIPELINE = "deployLAN";
+	private final static int MAX_STORM_PIPELINES = 30;
+
+	// set when slack-api is configured, messages about the same stage run are then edited in place
+	private final SlackWebApi slackWebApi;
+	// set in roll-up mode, a single message per pipeline run is then kept up to date
+	private final PipelineRunRollUps rollUps;
+	// the latest message pushed for each recent key, a late enrichment only updates the message it belongs to
+	private final Map<String, Pushed> lastPushed;
 
 	private final List<String> passedList = Arrays.asList("Деплой отгремел.", "Деплой окончен. Всем спасибо.");
 	private final List<String> failedList = Arrays.asList("Деплой провален.", "Чуда не произошло.", "Всё пропало.");
@@ -49,65 +60,239 @@ public class SlackPipelineListener extends PipelineListener {
 	public SlackPipelineListener(Rules rules) {
 		super(rules);
 
-		slack = new Slack(rules.getWebHookUrl(), rules.getProxy());
-		updateSlackChannel(rules.getSlackChannel());
-
-		slack.displayName(rules.getSlackDisplayName()).icon(rules.getSlackUserIcon());
+		if (StringUtils.isNotEmpty(rules.getSlackApiToken())) {
+			slackWebApi = new SlackWebApi(rules.getSlackApiBaseUrl(), rules.getSlackApiToken(), rules.getProxy(),
+					rules.getSlackDisplayName(), rules.getSlackUserIcon(), rules.getSlackApiTrackedMessages(),
+					rules.getSlackApiTimeoutMillis());
+		} else {
+			slackWebApi = null;
+		}
+		if (rules.isRollUp() && slackWebApi != null) {
+			rollUps = new PipelineRunRollUps(rules.getSlackApiTrackedMessages());
+		} else {
+			if (rules.isRollUp()) {
+				LOG.warn("roll-up needs slack-api to edit messages, posting a message per stage instead");
+			}
+			rollUps = null;
+		}
+		final int trackedMessages = rules.getSlackApiTrackedMessages();
+		lastPushed = new LinkedHashMap<String, Pushed>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Pushed> eldest) {
+				return size() > trackedMessages;
+			}
+		};
 	}
 
 	@Override
 	public void onBuilding(PipelineRule rule, GoNotificationMessage message) throws Exception {
-		updateSlackChannel(rule.getChannel());
-		updateWebhookUrl(rule.getWebhookUrl());
-		slack.push(slackAttachment(rule, message, PipelineStatus.BUILDING));
+		post(rule, message, PipelineStatus.BUILDING, null);
 	}
 
 	@Override
 	public void onPassed(PipelineRule rule, GoNotificationMessage message) throws Exception {
-		updateSlackChannel(rule.getChannel());
-		updateWebhookUrl(rule.getWebhookUrl());
-		slack.push(slackAttachment(rule, message, PASSED).color("good"));
+		post(rule, message, PASSED, "good");
 	}
 
 	@Override
 	public void onFailed(PipelineRule rule, GoNotificationMessage message) throws Exception {
-		updateSlackChannel(rule.getChannel());
-		updateWebhookUrl(rule.getWebhookUrl());
-		slack.push(slackAttachment(rule, message, PipelineStatus.FAILED).color("danger"));
+		post(rule, message, PipelineStatus.FAILED, "danger");
 	}
 
 	@Override
 	public void onBroken(PipelineRule rule, GoNotificationMessage message) throws Exception {
-		updateSlackChannel(rule.getChannel());
-		updateWebhookUrl(rule.getWebhookUrl());
-		slack.push(slackAttachment(rule, message, PipelineStatus.BROKEN).color("danger"));
+		post(rule, message, PipelineStatus.BROKEN, "danger");
 	}
 
 	@Override
 	public void onFixed(PipelineRule rule, GoNotificationMessage message) throws Exception {
-		updateSlackChannel(rule.getChannel());
-		updateWebhookUrl(rule.getWebhookUrl());
-		slack.push(slackAttachment(rule, message, FIXED).color("good"));
+		post(rule, message, FIXED, "good");
 	}
 
 	@Override
 	public void onCancelled(PipelineRule rule, GoNotificationMessage message) throws Exception {
-		updateSlackChannel(rule.getChannel());
-		updateWebhookUrl(rule.getWebhookUrl());
-		slack.push(slackAttachment(rule, message, PipelineStatus.CANCELLED).color("warning"));
+		post(rule, message, PipelineStatus.CANCELLED, "warning");
+	}
+
+	private void post(final PipelineRule rule, final GoNotificationMessage message, final PipelineStatus status, final String color) throws IOException {
+		final Destination destination = Destination.of(rule, rules);
+		if (rollUps != null) {
+			final PipelineRunRollUps.Run run = rollUps.run(message);
+			final String key = run.getPipeline() + "/" + run.getCounter();
+			// build and push under the run, or an older roll-up could be pushed over a newer one
+			synchronized (run) {
+				run.update(message.getStageName(), message.getStageCounter(), status);
+				NotificationEnrichment enrichment = run.enrichment(message, rules);
+				final SlackAttachment attachment = rollUpAttachment(run, enrichment);
+				// taken under the run, so a later roll-up always has a later version
+				final long version = System.nanoTime();
+				push(destination, key, attachment, version);
+				if (!enrichment.isComplete()) {
+					enrichment.whenComplete().thenAccept(new Consumer<NotificationEnrichment>() {
+						@Override
+						public void accept(NotificationEnrichment complete) {
+							synchronized (run) {
+								followUp(destination, key, attachment, rollUpAttachment(run, complete), version);
+							}
+						}
+					});
+				}
+			}
+			return;
+		}
+		NotificationEnrichment enrichment = message.enrichment(rules);
+		final String title = verbFor(status);
+		final SlackAttachment attachment = slackAttachment(message, status, color, title, enrichment);
+		final String key = message.fullyQualifiedJobName();
+		// notifications about the same stage run may be delivered concurrently, the one GoCD sent last wins
+		final long version = message.getReceivedAt();
+		push(destination, key, attachment, version);
+		if (!enrichment.isComplete()) {
+			enrichment.whenComplete().thenAccept(new Consumer<NotificationEnrichment>() {
+				@Override
+				public void accept(NotificationEnrichment complete) {
+					followUp(destination, key, attachment, slackAttachment(message, status, color, title, complete), version);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Update the message sent before its enrichment was complete, unless a newer message about the same thing went
+	 * out in the meantime. Without slack-api the update can't edit the message, it's posted as a new one.
+	 */
+	private void followUp(Destination destination, String key, SlackAttachment sent, SlackAttachment update, long version) {
+		synchronized (lastPushed) {
+			Pushed last = lastPushed.get(destination.getChannel() + "/" + key);
+			if (last == null || last.attachment != sent) {
+				LOG.info(String.format("Not following up on %s, a newer message replaced it", key));
+				return;
+			}
+		}
+		try {
+			LOG.info(String.format("Following up on %s with the late enrichment", key));
+			push(destination, key, update, version);
+		} catch (IOException e) {
+			LOG.warn(String.format("Couldn't follow up on %s with the late enrichment", key), e);
+		}
+	}
+
+	/**
+	 * One message for the whole pipeline run, with a line per stage.
+	 */
+	private SlackAttachment rollUpAttachment(PipelineRunRollUps.Run run, NotificationEnrichment enrichment) {
+		String title = String.format("%s #%s", run.getPipeline(), run.getCounter());
+		List<String> lines = new ArrayList<>();
+		boolean failed = false, cancelled = false, building = false;
+		for (PipelineRunRollUps.StageState stage : run.getStages()) {
+			lines.add(String.format("%s #%s: %s", stage.getName(), stage.getCounter(), stage.getStatus().name().toLowerCase()));
+			failed |= stage.getStatus() == PipelineStatus.FAILED || stage.getStatus() == PipelineStatus.BROKEN;
+			cancelled |= stage.getStatus() == PipelineStatus.CANCELLED;
+			building |= stage.getStatus() == PipelineStatus.BUILDING;
+		}
+		SlackAttachment attachment = new SlackAttachment(Lists.mkString(lines, "", "", "\n"))
+				.fallback(title + ": " + Lists.mkString(lines, "", "", ", "))
+				.title(title);
+		if (failed) {
+			attachment.color("danger");
+		} else if (cancelled) {
+			attachment.color("warning");
+		} else if (!building) {
+			attachment.color("good");
+		}
+
+		Pipeline details = enrichment.getDetails();
+		if (details != null) {
+			// Reason for the first stage to trigger, not current
+			attachment.addField(new SlackAttachment.Field("Triggered by", details.stages[0].approvedBy, true));
+		}
+		addChanges(attachment, enrichment);
+		LOG.info("Pushing roll-up of " + title + " to Slack");
+		return attachment;
+	}
+
+	@Override
+	public void onQuotaOverflow(ChannelQuotas.Overflow overflow) throws Exception {
+		boolean onlyFailures = true;
+		List<String> counts = new ArrayList<>();
+		for (Map.Entry<PipelineStatus, Integer> held : overflow.getHeld().entrySet()) {
+			onlyFailures &= held.getKey() == PipelineStatus.FAILED || held.getKey() == PipelineStatus.BROKEN;
+			counts.add(held.getValue() + " " + held.getKey().name().toLowerCase());
+		}
+		String title = String.format("…and %d more %s", overflow.getTotal(), onlyFailures ? "failures" : "notifications");
+		long windowSeconds = TimeUnit.MILLISECONDS.toSeconds(rules.getChannelQuotaWindowMillis());
+		SlackAttachment summary = new SlackAttachment(String.format("Held back to stay within %d messages per %d s: %s",
+				rules.getChannelQuotaMessages(), windowSeconds, Lists.mkString(counts, "", "", ", ")))
+				.fallback(title)
+				.title(title)
+				.color(onlyFailures ? "danger" : "warning");
+		LOG.info("Pushing quota overflow summary to " + overflow.getDestination());
+		push(overflow.getDestination(), null, summary, 0);
+	}
+
+	@Override
+	public void onFailureStorm(FailureStormDetector.Incident incident) throws Exception {
+		push(new Destination(rules.getWebHookUrl(), rules.getSlackChannel()), "failure-storm/" + incident.getStartedAt(), stormAttachment(incident), System.nanoTime());
+	}
+
+	@Override
+	protected boolean editsFailureStormIncident() {
+		// the incident goes to the global channel, edited through the Web API when it's set up
+		return slackWebApi != null && StringUtils.isNotEmpty(rules.getSlackChannel());
+	}
+
+	private SlackAttachment stormAttachment(FailureStormDetector.Incident incident) {
+		Map<String, Integer> failures = incident.getFailuresByPipeline();
+		String title = String.format("%s: %d failures across %d pipelines",
+				incident.isOver() ? "Failure storm is over" : "Failure storm", incident.getFailures(), failures.size());
+		List<String> lines = new ArrayList<>();
+		for (Map.Entry<String, Integer> pipeline : failures.entrySet()) {
+			if (lines.size() == MAX_STORM_PIPELINES) {
+				lines.add(String.format("and %d more", failures.size() - MAX_STORM_PIPELINES));
+				break;
+			}
+			lines.add(pipeline.getValue() > 1 ? pipeline.getKey() + " ×" + pipeline.getValue() : pipeline.getKey());
+		}
+		LOG.info("Pushing failure storm incident: " + title);
+		return new SlackAttachment(Lists.mkString(lines, "", "", "\n"))
+				.fallback(title)
+				.title(title)
+				.color(incident.isOver() ? "good" : "danger");
+	}
+
+	@Override
+	public void onDigest(Destination destination, List<NotificationDigest.Entry> entries) throws Exception {
+		Map<PipelineStatus, Integer> counts = new EnumMap<>(PipelineStatus.class);
+		List<String> lines = new ArrayList<>();
+		for (NotificationDigest.Entry entry : entries) {
+			Integer count = counts.get(entry.getStatus());
+			counts.put(entry.getStatus(), count == null ? 1 : count + 1);
+			lines.add(String.format("%s/%s/%s/%s %s", entry.getPipeline(), entry.getPipelineCounter(), entry.getStage(),
+					entry.getStageCounter(), entry.getStatus().name().toLowerCase()));
+		}
+		List<String> summary = new ArrayList<>();
+		for (Map.Entry<PipelineStatus, Integer> count : counts.entrySet()) {
+			summary.add(count.getValue() + " " + count.getKey().name().toLowerCase());
+		}
+		String title = String.format("Digest: %s", Lists.mkString(summary, "", "", ", "));
+		LOG.info(String.format("Pushing digest of %d notifications to %s", entries.size(), destination));
+		push(destination, null, new SlackAttachment(Lists.mkString(lines, "", "", "\n"))
+				.fallback(title)
+				.title(title), 0);
 	}
 
-	private SlackAttachment slackAttachment(PipelineRule rule, GoNotificationMessage message, PipelineStatus pipelineStatus) throws URISyntaxException {
-		String title = String.format(verbFor(pipelineStatus));
+	private SlackAttachment slackAttachment(GoNotificationMessage message, PipelineStatus pipelineStatus, String color,
+										   String title, NotificationEnrichment enrichment) {
 		SlackAttachment buildAttachment = new SlackAttachment("")
 				.fallback(title)
 				.title(title);
+		if (color != null) {
+			buildAttachment.color(color);
+		}
 
-		List<String> consoleLogLinks = new ArrayList<>();
 		// Describe the build.
-		try {
-			Pipeline details = message.fetchDetails(rules);
-
+		Pipeline details = enrichment.getDetails();
+		if (details != null) {
 			if (details.name.equals(TESTPIT_PIPELINE)) {
 				title = String.format(verbForTestpit(pipelineStatus));
 
@@ -125,91 +310,26 @@ public class SlackPipelineListener extends PipelineListener {
 			}
 
 			LOG.info("message: " + message);
-			Stage stage = pickCurrentStage(details.stages, message);
 
 			buildAttachment.addField(new SlackAttachment.Field("Pipeline", details.name, true));
 
 			// Reason for the first stage to trigger, not current
 			buildAttachment.addField(new SlackAttachment.Field("Triggered by", details.stages[0].approvedBy, true));
-
-			// Do not display console log links for all statuses except failed ones
-			if (rules.getDisplayConsoleLogLinks() && pipelineStatus != PASSED && pipelineStatus != FIXED) {
-				consoleLogLinks = createConsoleLogLinks(rules.getGoServerHost(), details, stage, pipelineStatus);
-			}
-		} catch (GoNotificationMessage.BuildDetailsNotFoundException e) {
+		} else if (enrichment.isDetailsPending()) {
+			buildAttachment.text("Fetching build details…");
+		} else if (enrichment.getDetailsError() instanceof GoNotificationMessage.BuildDetailsNotFoundException) {
 			buildAttachment.text("Couldn't fetch build details.");
-			LOG.warn("Couldn't fetch build details", e);
-		} catch (IOException | URISyntaxException e) {
-			buildAttachment.text(e.getMessage());
-			LOG.warn(e.getMessage());
+		} else {
+			buildAttachment.text(enrichment.getDetailsError().getMessage());
 		}
 
 		// Describe the root changes that made up this build.
-		try {
-			List<MaterialRevision> changes = message.fetchChanges(rules);
-			for (MaterialRevision change : changes) {
-				// Get material name
-				String materialName = change.material.getName();
-
-				// Do not show changes for ansible and angular-ndw
-				// unless we find a way to show only whitelist changes
-				if ("newndw".equals(materialName)
-						|| "ansible".equals(materialName)
-						|| "ndm".equals(materialName)
-						|| "libndm".equals(materialName)) {
-					continue;
-				}
-
-				StringBuilder sb = new StringBuilder();
-				for (Modification mod : change.modifications) {
-					//LOG.info("Mod revision for material " + change.material + " is " + mod.revision);
-					//LOG.info("Material type is " + change.material.type);
-					//LOG.info("Material description " + change.material.description);
-
-					String url = change.modificationUrl(mod);
-					if (url != null) {
-						// mod.revision for S3 bucket fetch-recovery-fw contains name of file, so we don't want to cut it
-						if (!"S3".equals(mod.userName)) {
-							sb.append("<").append(url).append("|").append(mod.revision, 0, 6).append(">");
-						} else {
-							sb.append("<").append(url).append("|").append(mod.revision).append(">");
-						}
-						sb.append(": ");
-					} else if (mod.revision != null) {
-						sb.append(mod.revision, 0, 6);
-						sb.append(": ");
-					}
-
-					String comment;
-					if (!"S3".equals(mod.userName)) {
-						// For full comment use mod.comment();
-						comment = mod.summarizeComment();
-					} else {
-						JSONObject j = new JSONObject(mod.comment);
-						comment = j.getString("COMMENT");
-					}
-					if (comment != null) {
-						sb.append(comment);
-					}
-
-					if (mod.userName != null && !"S3".equals(mod.userName)) {
-						sb.append(" - ");
-						sb.append(mod.userName);
-					}
-					sb.append("\n");
-				}
-
-				String fieldName = "Changes for " + (materialName == null ? change.material.description : materialName);
-				buildAttachment.addField(new SlackAttachment.Field(fieldName, sb.toString(), false));
-			}
-		} catch (IOException | JSONException e) {
-			buildAttachment.addField(new SlackAttachment.Field("Changes", "(Couldn't fetch changes; see server log.)", true));
-			LOG.warn("Couldn't fetch changes", e);
-		}
-
+		addChanges(buildAttachment, enrichment);
 
-		if (!consoleLogLinks.isEmpty()) {
-			String logLinks = Lists.mkString(consoleLogLinks, "", "", "\n");
+		// Do not display console log links for all statuses except failed ones
+		if (rules.getDisplayConsoleLogLinks() && pipelineStatus != PASSED && pipelineStatus != FIXED
+				&& !enrichment.getConsoleLogLinks().isEmpty()) {
+			String logLinks = Lists.mkString(enrichment.getConsoleLogLinks(), "", "", "\n");
 			buildAttachment.addField(new SlackAttachment.Field("Console Logs", logLinks, true));
 		}
 
@@ -217,31 +337,73 @@ public class SlackPipelineListener extends PipelineListener {
 		return buildAttachment;
 	}
 
-	private List<String> createConsoleLogLinks(String host, Pipeline pipeline, Stage stage, PipelineStatus pipelineStatus) throws URISyntaxException {
-		List<String> consoleLinks = new ArrayList<>();
-		for (String job : stage.jobNames()) {
-			URI link;
-			// We should be linking to Console Tab when the status is building,
-			// while all others will be the console.log artifact.
-			if (pipelineStatus == PipelineStatus.BUILDING) {
-				link = new URI(String.format("%s/go/tab/build/detail/%s/%d/%s/%d/%s#tab-console", host, pipeline.name, pipeline.counter, stage.name, stage.counter, job));
-			} else {
-				link = new URI(String.format("%s/go/files/%s/%d/%s/%d/%s/cruise-output/console.log", host, pipeline.name, pipeline.counter, stage.name, stage.counter, job));
-			}
-			// TODO - May be it's only useful to show the failed job logs instead of all jobs?
-			consoleLinks.add("<" + link.normalize().toASCIIString() + "| View " + job + " logs>");
-		}
-		return consoleLinks;
-	}
+	private void addChanges(SlackAttachment buildAttachment, NotificationEnrichment enrichment) {
+		if (enrichment.isChangesPending()) {
+			buildAttachment.addField(new SlackAttachment.Field("Changes", "(Fetching changes…)", true));
+		} else if (enrichment.getChangesError() != null) {
+			buildAttachment.addField(new SlackAttachment.Field("Changes", "(Couldn't fetch changes; see server log.)", true));
+		} else {
+			try {
+				for (MaterialRevision change : enrichment.getChanges()) {
+					// Get material name
+					String materialName = change.material.getName();
+
+					// Do not show changes for ansible and angular-ndw
+					// unless we find a way to show only whitelist changes
+					if ("newndw".equals(materialName)
+							|| "ansible".equals(materialName)
+							|| "ndm".equals(materialName)
+							|| "libndm".equals(materialName)) {
+						continue;
+					}
+
+					StringBuilder sb = new StringBuilder();
+					for (Modification mod : change.modifications) {
+						//LOG.info("Mod revision for material " + change.material + " is " + mod.revision);
+						//LOG.info("Material type is " + change.material.type);
+						//LOG.info("Material description " + change.material.description);
+
+						String url = change.modificationUrl(mod);
+						if (url != null) {
+							// mod.revision for S3 bucket fetch-recovery-fw contains name of file, so we don't want to cut it
+							if (!"S3".equals(mod.userName)) {
+								sb.append("<").append(url).append("|").append(mod.revision, 0, 6).append(">");
+							} else {
+								sb.append("<").append(url).append("|").append(mod.revision).append(">");
+							}
+							sb.append(": ");
+						} else if (mod.revision != null) {
+							sb.append(mod.revision, 0, 6);
+							sb.append(": ");
+						}
+
+						String comment;
+						if (!"S3".equals(mod.userName)) {
+							// For full comment use mod.comment();
+							comment = mod.summarizeComment();
+						} else {
+							JSONObject j = new JSONObject(mod.comment);
+							comment = j.getString("COMMENT");
+						}
+						if (comment != null) {
+							sb.append(comment);
+						}
 
-	private Stage pickCurrentStage(Stage[] stages, GoNotificationMessage message) {
-		for (Stage stage : stages) {
-			if (message.getStageName().equals(stage.name)) {
-				return stage;
+						if (mod.userName != null && !"S3".equals(mod.userName)) {
+							sb.append(" - ");
+							sb.append(mod.userName);
+						}
+						sb.append("\n");
+					}
+
+					String fieldName = "Changes for " + (materialName == null ? change.material.description : materialName);
+					buildAttachment.addField(new SlackAttachment.Field(fieldName, sb.toString(), false));
+				}
+			} catch (JSONException e) {
+				buildAttachment.addField(new SlackAttachment.Field("Changes", "(Couldn't fetch changes; see server log.)", true));
+				LOG.warn("Couldn't render changes", e);
 			}
 		}
-
-		throw new IllegalArgumentException("The list of stages from the pipeline (" + message.getPipelineName() + ") doesn't have the active stage (" + message.getStageName() + ") for which we got the notification.");
 	}
 
 	private String verbFor(PipelineStatus pipelineStatus) {
@@ -290,21 +452,59 @@ public class SlackPipelineListener extends PipelineListener {
 		}
 	}
 
-	private void updateSlackChannel(String slackChannel) {
-		LOG.info(String.format("Updating target slack channel to %s", slackChannel));
+	/**
+	 * Post to the destination. With the Web API, a message posted earlier for the same key in the same channel is
+	 * edited instead. Destinations with a webhook of their own (another Slack team) always go through the webhook.
+	 *
+	 * @param key what the message is about, null if it's never edited
+	 * @param version of what the message says about the key, one older than the last pushed for the key is skipped
+	 */
+	private void push(Destination destination, String key, SlackAttachment attachment, long version) throws IOException {
+		if (key != null) {
+			synchronized (lastPushed) {
+				Pushed last = lastPushed.get(destination.getChannel() + "/" + key);
+				if (last != null && version < last.version) {
+					LOG.info(String.format("Not pushing %s, a newer message replaced it", key));
+					return;
+				}
+				lastPushed.put(destination.getChannel() + "/" + key, new Pushed(attachment, version));
+			}
+		}
+		if (slackWebApi != null && destination.getChannel() != null
+				&& Objects.equals(destination.getWebhookUrl(), rules.getWebHookUrl())) {
+			slackWebApi.postOrUpdate(key == null ? null : destination.getChannel() + "/" + key, destination.getChannel(), attachment, version);
+		} else {
+			slackFor(destination).push(attachment);
+		}
+	}
+
+	/**
+	 * A client pointed at the destination's webhook and channel. Rules are delivered concurrently, so each push
+	 * gets its own instance instead of re-targeting a shared one.
+	 */
+	private Slack slackFor(Destination destination) {
+		Slack slack = new Slack(destination.getWebhookUrl(), rules.getProxy())
+				.displayName(rules.getSlackDisplayName())
+				.icon(rules.getSlackUserIcon());
+
+		String slackChannel = destination.getChannel();
+		LOG.info(String.format("Pushing to slack channel %s", slackChannel));
 		// by default post it to where ever the hook is configured to do so
 		if (startsWith(slackChannel, "#")) {
 			slack.sendToChannel(slackChannel.substring(1));
 		} else if (startsWith(slackChannel, "@")) {
 			slack.sendToUser(slackChannel.substring(1));
 		}
+		return slack;
 	}
 
-	private void updateWebhookUrl(String webbookUrl) {
-		LOG.info(String.format("Updating target webhookUrl to %s", webbookUrl));
-		// by default pick the global webhookUrl
-		if (StringUtils.isNotEmpty(webbookUrl)) {
-			slack.setWebhookUrl(webbookUrl);
+	private static class Pushed {
+		private final SlackAttachment attachment;
+		private final long version;
+
+		Pushed(SlackAttachment attachment, long version) {
+			this.attachment = attachment;
+			this.version = version;
 		}
 	}
 }
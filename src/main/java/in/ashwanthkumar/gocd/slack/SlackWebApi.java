@@ -0,0 +1,230 @@
+package in.ashwanthkumar.gocd.slack;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import in.ashwanthkumar.slack.webhook.SlackAttachment;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static in.ashwanthkumar.utils.lang.StringUtils.isNotEmpty;
+
+/**
+ * Posts through Slack's Web API with a bot token rather than an incoming webhook. Unlike a webhook, it tells us
+ * the <code>ts</code> of the message it posted, so a later notification about the same thing (see
+ * {@link #postOrUpdate(String, String, SlackAttachment)}) edits that message with <code>chat.update</code>
+ * instead of posting a new one.
+ *
+ * Only the most recent <code>maxTrackedMessages</code> messages are remembered. Calls about the same key are made
+ * one at a time, and an update older than the one last made for the key is skipped, so a message never goes back
+ * to an earlier state.
+ */
+public class SlackWebApi {
+    private static Logger LOG = Logger.getLoggerFor(SlackWebApi.class);
+
+    public static final String DEFAULT_BASE_URL = "https://slack.com/api";
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30 * 1000;
+    private static final int LOCK_STRIPES = 64;
+
+    private final String baseUrl;
+    private final String token;
+    private final Proxy proxy;
+    private final String username;
+    private final String iconUrl;
+    private final long timeoutMillis;
+    private final Map<String, Tracked> posted;
+    // calls about a key are made holding its stripe
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public SlackWebApi(String baseUrl, String token, Proxy proxy, String username, String iconUrl, final int maxTrackedMessages) {
+        this(baseUrl, token, proxy, username, iconUrl, maxTrackedMessages, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param timeoutMillis how long a call may take to connect, and to get the response
+     */
+    public SlackWebApi(String baseUrl, String token, Proxy proxy, String username, String iconUrl, final int maxTrackedMessages, long timeoutMillis) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.token = token;
+        this.proxy = proxy;
+        this.username = username;
+        this.iconUrl = iconUrl;
+        this.timeoutMillis = timeoutMillis;
+        this.posted = new LinkedHashMap<String, Tracked>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Tracked> eldest) {
+                return size() > maxTrackedMessages;
+            }
+        };
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Edit the message previously posted for <code>key</code>, or post a new one if there's none (or it's gone).
+     *
+     * @param key identifies what the message is about, null to always post a new message
+     */
+    public PostedMessage postOrUpdate(String key, String channel, SlackAttachment attachment) throws IOException {
+        return postOrUpdate(key, channel, attachment, 0);
+    }
+
+    /**
+     * Like {@link #postOrUpdate(String, String, SlackAttachment)}, unless the message for <code>key</code> was
+     * last made from a newer version, then it's left as it is.
+     *
+     * @param version of what the attachment says about the key, e.g. when the notification was received
+     * @return the message for the key
+     */
+    public PostedMessage postOrUpdate(String key, String channel, SlackAttachment attachment, long version) throws IOException {
+        if (key == null) {
+            return postMessage(channel, attachment);
+        }
+        synchronized (locks[(key.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES]) {
+            Tracked previous;
+            synchronized (posted) {
+                previous = posted.get(key);
+            }
+            if (previous != null && version < previous.version) {
+                LOG.info(String.format("Not updating message %s in %s, it shows a newer state", previous.message.getTs(), previous.message.getChannel()));
+                return previous.message;
+            }
+            PostedMessage message = null;
+            if (previous != null) {
+                try {
+                    updateMessage(previous.message, attachment);
+                    message = previous.message;
+                } catch (SlackApiException e) {
+                    LOG.warn(String.format("Couldn't update message %s in %s (%s), posting a new one", previous.message.getTs(), previous.message.getChannel(), e.getError()));
+                }
+            }
+            if (message == null) {
+                message = postMessage(channel, attachment);
+            }
+            synchronized (posted) {
+                posted.put(key, new Tracked(message, version));
+            }
+            return message;
+        }
+    }
+
+    public PostedMessage postMessage(String channel, SlackAttachment attachment) throws IOException {
+        JsonObject payload = payload(attachment);
+        payload.addProperty("channel", channel.startsWith("#") ? channel.substring(1) : channel);
+        if (isNotEmpty(username)) {
+            payload.addProperty("username", username);
+        }
+        if (isNotEmpty(iconUrl)) {
+            payload.addProperty("icon_url", iconUrl);
+        }
+        JsonObject response = call("chat.postMessage", payload);
+        return new PostedMessage(response.get("channel").getAsString(), response.get("ts").getAsString());
+    }
+
+    public void updateMessage(PostedMessage message, SlackAttachment attachment) throws IOException {
+        JsonObject payload = payload(attachment);
+        payload.addProperty("channel", message.getChannel());
+        payload.addProperty("ts", message.getTs());
+        call("chat.update", payload);
+    }
+
+    private JsonObject payload(SlackAttachment attachment) {
+        JsonObject payload = new JsonObject();
+        payload.add("attachments", new Gson().toJsonTree(Collections.singletonList(attachment)));
+        return payload;
+    }
+
+    private JsonObject call(String method, JsonObject payload) throws IOException {
+        URL url = new URL(baseUrl + "/" + method);
+        HttpURLConnection connection = (HttpURLConnection) (proxy == null ? url.openConnection() : url.openConnection(proxy));
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+        connection.setRequestProperty("Authorization", "Bearer " + token);
+        connection.setRequestProperty("User-Agent", "plugin/slack.notifier");
+        connection.setConnectTimeout((int) timeoutMillis);
+        connection.setReadTimeout((int) timeoutMillis);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(payload.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            InputStream error = connection.getErrorStream();
+            String body = error == null ? "" : IOUtils.toString(error, StandardCharsets.UTF_8);
+            throw new IOException(String.format("Slack %s returned HTTP %d %s", method, status, body));
+        }
+        JsonElement json;
+        try (InputStream in = connection.getInputStream()) {
+            json = new JsonParser().parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+        JsonObject response = json.getAsJsonObject();
+        if (!response.has("ok") || !response.get("ok").getAsBoolean()) {
+            String error = response.has("error") ? response.get("error").getAsString() : "unknown_error";
+            throw new SlackApiException(method, error);
+        }
+        return response;
+    }
+
+    /**
+     * A message as Slack knows it: the channel id and the message timestamp.
+     */
+    public static class PostedMessage {
+        private final String channel;
+        private final String ts;
+
+        public PostedMessage(String channel, String ts) {
+            this.channel = channel;
+            this.ts = ts;
+        }
+
+        public String getChannel() {
+            return channel;
+        }
+
+        public String getTs() {
+            return ts;
+        }
+    }
+
+    private static class Tracked {
+        private final PostedMessage message;
+        private final long version;
+
+        Tracked(PostedMessage message, long version) {
+            this.message = message;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Slack answered the call with <code>ok: false</code>.
+     */
+    public static class SlackApiException extends IOException {
+        private final String error;
+
+        public SlackApiException(String method, String error) {
+            super(String.format("Slack %s failed: %s", method, error));
+            this.error = error;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+}
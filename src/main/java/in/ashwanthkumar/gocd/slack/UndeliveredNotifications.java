@@ -0,0 +1,96 @@
+package in.ashwanthkumar.gocd.slack;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stage-status request bodies that were still waiting to be delivered when the plugin was shut down. They are
+ * written into the data directory on shutdown and handed back, once, on the next start.
+ */
+public class UndeliveredNotifications {
+    private static Logger LOGGER = Logger.getLoggerFor(UndeliveredNotifications.class);
+
+    static final int FORMAT_VERSION = 1;
+    static final String FILE_NAME = "undelivered-notifications.json";
+
+    private final Gson gson = new GsonBuilder().create();
+    private final File file;
+
+    public UndeliveredNotifications(File dataDirectory) {
+        this.file = new File(dataDirectory, FILE_NAME);
+    }
+
+    /**
+     * Write the request bodies, replacing whatever was saved before. Nothing is written when there's nothing left.
+     */
+    public synchronized void save(List<String> requestBodies) {
+        if (requestBodies.isEmpty()) {
+            return;
+        }
+        Snapshot snapshot = new Snapshot();
+        snapshot.version = FORMAT_VERSION;
+        snapshot.requestBodies = new ArrayList<>(requestBodies);
+        try {
+            FileUtils.forceMkdir(file.getParentFile());
+            File tempFile = new File(file.getParentFile(), FILE_NAME + ".tmp");
+            FileUtils.writeStringToFile(tempFile, gson.toJson(snapshot), StandardCharsets.UTF_8);
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.info(String.format("Saved %d undelivered notification(s) to %s", requestBodies.size(), file.getAbsolutePath()));
+        } catch (IOException e) {
+            LOGGER.error(String.format("Unable to save %d undelivered notification(s) to %s", requestBodies.size(), file.getAbsolutePath()), e);
+        }
+    }
+
+    /**
+     * Add a request body to what was saved, for notifications that come in after the rest was saved on shutdown.
+     */
+    public synchronized void add(String requestBody) {
+        List<String> requestBodies = new ArrayList<>(read());
+        requestBodies.add(requestBody);
+        save(requestBodies);
+    }
+
+    /**
+     * Read back what was saved and remove the file, so nothing is delivered twice.
+     */
+    public synchronized List<String> takeAll() {
+        try {
+            return read();
+        } finally {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    private List<String> read() {
+        if (!file.exists()) {
+            return Collections.emptyList();
+        }
+        try {
+            Snapshot snapshot = gson.fromJson(FileUtils.readFileToString(file, StandardCharsets.UTF_8), Snapshot.class);
+            if (snapshot == null || snapshot.version != FORMAT_VERSION || snapshot.requestBodies == null) {
+                LOGGER.warn("Ignoring undelivered notifications at " + file.getAbsolutePath() + " since they were written by a different version");
+                return Collections.emptyList();
+            }
+            return snapshot.requestBodies;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Unable to read undelivered notifications at " + file.getAbsolutePath(), e);
+            return Collections.emptyList();
+        }
+    }
+
+    private static class Snapshot {
+        int version;
+        List<String> requestBodies;
+    }
+}
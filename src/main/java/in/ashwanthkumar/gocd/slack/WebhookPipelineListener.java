@@ -0,0 +1,259 @@
+package in.ashwanthkumar.gocd.slack;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineRule;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+import in.ashwanthkumar.gocd.slack.ruleset.Rules;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Posts notifications as compact JSON events to any HTTP endpoint, see <code>event-webhook</code>. Events are sent
+ * in batches of <code>batch-size</code>, or whatever has gathered every <code>flush-interval</code>, as
+ * <code>{"events": [...]}</code>, optionally gzipped.
+ *
+ * Batches are sent one at a time on the listener's own thread, never on the one that notified: the events of a
+ * batch came from several notifications, so a failed batch can't be reported to any one of them. Failed batches
+ * are logged and counted instead.
+ */
+public class WebhookPipelineListener extends PipelineListener {
+    private static Logger LOG = Logger.getLoggerFor(WebhookPipelineListener.class);
+
+    private final List<JsonObject> batch = new ArrayList<>();
+    private ScheduledExecutorService flusher;
+    private boolean closed;
+    private final AtomicLong lostEvents = new AtomicLong();
+
+    public WebhookPipelineListener(Rules rules) {
+        super(rules);
+    }
+
+    @Override
+    public void onBuilding(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        add(rule, PipelineStatus.BUILDING, message);
+    }
+
+    @Override
+    public void onPassed(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        add(rule, PipelineStatus.PASSED, message);
+    }
+
+    @Override
+    public void onFailed(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        add(rule, PipelineStatus.FAILED, message);
+    }
+
+    @Override
+    public void onBroken(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        add(rule, PipelineStatus.BROKEN, message);
+    }
+
+    @Override
+    public void onFixed(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        add(rule, PipelineStatus.FIXED, message);
+    }
+
+    @Override
+    public void onCancelled(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        add(rule, PipelineStatus.CANCELLED, message);
+    }
+
+    /**
+     * An event for every matched rule. A collector or audit log wants every one of them, so none of the Slack
+     * specific steps apply: no failure storm, digest or channel quota, and rules posting to the same Slack
+     * channel each get their event.
+     */
+    @Override
+    public RoutedNotification route(final GoNotificationMessage message) {
+        List<PipelineRule> found = rules.find(message.getPipelineName(), message.getStageName(), message.getPipelineGroup(), message.getStageResult());
+        if (found.isEmpty()) {
+            return null;
+        }
+        if (!rules.getProcessAllRules()) {
+            found = found.subList(0, 1);
+        }
+        final List<PipelineRule> matchedRules = found;
+        final PipelineStatus status = PipelineStatus.valueOf(message.getStageResult().toUpperCase());
+        return new RoutedNotification() {
+            @Override
+            public boolean needsEnrichment() {
+                return false;
+            }
+
+            @Override
+            public void deliver() throws Exception {
+                for (PipelineRule rule : matchedRules) {
+                    add(rule, status, message);
+                }
+            }
+        };
+    }
+
+    @Override
+    public boolean usesEnrichment() {
+        // events only carry what GoCD told us
+        return false;
+    }
+
+    /**
+     * Add the event to the current batch, and have the batch sent if it's full. Once closed, the event is sent
+     * right away.
+     */
+    private void add(PipelineRule rule, PipelineStatus status, GoNotificationMessage message) throws IOException {
+        List<JsonObject> events;
+        synchronized (this) {
+            if (!closed) {
+                startFlusher();
+                batch.add(event(rule, status, message));
+                if (batch.size() >= rules.getEventWebhookBatchSize()) {
+                    final List<JsonObject> full = takeBatch();
+                    flusher.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            sendOrLose(full);
+                        }
+                    });
+                }
+                return;
+            }
+            events = Collections.singletonList(event(rule, status, message));
+        }
+        send(events);
+    }
+
+    private static JsonObject event(PipelineRule rule, PipelineStatus status, GoNotificationMessage message) {
+        JsonObject event = new JsonObject();
+        event.addProperty("pipeline", message.getPipelineName());
+        event.addProperty("counter", message.getPipelineCounter());
+        event.addProperty("group", message.getPipelineGroup());
+        event.addProperty("stage", message.getStageName());
+        event.addProperty("stageCounter", message.getStageCounter());
+        event.addProperty("status", status.name().toLowerCase());
+        event.addProperty("channel", rule.getChannel());
+        event.addProperty("at", System.currentTimeMillis());
+        return event;
+    }
+
+    private void startFlusher() {
+        if (flusher != null) {
+            return;
+        }
+        ScheduledExecutorService started = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("gocd-slack-event-webhook"));
+        long interval = rules.getEventWebhookFlushIntervalMillis();
+        started.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        flusher = started;
+    }
+
+    /**
+     * Send whatever has gathered. Failures are only logged, those events are lost.
+     */
+    public void flush() {
+        List<JsonObject> events;
+        synchronized (this) {
+            events = takeBatch();
+        }
+        if (!events.isEmpty()) {
+            sendOrLose(events);
+        }
+    }
+
+    private void sendOrLose(List<JsonObject> events) {
+        try {
+            send(events);
+        } catch (IOException | RuntimeException e) {
+            lostEvents.addAndGet(events.size());
+            LOG.warn(String.format("Couldn't send %d events to %s", events.size(), rules.getEventWebhookUrl()), e);
+        }
+    }
+
+    /**
+     * @return how many events were lost because the batch they were in couldn't be sent
+     */
+    public long getLostEvents() {
+        return lostEvents.get();
+    }
+
+    private List<JsonObject> takeBatch() {
+        List<JsonObject> events = new ArrayList<>(batch);
+        batch.clear();
+        return events;
+    }
+
+    private void send(List<JsonObject> events) throws IOException {
+        JsonArray array = new JsonArray();
+        for (JsonObject event : events) {
+            array.add(event);
+        }
+        JsonObject payload = new JsonObject();
+        payload.add("events", array);
+        byte[] body = payload.toString().getBytes(StandardCharsets.UTF_8);
+
+        URL url = new URL(rules.getEventWebhookUrl());
+        HttpURLConnection connection = (HttpURLConnection) (rules.getProxy() == null ? url.openConnection() : url.openConnection(rules.getProxy()));
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+        connection.setRequestProperty("User-Agent", "plugin/slack.notifier");
+        connection.setConnectTimeout((int) rules.getEventWebhookTimeoutMillis());
+        connection.setReadTimeout((int) rules.getEventWebhookTimeoutMillis());
+        if (rules.isEventWebhookGzip()) {
+            connection.setRequestProperty("Content-Encoding", "gzip");
+        }
+        try (OutputStream out = rules.isEventWebhookGzip() ? new GZIPOutputStream(connection.getOutputStream()) : connection.getOutputStream()) {
+            out.write(body);
+        }
+
+        int status = connection.getResponseCode();
+        if (status / 100 != 2) {
+            InputStream error = connection.getErrorStream();
+            String response = error == null ? "" : IOUtils.toString(error, StandardCharsets.UTF_8);
+            throw new IOException(String.format("%s returned HTTP %d %s", rules.getEventWebhookUrl(), status, response));
+        }
+        IOUtils.closeQuietly(connection.getInputStream());
+        LOG.debug(String.format("Sent %d events to %s", events.size(), rules.getEventWebhookUrl()));
+    }
+
+    @Override
+    public void close() {
+        ScheduledExecutorService stopped;
+        synchronized (this) {
+            closed = true;
+            stopped = flusher;
+            flusher = null;
+        }
+        if (stopped != null) {
+            // full batches already handed to it are still sent
+            stopped.shutdown();
+            try {
+                if (!stopped.awaitTermination(rules.getEventWebhookTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                    LOG.warn("Full batches of events are still being sent to " + rules.getEventWebhookUrl());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+        super.close();
+    }
+}
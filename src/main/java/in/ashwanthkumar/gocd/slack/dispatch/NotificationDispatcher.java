@@ -0,0 +1,163 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers notifications off the thread GoCD notifies us on. Pipelines are spread by name over shards that each
+ * have a single worker, so notifications of a pipeline are delivered one at a time, in the order they came in, while
+ * different pipelines are delivered in parallel.
+ *
+ * Within a shard notifications wait in {@link PriorityLanes}, so under pressure failures go out before passed or
+ * building ones of other pipelines, and the least important ones are shed first.
+ */
+public class NotificationDispatcher {
+    private static Logger LOG = Logger.getLoggerFor(NotificationDispatcher.class);
+
+    private final List<Shard> shards = new ArrayList<>();
+
+    /**
+     * @param laneDepths limits of each shard's lanes, see {@link PriorityLanes}
+     * @param maxQueued  limit of each shard
+     */
+    public NotificationDispatcher(int shards, Map<PipelineStatus, Integer> laneDepths, int maxQueued) {
+        for (int i = 0; i < shards; i++) {
+            Shard shard = new Shard(new PriorityLanes<Runnable>(laneDepths, maxQueued));
+            Thread worker = new Thread(shard, "gocd-slack-dispatch-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+            this.shards.add(shard);
+        }
+    }
+
+    /**
+     * Queue the delivery of a notification, after the ones of the same pipeline that are already waiting.
+     *
+     * @return false if it was shed right away
+     */
+    public boolean submit(String pipeline, PipelineStatus status, Runnable delivery) {
+        Shard shard = shardOf(pipeline);
+        boolean queued = shard.lanes.offer(status, pipeline, delivery);
+        shard.recordDepth();
+        if (!queued) {
+            LOG.warn(String.format("Dispatch queue is full, dropped a %s notification of %s", status, pipeline));
+        }
+        return queued;
+    }
+
+    /**
+     * Stop the workers once they are done with what they are delivering right now.
+     *
+     * @return the notifications that were still waiting, in the order they came in for each pipeline
+     */
+    public List<PriorityLanes.Queued<Runnable>> close() {
+        List<PriorityLanes.Queued<Runnable>> waiting = new ArrayList<>();
+        for (Shard shard : shards) {
+            shard.lanes.close();
+            waiting.addAll(shard.lanes.drain());
+        }
+        return waiting;
+    }
+
+    /**
+     * Wait until every notification that was submitted has been delivered.
+     *
+     * @return false if that didn't happen within the timeout
+     */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Shard shard : shards) {
+            if (!shard.lanes.awaitIdle(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getQueued() {
+        int queued = 0;
+        for (Shard shard : shards) {
+            queued += shard.lanes.size();
+        }
+        return queued;
+    }
+
+    /**
+     * @return number of notifications shed per status, over all the shards
+     */
+    public Map<PipelineStatus, Long> getShed() {
+        Map<PipelineStatus, Long> shed = new LinkedHashMap<>();
+        for (Shard shard : shards) {
+            for (Map.Entry<PipelineStatus, Long> lane : shard.lanes.getShed().entrySet()) {
+                Long count = shed.get(lane.getKey());
+                shed.put(lane.getKey(), (count == null ? 0 : count) + lane.getValue());
+            }
+        }
+        return shed;
+    }
+
+    /**
+     * @return for every shard: what's waiting per status, the most that ever waited and how many were delivered
+     */
+    public List<Map<String, Object>> getShardStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (Shard shard : shards) {
+            Map<String, Object> shardStats = new LinkedHashMap<>();
+            shardStats.put("queued", shard.lanes.getDepths());
+            shardStats.put("maxQueued", shard.getHighWaterMark());
+            shardStats.put("delivered", shard.delivered.get());
+            stats.add(shardStats);
+        }
+        return stats;
+    }
+
+    private Shard shardOf(String pipeline) {
+        return shards.get(Math.floorMod(Objects.hashCode(pipeline), shards.size()));
+    }
+
+    private static class Shard implements Runnable {
+        private final PriorityLanes<Runnable> lanes;
+        private final AtomicLong delivered = new AtomicLong();
+        private int highWaterMark;
+
+        Shard(PriorityLanes<Runnable> lanes) {
+            this.lanes = lanes;
+        }
+
+        synchronized void recordDepth() {
+            highWaterMark = Math.max(highWaterMark, lanes.size());
+        }
+
+        synchronized int getHighWaterMark() {
+            return highWaterMark;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable delivery;
+                try {
+                    delivery = lanes.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (delivery == null) {
+                    return;
+                }
+                try {
+                    delivery.run();
+                } catch (RuntimeException e) {
+                    LOG.error("Notification delivery failed", e);
+                } finally {
+                    delivered.incrementAndGet();
+                    lanes.done();
+                }
+            }
+        }
+    }
+}
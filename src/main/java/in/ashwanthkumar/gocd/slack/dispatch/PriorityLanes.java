@@ -0,0 +1,272 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus.*;
+
+/**
+ * A queue with a lane per {@link PipelineStatus}. Items are taken from the most important non-empty lane first,
+ * oldest first within a lane. Items offered with the same key are still taken in the order they were offered, so a
+ * failed notification doesn't overtake the building one of the same pipeline.
+ *
+ * When a lane reaches its depth limit, its oldest item is shed to make room. When the whole queue reaches
+ * <code>maxQueued</code>, the oldest item of the least important non-empty lane is shed instead, unless the new
+ * item is less important than everything queued, in which case the new item itself is shed.
+ */
+public class PriorityLanes<T> {
+    /**
+     * Most important first.
+     */
+    public static final List<PipelineStatus> PRIORITY = Collections.unmodifiableList(Arrays.asList(FAILED, BROKEN, FIXED, CANCELLED, PASSED, BUILDING));
+
+    private final Map<PipelineStatus, Deque<Queued<T>>> lanes = new EnumMap<>(PipelineStatus.class);
+    // sequence numbers of the items waiting for each key, oldest first
+    private final Map<String, Deque<Long>> waitingByKey = new HashMap<>();
+    private final Map<PipelineStatus, Integer> maxDepths;
+    private final Map<PipelineStatus, Long> shed = new EnumMap<>(PipelineStatus.class);
+    private final int maxQueued;
+    private long sequence;
+    private int size;
+    // taken but not reported done yet
+    private int inFlight;
+    private boolean closed;
+
+    /**
+     * @param maxDepths limit of each lane, lanes that aren't there are only limited by maxQueued
+     */
+    public PriorityLanes(Map<PipelineStatus, Integer> maxDepths, int maxQueued) {
+        this.maxDepths = new EnumMap<>(PipelineStatus.class);
+        this.maxDepths.putAll(maxDepths);
+        this.maxQueued = maxQueued;
+        for (PipelineStatus status : PRIORITY) {
+            lanes.put(status, new ArrayDeque<Queued<T>>());
+            shed.put(status, 0L);
+        }
+    }
+
+    /**
+     * @return false if the item itself was shed
+     */
+    public boolean offer(PipelineStatus status, T item) {
+        return offer(status, null, item);
+    }
+
+    /**
+     * @param key items with the same key are taken in the order they were offered, null if the order doesn't matter
+     * @return false if the item itself was shed
+     */
+    public synchronized boolean offer(PipelineStatus status, String key, T item) {
+        status = laneOf(status);
+        Deque<Queued<T>> lane = lanes.get(status);
+        Integer maxDepth = maxDepths.get(status);
+        if (maxDepth != null && lane.size() >= maxDepth) {
+            if (lane.isEmpty()) {
+                shed(status);
+                return false;
+            }
+            remove(lane.removeFirst());
+            shed(status);
+        } else if (size >= maxQueued) {
+            PipelineStatus victim = leastImportantQueued();
+            if (victim == null || rank(victim) < rank(status)) {
+                shed(status);
+                return false;
+            }
+            remove(lanes.get(victim).removeFirst());
+            shed(victim);
+        }
+        Queued<T> queued = new Queued<>(sequence++, status, key, item);
+        lane.addLast(queued);
+        if (key != null) {
+            Deque<Long> waiting = waitingByKey.get(key);
+            if (waiting == null) {
+                waiting = new ArrayDeque<>();
+                waitingByKey.put(key, waiting);
+            }
+            waiting.addLast(queued.sequence);
+        }
+        size++;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Wait for the most important item. Call {@link #done()} once it's been handled.
+     *
+     * @return null once closed
+     */
+    public synchronized T take() throws InterruptedException {
+        while (size == 0 && !closed) {
+            wait();
+        }
+        if (closed) {
+            return null;
+        }
+        inFlight++;
+        return poll();
+    }
+
+    /**
+     * An item returned by {@link #take()} has been handled.
+     */
+    public synchronized void done() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Wait until everything that was queued has been taken and handled.
+     *
+     * @return false if that didn't happen within the timeout
+     */
+    public synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (size > 0 || inFlight > 0) {
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (left <= 0) {
+                return false;
+            }
+            wait(left);
+        }
+        return true;
+    }
+
+    /**
+     * @return the most important item, null if there's none
+     */
+    public synchronized T poll() {
+        for (PipelineStatus status : PRIORITY) {
+            Iterator<Queued<T>> lane = lanes.get(status).iterator();
+            while (lane.hasNext()) {
+                Queued<T> queued = lane.next();
+                if (isNextForItsKey(queued)) {
+                    lane.remove();
+                    remove(queued);
+                    return queued.item;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Wake up everyone waiting in {@link #take()}, which returns null from then on.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Remove and return everything that's queued, in the order it was offered.
+     */
+    public synchronized List<Queued<T>> drain() {
+        List<Queued<T>> drained = new ArrayList<>();
+        for (Deque<Queued<T>> lane : lanes.values()) {
+            drained.addAll(lane);
+            lane.clear();
+        }
+        Collections.sort(drained, new Comparator<Queued<T>>() {
+            @Override
+            public int compare(Queued<T> a, Queued<T> b) {
+                return Long.compare(a.sequence, b.sequence);
+            }
+        });
+        waitingByKey.clear();
+        size = 0;
+        return drained;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized Map<PipelineStatus, Integer> getDepths() {
+        Map<PipelineStatus, Integer> depths = new LinkedHashMap<>();
+        for (PipelineStatus status : PRIORITY) {
+            depths.put(status, lanes.get(status).size());
+        }
+        return depths;
+    }
+
+    /**
+     * @return number of items shed from each lane so far
+     */
+    public synchronized Map<PipelineStatus, Long> getShed() {
+        Map<PipelineStatus, Long> counts = new LinkedHashMap<>();
+        for (PipelineStatus status : PRIORITY) {
+            counts.put(status, shed.get(status));
+        }
+        return counts;
+    }
+
+    private boolean isNextForItsKey(Queued<T> queued) {
+        return queued.key == null || waitingByKey.get(queued.key).peekFirst() == queued.sequence;
+    }
+
+    // forget an item that was taken off its lane
+    private void remove(Queued<T> queued) {
+        size--;
+        if (queued.key != null) {
+            Deque<Long> waiting = waitingByKey.get(queued.key);
+            waiting.remove(queued.sequence);
+            if (waiting.isEmpty()) {
+                waitingByKey.remove(queued.key);
+            }
+        }
+    }
+
+    private void shed(PipelineStatus status) {
+        shed.put(status, shed.get(status) + 1);
+    }
+
+    private PipelineStatus leastImportantQueued() {
+        for (int i = PRIORITY.size() - 1; i >= 0; i--) {
+            if (!lanes.get(PRIORITY.get(i)).isEmpty()) {
+                return PRIORITY.get(i);
+            }
+        }
+        return null;
+    }
+
+    private static int rank(PipelineStatus status) {
+        return PRIORITY.indexOf(status);
+    }
+
+    // ALL isn't a status a notification can have, treat it like any other finished stage
+    private static PipelineStatus laneOf(PipelineStatus status) {
+        return PRIORITY.contains(status) ? status : PASSED;
+    }
+
+    /**
+     * An item waiting in its lane.
+     */
+    public static class Queued<T> {
+        private final long sequence;
+        private final PipelineStatus status;
+        private final String key;
+        private final T item;
+
+        private Queued(long sequence, PipelineStatus status, String key, T item) {
+            this.sequence = sequence;
+            this.status = status;
+            this.key = key;
+            this.item = item;
+        }
+
+        public PipelineStatus getStatus() {
+            return status;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public T getItem() {
+            return item;
+        }
+    }
+}
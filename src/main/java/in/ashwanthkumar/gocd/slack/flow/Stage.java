@@ -0,0 +1,234 @@
+package in.ashwanthkumar.gocd.slack.flow;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import in.ashwanthkumar.gocd.slack.PipelineListener;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A step of the notification path with threads of its own. It asks the stage in front of it for as many items as
+ * its buffer holds, and for one more every time it's done with one. When the stage behind it doesn't keep up,
+ * handing items on blocks, so it stops asking, and the stages in front of it eventually block in turn.
+ *
+ * Items are spread by key over the threads, each with a single thread, so the items of a key go through the stage
+ * one at a time and in order.
+ */
+public class Stage<T> implements Flow.Processor<T, T> {
+    private static Logger LOG = Logger.getLoggerFor(Stage.class);
+    private static final Object END = new Object();
+
+    public interface Step<T> {
+        /**
+         * @return the item for the next stage, null if it stops here
+         */
+        T process(T item) throws Exception;
+    }
+
+    private final String name;
+    private final int threads;
+    private final int bufferSize;
+    private final Function<T, String> keyOf;
+    private final Step<T> step;
+    private final List<Worker> workers = new ArrayList<>();
+    private final ExecutorService publishing;
+    private final SubmissionPublisher<T> out;
+    private final AtomicInteger running;
+    private volatile Flow.Subscription upstream;
+    // told about every item that stops at this stage, set by StagedPipeline
+    private volatile Consumer<T> stopped;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    // since the stats were last read
+    private long windowStartedAt = System.nanoTime();
+    private long windowProcessed;
+    private long windowLatencyNanos;
+    private long windowMaxLatencyNanos;
+
+    public Stage(String name, int threads, int bufferSize, Function<T, String> keyOf, Step<T> step) {
+        this.name = name;
+        this.threads = Math.max(1, threads);
+        this.bufferSize = Math.max(1, bufferSize);
+        this.keyOf = keyOf;
+        this.step = step;
+        // its thread goes away once the stage is closed and idle
+        ThreadPoolExecutor publishing = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new PipelineListener.DaemonThreadFactory("gocd-slack-stage-" + name + "-out"));
+        publishing.allowCoreThreadTimeOut(true);
+        this.publishing = publishing;
+        this.out = new SubmissionPublisher<>(publishing, this.bufferSize);
+        this.running = new AtomicInteger(this.threads);
+        PipelineListener.DaemonThreadFactory workerThreads = new PipelineListener.DaemonThreadFactory("gocd-slack-stage-" + name);
+        for (int i = 0; i < this.threads; i++) {
+            Worker worker = new Worker();
+            Thread thread = workerThreads.newThread(worker);
+            worker.thread = thread;
+            workers.add(worker);
+            thread.start();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void whenStopped(Consumer<T> stopped) {
+        this.stopped = stopped;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        out.subscribe(subscriber);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        upstream = subscription;
+        subscription.request(bufferSize);
+    }
+
+    @Override
+    public void onNext(T item) {
+        queued.incrementAndGet();
+        workers.get(Math.floorMod(Objects.hashCode(keyOf.apply(item)), workers.size())).queue.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        LOG.error(String.format("Stage %s lost its upstream", name), throwable);
+        onComplete();
+    }
+
+    /**
+     * Nothing more is coming: the workers finish what's queued, then the next stage is told it's complete.
+     */
+    @Override
+    public void onComplete() {
+        for (Worker worker : workers) {
+            worker.queue.add(END);
+        }
+    }
+
+    /**
+     * Stop right away, dropping whatever is queued.
+     */
+    void abort() {
+        for (Worker worker : workers) {
+            worker.thread.interrupt();
+        }
+        out.close();
+        publishing.shutdownNow();
+    }
+
+    /**
+     * @return what's queued and, since the last call, how many items went through per second and how long they took
+     */
+    public synchronized Map<String, Object> getStats() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - windowStartedAt) / 1e9;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("name", name);
+        stats.put("threads", threads);
+        stats.put("buffer", bufferSize);
+        stats.put("queued", queued.get());
+        stats.put("processed", processed.get());
+        stats.put("dropped", dropped.get());
+        stats.put("failed", failed.get());
+        stats.put("perSecond", Math.round(windowProcessed / seconds * 100) / 100.0);
+        stats.put("avgLatencyMillis", windowProcessed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(windowLatencyNanos / windowProcessed));
+        stats.put("maxLatencyMillis", TimeUnit.NANOSECONDS.toMillis(windowMaxLatencyNanos));
+        windowStartedAt = now;
+        windowProcessed = 0;
+        windowLatencyNanos = 0;
+        windowMaxLatencyNanos = 0;
+        return stats;
+    }
+
+    private synchronized void record(long latencyNanos) {
+        windowProcessed++;
+        windowLatencyNanos += latencyNanos;
+        windowMaxLatencyNanos = Math.max(windowMaxLatencyNanos, latencyNanos);
+    }
+
+    private void stop(T item) {
+        Consumer<T> consumer = stopped;
+        if (consumer != null) {
+            consumer.accept(item);
+        }
+    }
+
+    private void finished() {
+        if (running.decrementAndGet() == 0) {
+            // hands on the rest of its buffer before telling the next stage it's complete
+            out.close();
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+        private Thread thread;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            while (true) {
+                Object next;
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (next == END) {
+                    finished();
+                    return;
+                }
+                T item = (T) next;
+                long startedAt = System.nanoTime();
+                T result = null;
+                boolean failedItem = false;
+                try {
+                    result = step.process(item);
+                } catch (Exception e) {
+                    failedItem = true;
+                    failed.incrementAndGet();
+                    LOG.warn(String.format("Stage %s failed on %s", name, keyOf.apply(item)), e);
+                }
+                record(System.nanoTime() - startedAt);
+                processed.incrementAndGet();
+                queued.decrementAndGet();
+                if (result != null) {
+                    try {
+                        // blocks while the next stage's buffer is full
+                        out.submit(result);
+                    } catch (IllegalStateException e) {
+                        // aborted
+                        stop(result);
+                        return;
+                    }
+                } else {
+                    if (!failedItem) {
+                        dropped.incrementAndGet();
+                    }
+                    stop(item);
+                }
+                upstream.request(1);
+            }
+        }
+    }
+}
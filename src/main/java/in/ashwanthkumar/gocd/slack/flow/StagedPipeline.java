@@ -0,0 +1,154 @@
+package in.ashwanthkumar.gocd.slack.flow;
+
+import in.ashwanthkumar.gocd.slack.PipelineListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Stages connected one after another, from an intake to a sink that just takes whatever the last stage is done
+ * with. {@link #submit(Object)} blocks while the first stage's buffer is full, which only happens once the stages
+ * behind it are full as well, so a slow last stage eventually slows down the intake.
+ *
+ * Items are tracked until they went through every stage or stopped at one of them, so whatever is still on its way
+ * can be saved when we shut down.
+ */
+public class StagedPipeline<T> {
+    private final SubmissionPublisher<T> intake;
+    private final List<Stage<T>> stages;
+    private final Set<T> inFlight = Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+
+    public StagedPipeline(int intakeBufferSize, List<Stage<T>> stages) {
+        ThreadPoolExecutor publishing = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new PipelineListener.DaemonThreadFactory("gocd-slack-stage-intake"));
+        publishing.allowCoreThreadTimeOut(true);
+        this.intake = new SubmissionPublisher<>(publishing, Math.max(1, intakeBufferSize));
+        this.stages = stages;
+
+        Consumer<T> done = new Consumer<T>() {
+            @Override
+            public void accept(T item) {
+                done(item);
+            }
+        };
+        Flow.Publisher<T> previous = intake;
+        for (Stage<T> stage : stages) {
+            stage.whenStopped(done);
+            previous.subscribe(stage);
+            previous = stage;
+        }
+        previous.subscribe(new Sink());
+    }
+
+    /**
+     * Hand an item to the first stage, waiting for room in its buffer.
+     *
+     * @throws IllegalStateException if the pipeline is closed
+     */
+    public void submit(T item) {
+        synchronized (inFlight) {
+            inFlight.add(item);
+        }
+        try {
+            intake.submit(item);
+        } catch (IllegalStateException e) {
+            done(item);
+            throw e;
+        }
+    }
+
+    /**
+     * Wait until every submitted item went through.
+     *
+     * @return false if that didn't happen within the timeout
+     */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (inFlight) {
+            while (!inFlight.isEmpty()) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) {
+                    return false;
+                }
+                inFlight.wait(left);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the items that haven't gone through every stage yet
+     */
+    public List<T> getInFlight() {
+        synchronized (inFlight) {
+            return new ArrayList<>(inFlight);
+        }
+    }
+
+    /**
+     * Take no more items. The stages go on with what they have, one after another, on their own threads.
+     */
+    public void close() {
+        intake.close();
+    }
+
+    /**
+     * Take no more items and stop every stage right away.
+     */
+    public void abort() {
+        intake.close();
+        for (Stage<T> stage : stages) {
+            stage.abort();
+        }
+    }
+
+    /**
+     * @return the stats of every stage, in order, see {@link Stage#getStats()}
+     */
+    public List<Map<String, Object>> getStageStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (Stage<T> stage : stages) {
+            stats.add(stage.getStats());
+        }
+        return stats;
+    }
+
+    private void done(T item) {
+        synchronized (inFlight) {
+            inFlight.remove(item);
+            if (inFlight.isEmpty()) {
+                inFlight.notifyAll();
+            }
+        }
+    }
+
+    private class Sink implements Flow.Subscriber<T> {
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(T item) {
+            done(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package in.ashwanthkumar.gocd.slack.jsonapi;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How many calls may be in flight to a GoCD server, adapted to how fast it answers. Two moving averages of the
+ * response time are kept, a short one following the last few calls and a long one following the last hundred or
+ * so. While the short one stays close to the long one, the limit grows, up to the configured maximum. When the
+ * server slows down and the short one rises well above the long one, the limit shrinks in proportion, down to a
+ * single call, and grows back once the server recovers.
+ *
+ * Only calls made while at least half of the limit was in use count towards growing it, so a quiet period doesn't
+ * push the limit up without the server ever being tried at it.
+ */
+public class ConcurrencyLimiter {
+    // how much slower than usual the server may get before the limit shrinks
+    static final double TOLERANCE = 1.5;
+    private static final double SHORT_SMOOTHING = 0.2;
+    private static final double LONG_SMOOTHING = 0.02;
+    private static final double LIMIT_SMOOTHING = 0.2;
+
+    private int maxLimit;
+    private double limit;
+    private int inFlight;
+    private double shortLatencyNanos;
+    private double longLatencyNanos;
+
+    public ConcurrencyLimiter(int maxLimit) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = this.maxLimit;
+    }
+
+    /**
+     * Wait for the number of calls in flight to drop below the limit.
+     *
+     * @return false if that didn't happen within the timeout
+     */
+    public synchronized boolean acquire(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (inFlight >= getLimit()) {
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (left <= 0) {
+                return false;
+            }
+            wait(left);
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * @return true if a call may go out right away, false if that would take the calls in flight over the limit
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= getLimit()) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * A call is done, it took this long whether it went through or failed.
+     */
+    public synchronized void release(long latencyNanos) {
+        boolean busy = inFlight >= limit / 2;
+        inFlight--;
+        update(latencyNanos, busy);
+        notifyAll();
+    }
+
+    /**
+     * The call we were let through for didn't go out after all.
+     */
+    public synchronized void releaseUnused() {
+        inFlight--;
+        notifyAll();
+    }
+
+    private void update(long latencyNanos, boolean busy) {
+        if (longLatencyNanos == 0) {
+            shortLatencyNanos = latencyNanos;
+            longLatencyNanos = latencyNanos;
+            return;
+        }
+        shortLatencyNanos += (latencyNanos - shortLatencyNanos) * SHORT_SMOOTHING;
+        longLatencyNanos += (latencyNanos - longLatencyNanos) * LONG_SMOOTHING;
+        // after a long slow period, let the usual response time come down faster than it went up
+        if (longLatencyNanos > 2 * shortLatencyNanos) {
+            longLatencyNanos *= 0.95;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longLatencyNanos / shortLatencyNanos));
+        double target;
+        if (gradient < 1.0) {
+            target = limit * gradient;
+        } else if (busy) {
+            // a few more calls to find out whether the server can take them
+            target = limit + Math.sqrt(limit);
+        } else {
+            return;
+        }
+        limit = Math.max(1, Math.min(maxLimit, limit * (1 - LIMIT_SMOOTHING) + target * LIMIT_SMOOTHING));
+    }
+
+    /**
+     * @return how many calls may be in flight right now
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * The configured maximum changed. A lower one applies right away, calls in flight over it finish first; a higher
+     * one is grown into like after a slow period.
+     */
+    public synchronized void setMaxLimit(int maxLimit) {
+        this.maxLimit = Math.max(1, maxLimit);
+        limit = Math.min(limit, this.maxLimit);
+        notifyAll();
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
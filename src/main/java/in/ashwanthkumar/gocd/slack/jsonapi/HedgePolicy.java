@@ -0,0 +1,87 @@
+package in.ashwanthkumar.gocd.slack.jsonapi;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When a call to a GoCD server is worth sending a second time. It keeps the response times of the last calls, and
+ * a call that's still out after the configured percentile of them gets a second one, as long as the budget allows.
+ * Every call adds its share of the budget, a fraction of a second call, and every second call spends a whole one,
+ * so no more than that fraction of the calls is ever sent twice.
+ */
+public class HedgePolicy {
+    static final int SAMPLES = 200;
+    // no second calls until we know what's slow for this server
+    static final int MIN_SAMPLES = 20;
+    // second calls saved up during a quiet period, so a burst of slow calls doesn't double the load
+    private static final double MAX_SAVED = 10;
+
+    private final long[] latencies = new long[SAMPLES];
+    private int samples;
+    private int next;
+    private double saved;
+    private long hedged;
+    private long won;
+
+    /**
+     * A call went through in this long.
+     */
+    public synchronized void record(long latencyNanos) {
+        latencies[next] = latencyNanos;
+        next = (next + 1) % SAMPLES;
+        samples = Math.min(SAMPLES, samples + 1);
+    }
+
+    /**
+     * @return how long to wait for a call before sending it again, -1 until enough calls went through
+     */
+    public synchronized long delayMillis(int percentile) {
+        if (samples < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(latencies, samples);
+        Arrays.sort(sorted);
+        int index = Math.min(samples - 1, (int) Math.ceil(samples * percentile / 100.0) - 1);
+        return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]);
+    }
+
+    /**
+     * A call is made, adding its share to the budget.
+     */
+    public synchronized void onCall(double budget) {
+        saved = Math.min(MAX_SAVED, saved + budget);
+    }
+
+    /**
+     * @return true if the budget allows for a second call, which is then taken from it
+     */
+    public synchronized boolean tryHedge() {
+        if (saved < 1) {
+            return false;
+        }
+        saved -= 1;
+        hedged++;
+        return true;
+    }
+
+    /**
+     * The second call answered first.
+     */
+    public synchronized void onHedgeWon() {
+        won++;
+    }
+
+    /**
+     * @return how many calls were sent a second time
+     */
+    public synchronized long getHedged() {
+        return hedged;
+    }
+
+    /**
+     * @return how many of those were answered first the second time
+     */
+    public synchronized long getWon() {
+        return won;
+    }
+}
@@ -4,7 +4,7 @@ import com.google.gson.annotations.SerializedName;
 import com.thoughtworks.go.plugin.api.logging.Logger;
 
 public class History {
-    private Logger LOG = Logger.getLoggerFor(History.class);
+    private static Logger LOG = Logger.getLoggerFor(History.class);
 
     @SerializedName("pipelines")
     public Pipeline[] pipelines;
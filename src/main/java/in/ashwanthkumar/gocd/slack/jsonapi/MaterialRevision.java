@@ -5,7 +5,14 @@ import com.thoughtworks.go.plugin.api.logging.Logger;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -16,7 +23,7 @@ public class MaterialRevision {
 	static private final Pattern S3_MATERIAL_PATTERN = Pattern.compile("^Repository:.*s3_bucket=.*Package.*");
 
 	
-	private Logger LOG = Logger.getLoggerFor(MaterialRevision.class);
+	private static Logger LOG = Logger.getLoggerFor(MaterialRevision.class);
 	
 	@SerializedName("changed")
 	public boolean changed;
@@ -83,11 +90,48 @@ public class MaterialRevision {
 	}
 	
 	
+	/**
+     * Start fetching the upstream pipelines this revision points to, if it's a changed pipeline material.
+     *
+     * @param executor where to fetch them, null to fetch each one when it's needed
+     * @return a fetch per modification, null for those that don't name a pipeline
+     */
+    List<FutureTask<Pipeline>> fetchUpstreams(final Server server, ExecutorService executor) {
+        List<FutureTask<Pipeline>> fetches = new ArrayList<>();
+        if (!changed || !isPipeline()) {
+            return fetches;
+        }
+        for (Modification m : modifications) {
+            Matcher matcher = PIPELINE_REVISION_PATTERN.matcher(m.revision);
+            if (!matcher.matches()) {
+                fetches.add(null);
+                continue;
+            }
+            final String pipelineName = matcher.group(1);
+            final int pipelineCounter = Integer.parseInt(matcher.group(2));
+            FutureTask<Pipeline> fetch = new FutureTask<>(new Callable<Pipeline>() {
+                @Override
+                public Pipeline call() throws Exception {
+                    return server.getPipelineInstance(pipelineName, pipelineCounter);
+                }
+            });
+            if (executor != null) {
+                try {
+                    executor.execute(fetch);
+                } catch (RejectedExecutionException e) {
+                    // the executor was replaced after a reload, awaiting the fetch runs it on this thread
+                }
+            }
+            fetches.add(fetch);
+        }
+        return fetches;
+    }
+
 	/**
      * Collect all changed MaterialRevision objects, walking changed
      * "Pipeline" objects recursively instead of including them directly.
      */
-    void addChangesRecursively(Server server, List<MaterialRevision> outChanges) throws IOException {
+    void addChangesRecursively(Server server, ExecutorService executor, List<FutureTask<Pipeline>> upstreams, List<MaterialRevision> outChanges) throws IOException {
         // Give up now if this material hasn't changed.
         if (!changed) {
             return;
@@ -103,18 +147,15 @@ public class MaterialRevision {
             // would mean to have multiple associated modifications with
             // isPipeline is true, so we walk all of them just to be on the
             // safe side.
-            for (Modification m : modifications) {
+            for (int i = 0; i < modifications.size(); i++) {
+                Modification m = modifications.get(i);
             	LOG.info("modification " + m.revision + m.summarizeComment());
-                // Parse out the pipeline info.
-                Matcher matcher = PIPELINE_REVISION_PATTERN.matcher(m.revision);
                 LOG.info("modification revision " + m.revision);
-                if (matcher.matches()) {
-                    String pipelineName = matcher.group(1);
-                    int pipelineCounter = Integer.parseInt(matcher.group(2));
-
+                FutureTask<Pipeline> upstream = upstreams.get(i);
+                if (upstream != null) {
                     // Fetch the pipeline and walk it recursively.
-                    Pipeline pipeline = server.getPipelineInstance(pipelineName, pipelineCounter);
-                    pipeline.addChangesRecursively(server, outChanges);
+                    Pipeline pipeline = await(upstream);
+                    pipeline.addChangesRecursively(server, executor, outChanges);
                 } else {
                     LOG.error("Error matching pipeline revision: " + m.revision);
                 }
@@ -122,6 +163,25 @@ public class MaterialRevision {
         }
     }
 
+    private static Pipeline await(FutureTask<Pipeline> fetch) throws IOException {
+        // does nothing if it already ran on the executor
+        fetch.run();
+        try {
+            return fetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching an upstream pipeline");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
     // Override hashCode and equals with implementations generated by
     // Eclipse so we can compare MaterialRevision objects using (for
     // example) list.contains(mr).
@@ -5,6 +5,8 @@ import com.google.gson.annotations.SerializedName;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 
 public class Pipeline {
     @SerializedName("id")
@@ -40,14 +42,29 @@ public class Pipeline {
      * "Pipeline" objects recursively instead of including them directly.
      */
     public List<MaterialRevision> rootChanges(Server server) throws IOException {
+        return rootChanges(server, null);
+    }
+
+    /**
+     * Same as {@link #rootChanges(Server)}, with the upstream pipelines fetched in parallel on the executor. The
+     * changes come out in the same order.
+     *
+     * @param executor null to fetch the upstream pipelines one after another on the calling thread
+     */
+    public List<MaterialRevision> rootChanges(Server server, ExecutorService executor) throws IOException {
         List result = new ArrayList();
-        addChangesRecursively(server, result);
+        addChangesRecursively(server, executor, result);
         return result;
     }
 
-    void addChangesRecursively(Server server, List<MaterialRevision> outChanges) throws IOException {
+    void addChangesRecursively(Server server, ExecutorService executor, List<MaterialRevision> outChanges) throws IOException {
+        // start fetching every upstream pipeline of this one before walking them in order
+        List<List<FutureTask<Pipeline>>> upstreams = new ArrayList<>();
         for (MaterialRevision mr : buildCause.materialRevisions) {
-            mr.addChangesRecursively(server, outChanges);
+            upstreams.add(mr.fetchUpstreams(server, executor));
+        }
+        for (int i = 0; i < buildCause.materialRevisions.length; i++) {
+            buildCause.materialRevisions[i].addChangesRecursively(server, executor, upstreams.get(i), outChanges);
         }
     }
 
@@ -0,0 +1,228 @@
+package in.ashwanthkumar.gocd.slack.jsonapi;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the pipeline instances fetched from the GoCD servers on disk, so after a restart the upstream pipelines of
+ * a notification don't all have to be fetched again. We only read the build cause of an instance, which never
+ * changes, so an instance is never fetched again once it's here.
+ *
+ * Every instance is a small gzipped JSON file, named after a hash of the server, the pipeline and the counter. The
+ * least recently used ones are deleted once the files add up to more than the size limit. A file's modification
+ * time is when it was last used, so that order survives restarts. Files of another format version are ignored and
+ * deleted.
+ */
+public class PipelineInstanceCache {
+    private static Logger LOG = Logger.getLoggerFor(PipelineInstanceCache.class);
+
+    // Bump this whenever the shape of the files changes incompatibly.
+    static final int FORMAT_VERSION = 1;
+    public static final String DIRECTORY_NAME = "pipeline-instances";
+    private static final String SUFFIX = ".json.gz";
+    // once over the limit, delete down to this much of it, so we don't compact on every new instance
+    private static final double COMPACT_TO = 0.9;
+    private static final long STALE_TEMP_FILE_MILLIS = 60 * 1000;
+
+    private final File directory;
+    private volatile long maxBytes;
+    // file name -> size, least recently used first
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private boolean loaded;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public PipelineInstanceCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        synchronized (this) {
+            if (loaded) {
+                compact();
+            }
+        }
+    }
+
+    /**
+     * @return the instance as the server sent it, null if it isn't cached
+     */
+    public JsonElement get(String server, String pipeline, int counter) {
+        if (maxBytes <= 0) {
+            return null;
+        }
+        String name = fileName(server, pipeline, counter);
+        synchronized (this) {
+            load();
+            if (files.get(name) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        File file = new File(directory, name);
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            JsonObject entry = new JsonParser().parse(new InputStreamReader(in, StandardCharsets.UTF_8)).getAsJsonObject();
+            if (entry.get("version").getAsInt() == FORMAT_VERSION
+                    && server.equals(entry.get("server").getAsString())
+                    && pipeline.equals(entry.get("pipeline").getAsString())
+                    && counter == entry.get("counter").getAsInt()) {
+                file.setLastModified(System.currentTimeMillis());
+                hits.incrementAndGet();
+                return entry.get("instance");
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Ignoring unreadable cached pipeline instance " + file.getAbsolutePath(), e);
+        }
+        forget(name);
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Keep the instance as the server sent it. Failures are only logged, the cache is an optimisation and never a
+     * requirement.
+     */
+    public void put(String server, String pipeline, int counter, JsonElement instance) {
+        if (maxBytes <= 0 || instance == null) {
+            return;
+        }
+        JsonObject entry = new JsonObject();
+        entry.addProperty("version", FORMAT_VERSION);
+        entry.addProperty("server", server);
+        entry.addProperty("pipeline", pipeline);
+        entry.addProperty("counter", counter);
+        entry.add("instance", instance);
+
+        String name = fileName(server, pipeline, counter);
+        File file = new File(directory, name);
+        try {
+            FileUtils.forceMkdir(directory);
+            // write to a temp file first so a crash half way through never leaves a corrupt file behind
+            File tempFile = File.createTempFile(name, ".tmp", directory);
+            try (OutputStream out = new GZIPOutputStream(new FileOutputStream(tempFile))) {
+                IOUtils.write(entry.toString(), out, StandardCharsets.UTF_8);
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Unable to cache pipeline instance to " + file.getAbsolutePath(), e);
+            return;
+        }
+        synchronized (this) {
+            load();
+            Long previous = files.put(name, file.length());
+            totalBytes += file.length() - (previous == null ? 0 : previous);
+            compact();
+        }
+    }
+
+    public synchronized int getSize() {
+        load();
+        return files.size();
+    }
+
+    public synchronized long getBytes() {
+        load();
+        return totalBytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private synchronized void forget(String name) {
+        Long size = files.remove(name);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        FileUtils.deleteQuietly(new File(directory, name));
+    }
+
+    // what's on disk from earlier runs, least recently used first
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File[] existing = directory.listFiles();
+        if (existing == null) {
+            return;
+        }
+        Arrays.sort(existing, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : existing) {
+            if (file.getName().endsWith(SUFFIX)) {
+                files.put(file.getName(), file.length());
+                totalBytes += file.length();
+            } else if (file.lastModified() < System.currentTimeMillis() - STALE_TEMP_FILE_MILLIS) {
+                // left behind by a crash while writing
+                FileUtils.deleteQuietly(file);
+            }
+        }
+        LOG.info(String.format("Found %d cached pipeline instances, %d bytes, in %s", files.size(), totalBytes, directory.getAbsolutePath()));
+        compact();
+    }
+
+    private void compact() {
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+        long target = (long) (maxBytes * COMPACT_TO);
+        Iterator<Map.Entry<String, Long>> eldest = files.entrySet().iterator();
+        while (totalBytes > target && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            totalBytes -= entry.getValue();
+            FileUtils.deleteQuietly(new File(directory, entry.getKey()));
+            eldest.remove();
+        }
+    }
+
+    static String fileName(String server, String pipeline, int counter) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1")
+                    .digest((server + "\n" + pipeline + "\n" + counter).getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return name.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -2,6 +2,8 @@ package in.ashwanthkumar.gocd.slack.jsonapi;
 
 import com.google.gson.JsonElement;
 import com.thoughtworks.go.plugin.api.logging.Logger;
+import in.ashwanthkumar.gocd.slack.ExecutorFactory;
+import in.ashwanthkumar.gocd.slack.ruleset.GoServerSettings;
 import in.ashwanthkumar.gocd.slack.ruleset.Rules;
 
 import javax.xml.bind.DatatypeConverter;
@@ -10,30 +12,150 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
 import static in.ashwanthkumar.utils.lang.StringUtils.isNotEmpty;
 
 /**
  * Actual methods for contacting the remote server.
+ *
+ * A server stands for one of the GoCD server profiles of the rules, the default one unless named. It lets only so
+ * many calls be in flight at once, fewer while the server is slower than usual, and gives up on the ones that wait
+ * too long, so a slow server ties up a few of our threads rather than all of them. With <code>hedge</code> set, a
+ * call that takes unusually long is sent a second time, see {@link HedgePolicy}.
  */
 public class Server {
 	private Logger LOG = Logger.getLoggerFor(Server.class);
+	// instances a server remembers, we only read their build cause, which never changes
+	static final int CACHED_INSTANCES = 256;
 
 	// Contains authentication credentials, etc.
-	private Rules mRules;
+	private volatile Rules mRules;
 	private HttpConnectionUtil httpConnectionUtil;
+	// the server profile, null for the default server
+	private final String profile;
+	private final ConcurrencyLimiter limiter;
+	private final HedgePolicy hedging = new HedgePolicy();
+	// kept across restarts, shared by all the servers
+	private volatile PipelineInstanceCache instanceCache;
+	private final AtomicLong timedOut = new AtomicLong();
+	private final Map<String, Pipeline> instances = new LinkedHashMap<String, Pipeline>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Pipeline> eldest) {
+			return size() > CACHED_INSTANCES;
+		}
+	};
 
 	/**
 	 * Construct a new server object, using credentials from Rules.
 	 */
 	public Server(Rules rules) {
-		mRules = rules;
-		httpConnectionUtil = new HttpConnectionUtil();
+		this(rules, null, new HttpConnectionUtil());
+	}
+
+	/**
+	 * Construct a server object for one of the server profiles of the rules.
+	 */
+	public Server(Rules rules, String profile) {
+		this(rules, profile, new HttpConnectionUtil());
 	}
 
 	Server(Rules mRules, HttpConnectionUtil httpConnectionUtil) {
+		this(mRules, null, httpConnectionUtil);
+	}
+
+	Server(Rules mRules, String profile, HttpConnectionUtil httpConnectionUtil) {
 		this.mRules = mRules;
+		this.profile = profile;
 		this.httpConnectionUtil = httpConnectionUtil;
+		this.limiter = new ConcurrencyLimiter(settings().getMaxConcurrentRequests());
+	}
+
+	/**
+	 * @return where this server is and how to log in, read from the rules every time
+	 */
+	public GoServerSettings settings() {
+		return mRules.getGoServer(profile);
+	}
+
+	public String getName() {
+		return settings().getName();
+	}
+
+	Rules getRules() {
+		return mRules;
+	}
+
+	/**
+	 * Follow reloaded rules, keeping what was learned about the server so far. The in-memory instances are only
+	 * dropped if the API now points somewhere else.
+	 */
+	void setRules(Rules rules) {
+		String apiServerHost = settings().getApiServerHost();
+		mRules = rules;
+		limiter.setMaxLimit(settings().getMaxConcurrentRequests());
+		if (!Objects.equals(apiServerHost, settings().getApiServerHost())) {
+			synchronized (instances) {
+				instances.clear();
+			}
+		}
+	}
+
+	void setInstanceCache(PipelineInstanceCache instanceCache) {
+		this.instanceCache = instanceCache;
+	}
+
+	public int getMaxConcurrentRequests() {
+		return limiter.getMaxLimit();
+	}
+
+	public int getInFlight() {
+		return limiter.getInFlight();
+	}
+
+	/**
+	 * @return how many calls may be in flight right now, see {@link ConcurrencyLimiter}
+	 */
+	public int getConcurrencyLimit() {
+		return limiter.getLimit();
+	}
+
+	/**
+	 * @return how many calls gave up waiting for their turn
+	 */
+	public long getTimedOut() {
+		return timedOut.get();
+	}
+
+	/**
+	 * @return how many calls were sent a second time, see {@link HedgePolicy}
+	 */
+	public long getHedged() {
+		return hedging.getHedged();
+	}
+
+	/**
+	 * @return how many of those were answered first the second time
+	 */
+	public long getHedgesWon() {
+		return hedging.getWon();
+	}
+
+	public int getCachedInstances() {
+		synchronized (instances) {
+			return instances.size();
+		}
 	}
 
 	JsonElement getUrl(URL url) throws IOException {
@@ -43,36 +165,202 @@ public class Server {
 		} catch (URISyntaxException e) {
 			throw new RuntimeException(e);
 		}
-		LOG.info("Fetching " + normalizedUrl.toString());
-
-        HttpURLConnection request = httpConnectionUtil.getConnection(normalizedUrl);
-        // @since 20.1.0
-        request.setRequestProperty("Accept", "application/vnd.go.cd.v1+json");
-        request.setRequestProperty("User-Agent", "plugin/slack.notifier");
-
-        // Add in our HTTP authorization credentials if we have them.
-        // Favor the API Token over username/password
-        String authHeader = null;
-        if (isNotEmpty(mRules.getGoAPIToken())) {
-            authHeader = "Bearer " + mRules.getGoAPIToken();
-        } else if (isNotEmpty(mRules.getGoLogin()) && isNotEmpty(mRules.getGoPassword())) {
-            String userpass = mRules.getGoLogin() + ":" + mRules.getGoPassword();
-            authHeader = "Basic " + DatatypeConverter.printBase64Binary(userpass.getBytes());
-        }
-        if (authHeader != null) {
-            request.setRequestProperty("Authorization", authHeader);
-        }
+		GoServerSettings settings = settings();
+		if (settings.getHedgePercentile() > 0) {
+			return getHedged(normalizedUrl, settings);
+		}
+		acquire(settings);
+		return fetch(normalizedUrl, settings, new Call());
+	}
+
+	/**
+	 * Make the call on a thread of its own, and if it's still out after the hedge percentile of the recent calls,
+	 * make it a second time. Whichever answers first wins, the other one is cancelled. There's no second call if the
+	 * budget is spent or the server is already at its concurrency limit.
+	 */
+	private JsonElement getHedged(final URL url, final GoServerSettings settings) throws IOException {
+		hedging.onCall(settings.getHedgeBudget());
+		long delayMillis = hedging.delayMillis(settings.getHedgePercentile());
+		ExecutorService executor = ExecutorFactory.hedgeExecutor(mRules);
+		acquire(settings);
+		final Call first = new Call();
+		final CompletableFuture<JsonElement> firstResponse = callAsync(url, settings, first, executor);
+		if (delayMillis < 0) {
+			return await(firstResponse, first, null);
+		}
+		try {
+			return firstResponse.get(delayMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			// too slow, see below
+		} catch (InterruptedException e) {
+			first.cancel();
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for " + url, e);
+		} catch (ExecutionException e) {
+			throw asIOException(e.getCause());
+		}
+		if (!limiter.tryAcquire()) {
+			return await(firstResponse, first, null);
+		}
+		if (!hedging.tryHedge()) {
+			limiter.releaseUnused();
+			return await(firstResponse, first, null);
+		}
+		LOG.info(String.format("%s is slower than %dms, calling it again", url, delayMillis));
+		final Call second = new Call();
+		final CompletableFuture<JsonElement> secondResponse = callAsync(url, settings, second, executor);
+
+		final CompletableFuture<JsonElement> winner = new CompletableFuture<>();
+		final AtomicInteger failed = new AtomicInteger();
+		BiConsumer<JsonElement, Throwable> firstToAnswer = new BiConsumer<JsonElement, Throwable>() {
+			@Override
+			public void accept(JsonElement json, Throwable error) {
+				if (error == null) {
+					winner.complete(json);
+				} else if (failed.incrementAndGet() == 2) {
+					winner.completeExceptionally(error);
+				}
+			}
+		};
+		firstResponse.whenComplete(firstToAnswer);
+		secondResponse.whenComplete(firstToAnswer);
+		JsonElement json = await(winner, first, second);
+		if (!firstResponse.isDone()) {
+			first.cancel();
+		}
+		if (!secondResponse.isDone()) {
+			second.cancel();
+		} else if (!firstResponse.isDone() || firstResponse.isCompletedExceptionally()) {
+			hedging.onHedgeWon();
+		}
+		return json;
+	}
+
+	private CompletableFuture<JsonElement> callAsync(final URL url, final GoServerSettings settings, final Call call, ExecutorService executor) {
+		final CompletableFuture<JsonElement> response = new CompletableFuture<>();
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					response.complete(fetch(url, settings, call));
+				} catch (Throwable e) {
+					response.completeExceptionally(e);
+				}
+			}
+		};
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			// the executor was replaced after a reload, or the plugin is shutting down
+			task.run();
+		}
+		return response;
+	}
+
+	private static JsonElement await(CompletableFuture<JsonElement> response, Call first, Call second) throws IOException {
+		try {
+			return response.get();
+		} catch (InterruptedException e) {
+			first.cancel();
+			if (second != null) {
+				second.cancel();
+			}
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the GoCD server", e);
+		} catch (ExecutionException e) {
+			throw asIOException(e.getCause());
+		}
+	}
+
+	private static IOException asIOException(Throwable e) {
+		if (e instanceof IOException) {
+			return (IOException) e;
+		}
+		if (e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		}
+		return new IOException(e);
+	}
+
+	/**
+	 * Make the call, once we were let through the concurrency limit.
+	 */
+	private JsonElement fetch(URL normalizedUrl, GoServerSettings settings, Call call) throws IOException {
+		long startedAt = System.nanoTime();
+		try {
+			LOG.info("Fetching " + normalizedUrl.toString());
+
+			HttpURLConnection request = httpConnectionUtil.getConnection(normalizedUrl);
+			call.started(request);
+			// @since 20.1.0
+			request.setRequestProperty("Accept", "application/vnd.go.cd.v1+json");
+			request.setRequestProperty("User-Agent", "plugin/slack.notifier");
+			request.setConnectTimeout((int) settings.getTimeoutMillis());
+			request.setReadTimeout((int) settings.getTimeoutMillis());
+
+			// Add in our HTTP authorization credentials if we have them.
+			// Favor the API Token over username/password
+			String authHeader = null;
+			if (isNotEmpty(settings.getApiToken())) {
+				authHeader = "Bearer " + settings.getApiToken();
+			} else if (isNotEmpty(settings.getLogin()) && isNotEmpty(settings.getPassword())) {
+				String userpass = settings.getLogin() + ":" + settings.getPassword();
+				authHeader = "Basic " + DatatypeConverter.printBase64Binary(userpass.getBytes());
+			}
+			if (authHeader != null) {
+				request.setRequestProperty("Authorization", authHeader);
+			}
+
+			request.connect();
+
+			JsonElement json = httpConnectionUtil.responseToJson(request.getContent());
+			hedging.record(System.nanoTime() - startedAt);
+			return json;
+		} finally {
+			limiter.release(System.nanoTime() - startedAt);
+		}
+	}
 
-		request.connect();
+	private void acquire(GoServerSettings settings) throws IOException {
+		try {
+			if (!limiter.acquire(settings.getTimeoutMillis())) {
+				timedOut.incrementAndGet();
+				throw new IOException(String.format("Server %s is busy with %d calls, gave up after %dms",
+						settings.getName(), limiter.getLimit(), settings.getTimeoutMillis()));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for server " + settings.getName(), e);
+		}
+	}
+
+	/**
+	 * A call in flight, which can be cancelled from another thread by closing its connection.
+	 */
+	private static class Call {
+		private HttpURLConnection connection;
+		private boolean cancelled;
 
-		return httpConnectionUtil.responseToJson(request.getContent());
+		synchronized void started(HttpURLConnection connection) throws IOException {
+			if (cancelled) {
+				throw new IOException("Cancelled, another call answered first");
+			}
+			this.connection = connection;
+		}
+
+		synchronized void cancel() {
+			cancelled = true;
+			if (connection != null) {
+				connection.disconnect();
+			}
+		}
 	}
 
 	/**
 	 * Get the recent history of a pipeline.
 	 */
 	public History getPipelineHistory(String pipelineName) throws IOException {
-		URL url = new URL(String.format("%s/go/api/pipelines/%s/history", mRules.getGoAPIServerHost(), pipelineName));
+		URL url = new URL(String.format("%s/go/api/pipelines/%s/history", settings().getApiServerHost(), pipelineName));
 		JsonElement json = getUrl(url);
 		return httpConnectionUtil.convertResponse(json, History.class);
 	}
@@ -82,9 +370,30 @@ public class Server {
      */
     public Pipeline getPipelineInstance(String pipelineName, int pipelineCounter)
             throws MalformedURLException, IOException {
-        URL url = new URL(String.format("%s/go/api/pipelines/%s/%d",
-                mRules.getGoAPIServerHost(), pipelineName, pipelineCounter));
-        JsonElement json = getUrl(url);
-        return httpConnectionUtil.convertResponse(json, Pipeline.class);
+        String key = pipelineName + "/" + pipelineCounter;
+        synchronized (instances) {
+            Pipeline cached = instances.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        String apiServerHost = settings().getApiServerHost();
+        PipelineInstanceCache onDisk = instanceCache;
+        JsonElement json = onDisk == null ? null : onDisk.get(apiServerHost, pipelineName, pipelineCounter);
+        if (json == null) {
+            URL url = new URL(String.format("%s/go/api/pipelines/%s/%d",
+                    apiServerHost, pipelineName, pipelineCounter));
+            json = getUrl(url);
+            if (onDisk != null) {
+                onDisk.put(apiServerHost, pipelineName, pipelineCounter, json);
+            }
+        }
+        Pipeline instance = httpConnectionUtil.convertResponse(json, Pipeline.class);
+        if (instance != null) {
+            synchronized (instances) {
+                instances.put(key, instance);
+            }
+        }
+        return instance;
     }
 }
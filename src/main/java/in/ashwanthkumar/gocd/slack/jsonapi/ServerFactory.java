@@ -1,10 +1,111 @@
 package in.ashwanthkumar.gocd.slack.jsonapi;
 
+import in.ashwanthkumar.gocd.slack.ruleset.GoServerSettings;
 import in.ashwanthkumar.gocd.slack.ruleset.Rules;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
 public class ServerFactory {
+    // one per server profile, shared by every notification so their limits and caches hold across them
+    private static final Map<String, Server> servers = new LinkedHashMap<>();
+    private static PipelineInstanceCache instanceCache;
+    // the rules the servers follow, the latest ones asked for
+    private static Rules currentRules;
+    // rules that were replaced, a late notification of theirs mustn't take the servers back to them
+    private static final Set<Rules> replacedRules = Collections.newSetFromMap(new WeakHashMap<Rules, Boolean>());
 
+    /**
+     * @return the default server of the rules
+     */
     public Server getServer(Rules rules) {
-        return new Server(rules);
+        return serverFor(rules, rules.getGoServer(null));
+    }
+
+    /**
+     * @return the server the pipeline lives on, see {@link Rules#goServerFor(String, String)}
+     */
+    public Server getServer(Rules rules, String pipelineName, String pipelineGroup) {
+        return serverFor(rules, rules.goServerFor(pipelineName, pipelineGroup));
+    }
+
+    /**
+     * @return the servers in use, for the stats
+     */
+    public static List<Server> getServers() {
+        synchronized (servers) {
+            return new ArrayList<>(servers.values());
+        }
+    }
+
+    /**
+     * Keep the pipeline instances fetched by every server in this cache, see {@link PipelineInstanceCache}.
+     */
+    public static void setInstanceCache(PipelineInstanceCache cache) {
+        synchronized (servers) {
+            instanceCache = cache;
+            for (Server server : servers.values()) {
+                server.setInstanceCache(cache);
+            }
+        }
+    }
+
+    /**
+     * @return the cache of pipeline instances on disk, null if there's none
+     */
+    public static PipelineInstanceCache getInstanceCache() {
+        synchronized (servers) {
+            return instanceCache;
+        }
+    }
+
+    private static Server serverFor(Rules rules, GoServerSettings settings) {
+        synchronized (servers) {
+            if (rules != currentRules && !replacedRules.contains(rules)) {
+                followRules(rules);
+            }
+            Server server = servers.get(settings.getName());
+            if (server == null) {
+                String profile = rules.getGoServers().containsKey(settings.getName()) ? settings.getName() : null;
+                server = new Server(rules, profile);
+                if (instanceCache != null) {
+                    server.setInstanceCache(instanceCache);
+                }
+                // a profile only the replaced rules have gets a server of its own, just for them
+                if (rules == currentRules) {
+                    servers.put(settings.getName(), server);
+                }
+            }
+            return server;
+        }
+    }
+
+    /**
+     * Reloaded rules: the servers of the profiles they still have keep their limits and caches and take on the
+     * new settings, the servers of the profiles they no longer have are dropped.
+     */
+    private static void followRules(Rules rules) {
+        if (currentRules != null) {
+            replacedRules.add(currentRules);
+        }
+        currentRules = rules;
+        if (instanceCache != null) {
+            instanceCache.setMaxBytes(rules.getInstanceCacheMaxBytes());
+        }
+        Iterator<Map.Entry<String, Server>> entries = servers.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Server> entry = entries.next();
+            if (GoServerSettings.DEFAULT.equals(entry.getKey()) || rules.getGoServers().containsKey(entry.getKey())) {
+                entry.getValue().setRules(rules);
+            } else {
+                entries.remove();
+            }
+        }
     }
 }
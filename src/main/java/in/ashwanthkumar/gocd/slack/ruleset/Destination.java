@@ -0,0 +1,53 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import in.ashwanthkumar.utils.lang.StringUtils;
+
+import java.util.Objects;
+
+/**
+ * Where a rule's notifications actually end up: the rule's webhook and channel, falling back to the global ones.
+ */
+public class Destination {
+    private final String webhookUrl;
+    private final String channel;
+
+    public Destination(String webhookUrl, String channel) {
+        this.webhookUrl = webhookUrl;
+        this.channel = channel;
+    }
+
+    public static Destination of(PipelineRule rule, Rules rules) {
+        String webhookUrl = StringUtils.isNotEmpty(rule.getWebhookUrl()) ? rule.getWebhookUrl() : rules.getWebHookUrl();
+        String channel = StringUtils.isNotEmpty(rule.getChannel()) ? rule.getChannel() : rules.getSlackChannel();
+        return new Destination(webhookUrl, channel);
+    }
+
+    public String getWebhookUrl() {
+        return webhookUrl;
+    }
+
+    /**
+     * @return <code>#channel</code>, <code>@user</code> or null to post wherever the webhook is configured to
+     */
+    public String getChannel() {
+        return channel;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Destination that = (Destination) o;
+        return Objects.equals(webhookUrl, that.webhookUrl) && Objects.equals(channel, that.channel);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(webhookUrl, channel);
+    }
+
+    @Override
+    public String toString() {
+        return (channel == null ? "(webhook default)" : channel) + " via " + webhookUrl;
+    }
+}
@@ -0,0 +1,266 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.typesafe.config.Config;
+import in.ashwanthkumar.utils.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * A GoCD server we fetch pipelines from: where it is, how to log in, and how much we ask of it at once. Besides
+ * the default one, configured at the top level, named profiles under <code>servers</code> are picked by pipeline
+ * group, or by the <code>server</code> of a pipeline rule.
+ */
+public class GoServerSettings {
+    private static Logger LOGGER = Logger.getLoggerFor(GoServerSettings.class);
+
+    public static final String DEFAULT = "default";
+    static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+    static final long DEFAULT_TIMEOUT_MILLIS = 30 * 1000;
+    static final double DEFAULT_HEDGE_BUDGET = 0.05;
+
+    private String name;
+    private String serverHost;
+    private String apiServerHost;
+    private String login;
+    private String password;
+    private String apiToken;
+    private List<String> groups = new ArrayList<>();
+    private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+    private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private int hedgePercentile;
+    private double hedgeBudget = DEFAULT_HEDGE_BUDGET;
+
+    public GoServerSettings(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getServerHost() {
+        return serverHost;
+    }
+
+    public GoServerSettings setServerHost(String serverHost) {
+        this.serverHost = serverHost;
+        return this;
+    }
+
+    /**
+     * @return where the API is called, the server host unless set
+     */
+    public String getApiServerHost() {
+        if (StringUtils.isNotEmpty(apiServerHost)) {
+            return apiServerHost;
+        }
+        return serverHost;
+    }
+
+    public GoServerSettings setApiServerHost(String apiServerHost) {
+        this.apiServerHost = apiServerHost;
+        return this;
+    }
+
+    public String getLogin() {
+        return login;
+    }
+
+    public GoServerSettings setLogin(String login) {
+        this.login = login;
+        return this;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public GoServerSettings setPassword(String password) {
+        this.password = password;
+        return this;
+    }
+
+    public String getApiToken() {
+        return apiToken;
+    }
+
+    public GoServerSettings setApiToken(String apiToken) {
+        this.apiToken = apiToken;
+        return this;
+    }
+
+    /**
+     * @return regexes of the pipeline groups that live on this server
+     */
+    public List<String> getGroups() {
+        return groups;
+    }
+
+    public GoServerSettings setGroups(List<String> groups) {
+        this.groups = groups;
+        return this;
+    }
+
+    public boolean hasGroup(String group) {
+        return hasGroup(group, 0);
+    }
+
+    /**
+     * Same as {@link #hasGroup(String)} but gives up on any regex that takes longer than timeoutMillis to
+     * evaluate, which then doesn't match.
+     */
+    public boolean hasGroup(String group, long timeoutMillis) {
+        if (group == null) {
+            return false;
+        }
+        for (String regex : groups) {
+            try {
+                if (TimeLimitedMatcher.matches(Pattern.compile(regex), group, timeoutMillis)) {
+                    return true;
+                }
+            } catch (TimeLimitedMatcher.RegexTimeoutException e) {
+                LOGGER.error(String.format("Group regex %s of server %s took more than %d ms to match %s", regex, name, timeoutMillis, group), e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return how many API calls may be in flight to this server at once
+     */
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public GoServerSettings setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        return this;
+    }
+
+    /**
+     * @return how long an API call may wait for its turn, to connect, and for the response
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public GoServerSettings setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * @return the percentile of the recent response times after which a call is sent a second time, 0 to never
+     */
+    public int getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public GoServerSettings setHedgePercentile(int hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+        return this;
+    }
+
+    /**
+     * @return at most which fraction of the calls is sent a second time
+     */
+    public double getHedgeBudget() {
+        return hedgeBudget;
+    }
+
+    public GoServerSettings setHedgeBudget(double hedgeBudget) {
+        this.hedgeBudget = hedgeBudget;
+        return this;
+    }
+
+    public static GoServerSettings fromConfig(String name, Config config) {
+        GoServerSettings settings = new GoServerSettings(name)
+                .setServerHost(config.getString("server-host"));
+        if (config.hasPath("api-server-host")) {
+            settings.setApiServerHost(config.getString("api-server-host"));
+        }
+        if (config.hasPath("login")) {
+            settings.setLogin(config.getString("login"));
+        }
+        if (config.hasPath("password")) {
+            settings.setPassword(config.getString("password"));
+        }
+        if (config.hasPath("api-token")) {
+            settings.setApiToken(config.getString("api-token"));
+        }
+        if (config.hasPath("groups")) {
+            for (String regex : config.getStringList("groups")) {
+                settings.getGroups().add(PipelineRule.checkedRegex(config, "groups", regex));
+            }
+        }
+        if (config.hasPath("max-concurrent-requests")) {
+            settings.setMaxConcurrentRequests(config.getInt("max-concurrent-requests"));
+        }
+        if (config.hasPath("api-timeout")) {
+            settings.setTimeoutMillis(config.getDuration("api-timeout", TimeUnit.MILLISECONDS));
+        }
+        if (config.hasPath("hedge")) {
+            Config hedgeConfig = config.getConfig("hedge");
+            settings.setHedgePercentile(hedgeConfig.getInt("percentile"));
+            if (hedgeConfig.hasPath("budget")) {
+                settings.setHedgeBudget(hedgeConfig.getDouble("budget"));
+            }
+        }
+        return settings;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        GoServerSettings that = (GoServerSettings) o;
+
+        if (maxConcurrentRequests != that.maxConcurrentRequests) return false;
+        if (timeoutMillis != that.timeoutMillis) return false;
+        if (hedgePercentile != that.hedgePercentile) return false;
+        if (Double.compare(hedgeBudget, that.hedgeBudget) != 0) return false;
+        if (!Objects.equals(name, that.name)) return false;
+        if (!Objects.equals(serverHost, that.serverHost)) return false;
+        if (!Objects.equals(apiServerHost, that.apiServerHost)) return false;
+        if (!Objects.equals(login, that.login)) return false;
+        if (!Objects.equals(password, that.password)) return false;
+        if (!Objects.equals(apiToken, that.apiToken)) return false;
+        return Objects.equals(groups, that.groups);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hashCode(name);
+        result = 31 * result + Objects.hashCode(serverHost);
+        result = 31 * result + Objects.hashCode(apiServerHost);
+        result = 31 * result + Objects.hashCode(login);
+        result = 31 * result + Objects.hashCode(password);
+        result = 31 * result + Objects.hashCode(apiToken);
+        result = 31 * result + Objects.hashCode(groups);
+        result = 31 * result + maxConcurrentRequests;
+        result = 31 * result + (int) (timeoutMillis ^ (timeoutMillis >>> 32));
+        result = 31 * result + hedgePercentile;
+        result = 31 * result + Double.hashCode(hedgeBudget);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        // no credentials in the logs
+        return "GoServerSettings{" +
+                "name='" + name + '\'' +
+                ", serverHost='" + serverHost + '\'' +
+                ", apiServerHost='" + apiServerHost + '\'' +
+                ", groups=" + groups +
+                ", maxConcurrentRequests=" + maxConcurrentRequests +
+                ", timeoutMillis=" + timeoutMillis +
+                (hedgePercentile == 0 ? "" : ", hedgePercentile=" + hedgePercentile + ", hedgeBudget=" + hedgeBudget) +
+                '}';
+    }
+}
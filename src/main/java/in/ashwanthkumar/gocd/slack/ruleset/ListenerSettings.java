@@ -0,0 +1,86 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import com.typesafe.config.Config;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One of the <code>listeners</code> notifications are sent to, along with the bulkhead it runs in: its own threads,
+ * its own queue and how long a notification is given to get through it.
+ */
+public class ListenerSettings {
+    static final int DEFAULT_THREADS = 1;
+    static final int DEFAULT_QUEUE_SIZE = 100;
+    static final long DEFAULT_TIMEOUT_MILLIS = 30 * 1000;
+
+    private String className;
+    private int threads = DEFAULT_THREADS;
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    public ListenerSettings(String className) {
+        this.className = className;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return the class name without its package, to tell listeners apart in logs and failures
+     */
+    public String getName() {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public ListenerSettings setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public ListenerSettings setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+        return this;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public ListenerSettings setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    public static ListenerSettings fromConfig(Config config) {
+        ListenerSettings settings = new ListenerSettings(config.getString("class"));
+        if (config.hasPath("threads")) {
+            settings.setThreads(config.getInt("threads"));
+        }
+        if (config.hasPath("queue-size")) {
+            settings.setQueueSize(config.getInt("queue-size"));
+        }
+        if (config.hasPath("timeout")) {
+            settings.setTimeoutMillis(config.getDuration("timeout", TimeUnit.MILLISECONDS));
+        }
+        return settings;
+    }
+
+    @Override
+    public String toString() {
+        return "ListenerSettings{" +
+                "className='" + className + '\'' +
+                ", threads=" + threads +
+                ", queueSize=" + queueSize +
+                ", timeoutMillis=" + timeoutMillis +
+                '}';
+    }
+}
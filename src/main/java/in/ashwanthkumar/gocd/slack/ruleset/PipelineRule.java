@@ -1,5 +1,6 @@
 package in.ashwanthkumar.gocd.slack.ruleset;
 
+import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.typesafe.config.Config;
 import in.ashwanthkumar.utils.collections.Iterables;
 import in.ashwanthkumar.utils.collections.Lists;
@@ -8,10 +9,13 @@ import in.ashwanthkumar.utils.func.Predicate;
 import in.ashwanthkumar.utils.lang.StringUtils;
 
 import java.util.*;
+import java.util.regex.Pattern;
 
 import static in.ashwanthkumar.utils.lang.StringUtils.isEmpty;
 
 public class PipelineRule {
+    private static Logger LOGGER = Logger.getLoggerFor(PipelineRule.class);
+
     private String nameRegex;
     private String stageRegex;
     private String groupRegex;
@@ -19,6 +23,18 @@ public class PipelineRule {
     private String webhookUrl;
     private Set<String> owners = new HashSet<>();
     private Set<PipelineStatus> status = new HashSet<>();
+    // statuses gathered into a periodic digest instead of being posted right away
+    private Set<PipelineStatus> digest = new HashSet<>();
+    // name of the GoCD server profile the matched pipelines are fetched from, null for the default one
+    private String server;
+
+    // compiled lazily from the regexes above, reset whenever they change
+    private transient volatile Pattern namePattern;
+    private transient volatile Pattern stagePattern;
+    private transient volatile Pattern groupPattern;
+    // set once a match against this rule exceeds the time limit, the rule is skipped from then on
+    private transient volatile boolean misbehaving;
+    private final transient RuleStats stats = new RuleStats();
 
     public PipelineRule() {
     }
@@ -31,6 +47,8 @@ public class PipelineRule {
         this.status = copy.status;
         this.owners = copy.owners;
         this.webhookUrl = copy.webhookUrl;
+        this.digest = copy.digest;
+        this.server = copy.server;
     }
 
     public PipelineRule(String nameRegex, String stageRegex) {
@@ -44,6 +62,7 @@ public class PipelineRule {
 
     public PipelineRule setNameRegex(String nameRegex) {
         this.nameRegex = nameRegex;
+        this.namePattern = null;
         return this;
     }
 
@@ -53,6 +72,7 @@ public class PipelineRule {
 
     public PipelineRule setGroupRegex(String groupRegex) {
         this.groupRegex = groupRegex;
+        this.groupPattern = null;
         return this;
     }
 
@@ -62,6 +82,7 @@ public class PipelineRule {
 
     public PipelineRule setStageRegex(String stageRegex) {
         this.stageRegex = stageRegex;
+        this.stagePattern = null;
         return this;
     }
 
@@ -102,14 +123,104 @@ public class PipelineRule {
     }
 
     public boolean matches(String pipeline, String stage, String group, final String pipelineState) {
-        return pipeline.matches(nameRegex)
-                && stage.matches(stageRegex)
-                && matchesGroup(group)
-                && Iterables.exists(status, hasStateMatching(pipelineState));
+        return matches(pipeline, stage, group, pipelineState, 0);
+    }
+
+    /**
+     * Same as {@link #matches(String, String, String, String)} but gives up on any regex that takes longer than
+     * timeoutMillis to evaluate, in which case the rule doesn't match and is marked as misbehaving.
+     */
+    public boolean matches(String pipeline, String stage, String group, final String pipelineState, long timeoutMillis) {
+        try {
+            return Iterables.exists(status, hasStateMatching(pipelineState))
+                    && TimeLimitedMatcher.matches(namePattern(), pipeline, timeoutMillis)
+                    && TimeLimitedMatcher.matches(stagePattern(), stage, timeoutMillis)
+                    && matchesGroup(group, timeoutMillis);
+        } catch (TimeLimitedMatcher.RegexTimeoutException e) {
+            misbehaving = true;
+            LOGGER.error(String.format("Rule %s took more than %d ms to match %s/%s/%s, ignoring it until the next reload", this, timeoutMillis, group, pipeline, stage), e);
+            return false;
+        }
+    }
+
+    public Set<PipelineStatus> getDigest() {
+        return digest;
+    }
+
+    public PipelineRule setDigest(Set<PipelineStatus> digest) {
+        this.digest = digest;
+        return this;
+    }
+
+    /**
+     * @return true if notifications with this status go into the digest rather than being posted right away
+     */
+    public boolean isDigested(PipelineStatus pipelineStatus) {
+        return Iterables.exists(digest, hasStateMatching(pipelineStatus.name()));
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    public PipelineRule setServer(String server) {
+        this.server = server;
+        return this;
+    }
+
+    /**
+     * @return true if the rule is about this pipeline, whatever its stage and status
+     */
+    public boolean matchesPipeline(String pipeline, String group) {
+        return matchesPipeline(pipeline, group, 0);
+    }
+
+    /**
+     * Same as {@link #matchesPipeline(String, String)} but gives up on any regex that takes longer than
+     * timeoutMillis to evaluate, in which case the rule doesn't match and is marked as misbehaving.
+     */
+    public boolean matchesPipeline(String pipeline, String group, long timeoutMillis) {
+        try {
+            return pipeline != null && TimeLimitedMatcher.matches(namePattern(), pipeline, timeoutMillis)
+                    && (StringUtils.isEmpty(groupRegex) || (group != null && TimeLimitedMatcher.matches(groupPattern(), group, timeoutMillis)));
+        } catch (TimeLimitedMatcher.RegexTimeoutException e) {
+            misbehaving = true;
+            LOGGER.error(String.format("Rule %s took more than %d ms to match %s/%s, ignoring it until the next reload", this, timeoutMillis, group, pipeline), e);
+            return false;
+        }
+    }
+
+    public boolean isMisbehaving() {
+        return misbehaving;
+    }
+
+    public RuleStats getStats() {
+        return stats;
     }
 
-    private boolean matchesGroup(String group) {
-        return StringUtils.isEmpty(groupRegex) || group.matches(groupRegex);
+    private boolean matchesGroup(String group, long timeoutMillis) {
+        return StringUtils.isEmpty(groupRegex) || TimeLimitedMatcher.matches(groupPattern(), group, timeoutMillis);
+    }
+
+    private Pattern namePattern() {
+        if (namePattern == null) {
+            namePattern = Pattern.compile(nameRegex);
+        }
+        return namePattern;
+    }
+
+    private Pattern stagePattern() {
+        if (stagePattern == null) {
+            stagePattern = Pattern.compile(stageRegex);
+        }
+        return stagePattern;
+    }
+
+    private Pattern groupPattern() {
+        if (groupPattern == null) {
+            groupPattern = Pattern.compile(groupRegex);
+        }
+        return groupPattern;
     }
 
     private Predicate<PipelineStatus> hasStateMatching(final String pipelineState) {
@@ -135,6 +246,8 @@ public class PipelineRule {
         if (status != null ? !status.equals(that.status) : that.status != null) return false;
         if (owners != null ? !owners.equals(that.owners) : that.owners != null) return false;
         if (webhookUrl != null ? !webhookUrl.equals(that.webhookUrl) : that.webhookUrl != null) return false;
+        if (digest != null ? !digest.equals(that.digest) : that.digest != null) return false;
+        if (server != null ? !server.equals(that.server) : that.server != null) return false;
 
         return true;
     }
@@ -148,6 +261,8 @@ public class PipelineRule {
         result = 31 * result + (status != null ? status.hashCode() : 0);
         result = 31 * result + (owners != null ? owners.hashCode() : 0);
         result = 31 * result + (webhookUrl != null ? webhookUrl.hashCode() : 0);
+        result = 31 * result + (digest != null ? digest.hashCode() : 0);
+        result = 31 * result + (server != null ? server.hashCode() : 0);
         return result;
     }
 
@@ -161,26 +276,25 @@ public class PipelineRule {
                 ", status=" + status +
                 ", owners=" + owners +
                 ", webhookUrl=" + webhookUrl +
+                (digest == null || digest.isEmpty() ? "" : ", digest=" + digest) +
+                (server == null ? "" : ", server=" + server) +
                 '}';
     }
 
     public static PipelineRule fromConfig(Config config) {
         PipelineRule pipelineRule = new PipelineRule();
-        pipelineRule.setNameRegex(config.getString("name"));
+        pipelineRule.setNameRegex(checkedRegex(config, "name"));
         if (config.hasPath("group")) {
-            pipelineRule.setGroupRegex(config.getString("group"));
+            pipelineRule.setGroupRegex(checkedRegex(config, "group"));
         }
         if (config.hasPath("stage")) {
-            pipelineRule.setStageRegex(config.getString("stage"));
+            pipelineRule.setStageRegex(checkedRegex(config, "stage"));
         }
         if (config.hasPath("state")) {
-            String stateT = config.getString("state");
-            String[] states = stateT.split("\\|");
-            Set<PipelineStatus> status = new HashSet<PipelineStatus>();
-            for (String state : states) {
-                status.add(PipelineStatus.valueOf(state.toUpperCase()));
-            }
-            pipelineRule.setStatus(status);
+            pipelineRule.setStatus(statuses(config.getString("state")));
+        }
+        if (config.hasPath("digest")) {
+            pipelineRule.setDigest(statuses(config.getString("digest")));
         }
         if (config.hasPath("channel")) {
             pipelineRule.setChannel(config.getString("channel"));
@@ -188,6 +302,9 @@ public class PipelineRule {
         if (config.hasPath("webhookUrl")) {
             pipelineRule.setWebhookUrl(config.getString("webhookUrl"));
         }
+        if (config.hasPath("server")) {
+            pipelineRule.setServer(config.getString("server"));
+        }
         if (config.hasPath("owners")) {
             List<String> nonEmptyOwners = Lists.filter(config.getStringList("owners"), new Predicate<String>() {
                 @Override
@@ -201,6 +318,41 @@ public class PipelineRule {
         return pipelineRule;
     }
 
+    private static Set<PipelineStatus> statuses(String stateT) {
+        String[] states = stateT.split("\\|");
+        Set<PipelineStatus> status = new HashSet<PipelineStatus>();
+        for (String state : states) {
+            status.add(PipelineStatus.valueOf(state.toUpperCase()));
+        }
+        return status;
+    }
+
+    /**
+     * Read a regex from the config, refusing the ones that are likely to backtrack catastrophically.
+     */
+    private static String checkedRegex(Config config, String path) {
+        return checkedRegex(config, path, config.getString(path));
+    }
+
+    /**
+     * Check a regex read from <code>path</code> of the config, refusing the ones that are likely to backtrack
+     * catastrophically.
+     */
+    static String checkedRegex(Config config, String path, String regex) {
+        switch (RegexSafety.assess(regex)) {
+            case REJECT:
+                throw new IllegalArgumentException(String.format("%s = \"%s\" at %s has nested quantifiers and can take exponential time to match, please rewrite it", path, regex, config.origin().description()));
+            case WARN:
+                LOGGER.warn(String.format("%s = \"%s\" at %s may backtrack a lot on some inputs", path, regex, config.origin().description()));
+                break;
+            default:
+                break;
+        }
+        // fail on invalid regexes while loading rather than on the first notification
+        Pattern.compile(regex);
+        return regex;
+    }
+
     public static PipelineRule fromConfig(Config config, String channel) {
         PipelineRule pipelineRule = fromConfig(config);
         if (StringUtils.isEmpty(pipelineRule.getChannel())) {
@@ -231,12 +383,20 @@ public class PipelineRule {
             ruleToReturn.setWebhookUrl(defaultRule.getWebhookUrl());
         }
 
+        if (isEmpty(pipelineRule.getServer())) {
+            ruleToReturn.setServer(defaultRule.getServer());
+        }
+
         if (pipelineRule.getStatus().isEmpty()) {
             ruleToReturn.setStatus(defaultRule.getStatus());
         } else {
             ruleToReturn.getStatus().addAll(pipelineRule.getStatus());
         }
 
+        if (pipelineRule.getDigest().isEmpty()) {
+            ruleToReturn.setDigest(defaultRule.getDigest());
+        }
+
         if (pipelineRule.getOwners().isEmpty()) {
             ruleToReturn.setOwners(defaultRule.getOwners());
         } else {
@@ -0,0 +1,145 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Cheap, conservative look at a regex to spot the shapes that are known to backtrack catastrophically.
+ * It's not a full regex parser, it only tracks groups, character classes, escapes and quantifiers.
+ */
+public class RegexSafety {
+
+    public enum Risk {
+        /**
+         * Nothing suspicious found.
+         */
+        NONE,
+        /**
+         * Might backtrack a lot on some inputs, like a repeated alternation <code>(a|ab)*</code> or <code>.*.*</code>.
+         */
+        WARN,
+        /**
+         * A repeated group with an unbounded quantifier inside, like <code>(a+)+</code> or <code>(.*a){12}</code>,
+         * exponential (or a high polynomial) on non matching input.
+         */
+        REJECT
+    }
+
+    private static class Group {
+        boolean hasUnboundedQuantifier;
+        boolean hasAlternation;
+    }
+
+    public static Risk assess(String regex) {
+        if (regex == null) {
+            return Risk.NONE;
+        }
+
+        Risk risk = Risk.NONE;
+        if (regex.contains(".*.*") || regex.contains(".+.+") || regex.contains(".*.+") || regex.contains(".+.*")) {
+            risk = Risk.WARN;
+        }
+
+        Deque<Group> enclosing = new ArrayDeque<>();
+        Group current = new Group();
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '[') {
+                i = skipCharacterClass(regex, i);
+            } else if (c == '(') {
+                enclosing.push(current);
+                current = new Group();
+                i++;
+            } else if (c == ')') {
+                Group closed = current;
+                current = enclosing.isEmpty() ? new Group() : enclosing.pop();
+                i++;
+                int length = quantifierLength(regex, i);
+                boolean unbounded = length > 0 && isUnbounded(regex, i);
+                if (length > 0 && repeats(regex, i) && closed.hasUnboundedQuantifier) {
+                    return Risk.REJECT;
+                }
+                if (unbounded && closed.hasAlternation) {
+                    risk = Risk.WARN;
+                }
+                current.hasUnboundedQuantifier |= unbounded || closed.hasUnboundedQuantifier;
+                i += length;
+            } else if (c == '|') {
+                current.hasAlternation = true;
+                i++;
+            } else {
+                int length = quantifierLength(regex, i);
+                if (length > 0) {
+                    current.hasUnboundedQuantifier |= isUnbounded(regex, i);
+                    i += length;
+                } else {
+                    i++;
+                }
+            }
+        }
+        return risk;
+    }
+
+    private static int skipCharacterClass(String regex, int start) {
+        int i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') i++;
+        if (i < regex.length() && regex.charAt(i) == ']') i++;
+        while (i < regex.length() && regex.charAt(i) != ']') {
+            i += regex.charAt(i) == '\\' ? 2 : 1;
+        }
+        return i + 1;
+    }
+
+    // length of the quantifier (including a lazy / possessive suffix) starting at i, 0 if there's none
+    private static int quantifierLength(String regex, int i) {
+        if (i >= regex.length()) {
+            return 0;
+        }
+        int length;
+        char c = regex.charAt(i);
+        if (c == '*' || c == '+' || c == '?') {
+            length = 1;
+        } else if (c == '{') {
+            int close = regex.indexOf('}', i);
+            if (close < 0) {
+                return 0;
+            }
+            length = close - i + 1;
+        } else {
+            return 0;
+        }
+        if (i + length < regex.length() && (regex.charAt(i + length) == '?' || regex.charAt(i + length) == '+')) {
+            length++;
+        }
+        return length;
+    }
+
+    // true if the quantifier at i allows the preceding atom more than once
+    private static boolean repeats(String regex, int i) {
+        if (regex.charAt(i) != '{') {
+            return regex.charAt(i) != '?';
+        }
+        String[] range = regex.substring(i + 1, regex.indexOf('}', i)).split(",", -1);
+        try {
+            String max = range[range.length - 1].trim();
+            return max.isEmpty() || Integer.parseInt(max) > 1;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean isUnbounded(String regex, int i) {
+        char c = regex.charAt(i);
+        if (c == '*' || c == '+') {
+            return true;
+        }
+        if (c == '{') {
+            String range = regex.substring(i + 1, regex.indexOf('}', i)).trim();
+            return range.endsWith(",");
+        }
+        return false;
+    }
+}
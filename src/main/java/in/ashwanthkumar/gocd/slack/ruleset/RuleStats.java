@@ -0,0 +1,32 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for how often a {@link PipelineRule} is evaluated, how often it matches and how long matching takes.
+ */
+public class RuleStats {
+    private final AtomicLong evaluations = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong matchNanos = new AtomicLong();
+
+    void record(boolean hit, long nanos) {
+        evaluations.incrementAndGet();
+        if (hit) {
+            hits.incrementAndGet();
+        }
+        matchNanos.addAndGet(nanos);
+    }
+
+    public long getEvaluations() {
+        return evaluations.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMatchNanos() {
+        return matchNanos.get();
+    }
+}
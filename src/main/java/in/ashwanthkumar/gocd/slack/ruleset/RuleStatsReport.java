@@ -0,0 +1,45 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the {@link RuleStats} of a list of rules, either as plain maps for a JSON dump or as a text table.
+ */
+public class RuleStatsReport {
+
+    public static List<Map<String, Object>> toMaps(List<PipelineRule> rules) {
+        List<Map<String, Object>> report = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            PipelineRule rule = rules.get(i);
+            RuleStats stats = rule.getStats();
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("position", i);
+            entry.put("rule", rule.toString());
+            entry.put("evaluations", stats.getEvaluations());
+            entry.put("hits", stats.getHits());
+            entry.put("matchMicros", TimeUnit.NANOSECONDS.toMicros(stats.getMatchNanos()));
+            entry.put("misbehaving", rule.isMisbehaving());
+            report.add(entry);
+        }
+        return report;
+    }
+
+    public static String format(List<PipelineRule> rules) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%4s %12s %10s %7s %14s %12s  %s%n", "#", "evaluations", "hits", "hit%", "total (us)", "avg (us)", "rule"));
+        for (int i = 0; i < rules.size(); i++) {
+            PipelineRule rule = rules.get(i);
+            RuleStats stats = rule.getStats();
+            long totalMicros = TimeUnit.NANOSECONDS.toMicros(stats.getMatchNanos());
+            double hitRate = stats.getEvaluations() == 0 ? 0 : 100.0 * stats.getHits() / stats.getEvaluations();
+            double avgMicros = stats.getEvaluations() == 0 ? 0 : (double) totalMicros / stats.getEvaluations();
+            sb.append(String.format("%4d %12d %10d %6.1f%% %14d %12.2f  %s%s%n", i, stats.getEvaluations(), stats.getHits(), hitRate,
+                    totalMicros, avgMicros, rule, rule.isMisbehaving() ? " (misbehaving)" : ""));
+        }
+        return sb.toString();
+    }
+}
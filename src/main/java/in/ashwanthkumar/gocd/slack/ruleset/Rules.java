@@ -2,23 +2,39 @@ package in.ashwanthkumar.gocd.slack.ruleset;
 
 import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.typesafe.config.Config;
+import in.ashwanthkumar.gocd.slack.CompositePipelineListener;
 import in.ashwanthkumar.gocd.slack.PipelineListener;
+import in.ashwanthkumar.gocd.slack.SlackWebApi;
 import in.ashwanthkumar.utils.collections.Lists;
 import in.ashwanthkumar.utils.func.Function;
-import in.ashwanthkumar.utils.func.Predicate;
 import in.ashwanthkumar.utils.lang.StringUtils;
-import in.ashwanthkumar.utils.lang.option.Option;
 
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static in.ashwanthkumar.gocd.slack.ruleset.PipelineRule.merge;
 
 public class Rules {
 
     private static Logger LOGGER = Logger.getLoggerFor(Rules.class);
+    static final long DEFAULT_RULE_MATCH_TIMEOUT_MILLIS = 50;
+    static final int DEFAULT_DELIVERY_THREADS = 4;
+    static final long DEFAULT_CHANNEL_QUOTA_WINDOW_MILLIS = 60 * 1000;
+    static final long DEFAULT_FAILURE_STORM_WINDOW_MILLIS = 5 * 60 * 1000;
+    static final long DEFAULT_DIGEST_INTERVAL_MILLIS = 15 * 60 * 1000;
+    static final int DEFAULT_DIGEST_MAX_SIZE = 50;
+    static final int DEFAULT_SLACK_API_TRACKED_MESSAGES = 1000;
+    static final int DEFAULT_DISPATCH_MAX_QUEUED = 1000;
+    static final long DEFAULT_SHUTDOWN_TIMEOUT_MILLIS = 10 * 1000;
+    static final int DEFAULT_EVENT_WEBHOOK_BATCH_SIZE = 50;
+    static final long DEFAULT_EVENT_WEBHOOK_FLUSH_INTERVAL_MILLIS = 5 * 1000;
+    static final long DEFAULT_EVENT_WEBHOOK_TIMEOUT_MILLIS = 30 * 1000;
+    static final long DEFAULT_INSTANCE_CACHE_MAX_BYTES = 64 * 1024 * 1024;
 
     private boolean enabled;
     private String webHookUrl;
@@ -30,15 +46,51 @@ public class Rules {
     private String goLogin;
     private String goPassword;
     private String goAPIToken;
+    private int goMaxConcurrentRequests = GoServerSettings.DEFAULT_MAX_CONCURRENT_REQUESTS;
+    private long goApiTimeoutMillis = GoServerSettings.DEFAULT_TIMEOUT_MILLIS;
+    private int goHedgePercentile;
+    private double goHedgeBudget = GoServerSettings.DEFAULT_HEDGE_BUDGET;
+    private Map<String, GoServerSettings> goServers = new LinkedHashMap<>();
+    private long instanceCacheMaxBytes = DEFAULT_INSTANCE_CACHE_MAX_BYTES;
     private boolean displayConsoleLogLinks;
     private boolean displayMaterialChanges;
     private boolean processAllRules;
     private boolean truncateChanges;
+    private long ruleMatchTimeoutMillis = DEFAULT_RULE_MATCH_TIMEOUT_MILLIS;
+    private String recordEventsTo;
+    private int deliveryThreads = DEFAULT_DELIVERY_THREADS;
+    private int channelQuotaMessages;
+    private long channelQuotaWindowMillis = DEFAULT_CHANNEL_QUOTA_WINDOW_MILLIS;
+    private int failureStormThreshold;
+    private long failureStormWindowMillis = DEFAULT_FAILURE_STORM_WINDOW_MILLIS;
+    private long digestIntervalMillis = DEFAULT_DIGEST_INTERVAL_MILLIS;
+    private int digestMaxSize = DEFAULT_DIGEST_MAX_SIZE;
+    private String slackApiToken;
+    private boolean rollUp;
+    private String slackApiBaseUrl = SlackWebApi.DEFAULT_BASE_URL;
+    private int slackApiTrackedMessages = DEFAULT_SLACK_API_TRACKED_MESSAGES;
+    private long slackApiTimeoutMillis = SlackWebApi.DEFAULT_TIMEOUT_MILLIS;
+    private int dispatchWorkers;
+    private int dispatchMaxQueued = DEFAULT_DISPATCH_MAX_QUEUED;
+    private Map<PipelineStatus, Integer> dispatchLaneDepths = new LinkedHashMap<>();
+    private long shutdownTimeoutMillis = DEFAULT_SHUTDOWN_TIMEOUT_MILLIS;
+    private String eventWebhookUrl;
+    private int eventWebhookBatchSize = DEFAULT_EVENT_WEBHOOK_BATCH_SIZE;
+    private long eventWebhookFlushIntervalMillis = DEFAULT_EVENT_WEBHOOK_FLUSH_INTERVAL_MILLIS;
+    private boolean eventWebhookGzip;
+    private long eventWebhookTimeoutMillis = DEFAULT_EVENT_WEBHOOK_TIMEOUT_MILLIS;
+    private boolean virtualThreads;
+    private long enrichmentDeadlineMillis;
+    private List<StageSettings> stages = new ArrayList<>();
 
-    private Proxy proxy;
+    private String listenerClass;
+    private List<ListenerSettings> listeners = new ArrayList<>();
 
-    private List<PipelineRule> pipelineRules = new ArrayList<PipelineRule>();
-    private PipelineListener pipelineListener;
+    private transient Proxy proxy;
+
+    // replaced wholesale on reload and never mutated in place, so find() always sees a consistent list
+    private volatile List<PipelineRule> pipelineRules = new ArrayList<PipelineRule>();
+    private transient PipelineListener pipelineListener;
 
     public boolean isEnabled() {
         return enabled;
@@ -143,6 +195,103 @@ public class Rules {
         return this;
     }
 
+    public int getGoMaxConcurrentRequests() {
+        return goMaxConcurrentRequests;
+    }
+
+    public Rules setGoMaxConcurrentRequests(int goMaxConcurrentRequests) {
+        this.goMaxConcurrentRequests = goMaxConcurrentRequests;
+        return this;
+    }
+
+    public long getGoApiTimeoutMillis() {
+        return goApiTimeoutMillis;
+    }
+
+    public Rules setGoApiTimeoutMillis(long goApiTimeoutMillis) {
+        this.goApiTimeoutMillis = goApiTimeoutMillis;
+        return this;
+    }
+
+    public int getGoHedgePercentile() {
+        return goHedgePercentile;
+    }
+
+    public Rules setGoHedgePercentile(int goHedgePercentile) {
+        this.goHedgePercentile = goHedgePercentile;
+        return this;
+    }
+
+    public double getGoHedgeBudget() {
+        return goHedgeBudget;
+    }
+
+    public Rules setGoHedgeBudget(double goHedgeBudget) {
+        this.goHedgeBudget = goHedgeBudget;
+        return this;
+    }
+
+    /**
+     * @return how much room the pipeline instances cached on disk may take, 0 to not cache them on disk
+     */
+    public long getInstanceCacheMaxBytes() {
+        return instanceCacheMaxBytes;
+    }
+
+    public Rules setInstanceCacheMaxBytes(long instanceCacheMaxBytes) {
+        this.instanceCacheMaxBytes = instanceCacheMaxBytes;
+        return this;
+    }
+
+    /**
+     * @return the named GoCD server profiles, besides the default server
+     */
+    public Map<String, GoServerSettings> getGoServers() {
+        return goServers;
+    }
+
+    public Rules setGoServers(Map<String, GoServerSettings> goServers) {
+        this.goServers = goServers;
+        return this;
+    }
+
+    /**
+     * @return the named server profile, the default server for null or an unknown name
+     */
+    public GoServerSettings getGoServer(String name) {
+        if (name != null && goServers.containsKey(name)) {
+            return goServers.get(name);
+        }
+        return new GoServerSettings(GoServerSettings.DEFAULT)
+                .setServerHost(goServerHost)
+                .setApiServerHost(goAPIServerHost)
+                .setLogin(goLogin)
+                .setPassword(goPassword)
+                .setApiToken(goAPIToken)
+                .setMaxConcurrentRequests(goMaxConcurrentRequests)
+                .setTimeoutMillis(goApiTimeoutMillis)
+                .setHedgePercentile(goHedgePercentile)
+                .setHedgeBudget(goHedgeBudget);
+    }
+
+    /**
+     * The server a pipeline lives on: the one of the first pipeline rule with a <code>server</code> that matches
+     * it, else the first profile whose groups match its group, else the default server.
+     */
+    public GoServerSettings goServerFor(String pipeline, String group) {
+        for (PipelineRule rule : pipelineRules) {
+            if (StringUtils.isNotEmpty(rule.getServer()) && rule.matchesPipeline(pipeline, group, ruleMatchTimeoutMillis)) {
+                return getGoServer(rule.getServer());
+            }
+        }
+        for (GoServerSettings server : goServers.values()) {
+            if (server.hasGroup(group, ruleMatchTimeoutMillis)) {
+                return server;
+            }
+        }
+        return getGoServer(null);
+    }
+
     public boolean getDisplayConsoleLogLinks() {
         return displayConsoleLogLinks;
     }
@@ -179,6 +328,280 @@ public class Rules {
         return this;
     }
 
+    public long getRuleMatchTimeoutMillis() {
+        return ruleMatchTimeoutMillis;
+    }
+
+    public Rules setRuleMatchTimeoutMillis(long ruleMatchTimeoutMillis) {
+        this.ruleMatchTimeoutMillis = ruleMatchTimeoutMillis;
+        return this;
+    }
+
+    public String getRecordEventsTo() {
+        return recordEventsTo;
+    }
+
+    public Rules setRecordEventsTo(String recordEventsTo) {
+        this.recordEventsTo = recordEventsTo;
+        return this;
+    }
+
+    public int getDeliveryThreads() {
+        return deliveryThreads;
+    }
+
+    public Rules setDeliveryThreads(int deliveryThreads) {
+        this.deliveryThreads = deliveryThreads;
+        return this;
+    }
+
+    /**
+     * @return messages allowed per destination and quota window, 0 for no limit
+     */
+    public int getChannelQuotaMessages() {
+        return channelQuotaMessages;
+    }
+
+    public Rules setChannelQuotaMessages(int channelQuotaMessages) {
+        this.channelQuotaMessages = channelQuotaMessages;
+        return this;
+    }
+
+    public long getChannelQuotaWindowMillis() {
+        return channelQuotaWindowMillis;
+    }
+
+    public Rules setChannelQuotaWindowMillis(long channelQuotaWindowMillis) {
+        this.channelQuotaWindowMillis = channelQuotaWindowMillis;
+        return this;
+    }
+
+    /**
+     * @return failures within the storm window above which individual failures are collapsed, 0 to never collapse
+     */
+    public int getFailureStormThreshold() {
+        return failureStormThreshold;
+    }
+
+    public Rules setFailureStormThreshold(int failureStormThreshold) {
+        this.failureStormThreshold = failureStormThreshold;
+        return this;
+    }
+
+    public long getFailureStormWindowMillis() {
+        return failureStormWindowMillis;
+    }
+
+    public Rules setFailureStormWindowMillis(long failureStormWindowMillis) {
+        this.failureStormWindowMillis = failureStormWindowMillis;
+        return this;
+    }
+
+    public long getDigestIntervalMillis() {
+        return digestIntervalMillis;
+    }
+
+    public Rules setDigestIntervalMillis(long digestIntervalMillis) {
+        this.digestIntervalMillis = digestIntervalMillis;
+        return this;
+    }
+
+    public int getDigestMaxSize() {
+        return digestMaxSize;
+    }
+
+    public Rules setDigestMaxSize(int digestMaxSize) {
+        this.digestMaxSize = digestMaxSize;
+        return this;
+    }
+
+    /**
+     * @return bot token for Slack's Web API, null to post through the incoming webhook
+     */
+    public String getSlackApiToken() {
+        return slackApiToken;
+    }
+
+    public Rules setSlackApiToken(String slackApiToken) {
+        this.slackApiToken = slackApiToken;
+        return this;
+    }
+
+    /**
+     * @return true to keep a single message per pipeline run, updated for every stage (needs the Web API)
+     */
+    public boolean isRollUp() {
+        return rollUp;
+    }
+
+    public Rules setRollUp(boolean rollUp) {
+        this.rollUp = rollUp;
+        return this;
+    }
+
+    /**
+     * @return number of threads notifications are delivered on, 0 to deliver them on the thread GoCD notifies us on
+     */
+    public int getDispatchWorkers() {
+        return dispatchWorkers;
+    }
+
+    public Rules setDispatchWorkers(int dispatchWorkers) {
+        this.dispatchWorkers = dispatchWorkers;
+        return this;
+    }
+
+    public int getDispatchMaxQueued() {
+        return dispatchMaxQueued;
+    }
+
+    public Rules setDispatchMaxQueued(int dispatchMaxQueued) {
+        this.dispatchMaxQueued = dispatchMaxQueued;
+        return this;
+    }
+
+    /**
+     * @return how many notifications of each status can wait to be delivered, statuses that aren't there are only
+     * limited by {@link #getDispatchMaxQueued()}
+     */
+    public Map<PipelineStatus, Integer> getDispatchLaneDepths() {
+        return dispatchLaneDepths;
+    }
+
+    public Rules setDispatchLaneDepths(Map<PipelineStatus, Integer> dispatchLaneDepths) {
+        this.dispatchLaneDepths = dispatchLaneDepths;
+        return this;
+    }
+
+    /**
+     * @return how long queued notifications are given to be delivered when the plugin shuts down
+     */
+    public long getShutdownTimeoutMillis() {
+        return shutdownTimeoutMillis;
+    }
+
+    public Rules setShutdownTimeoutMillis(long shutdownTimeoutMillis) {
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * @return where {@link in.ashwanthkumar.gocd.slack.WebhookPipelineListener} posts its events
+     */
+    public String getEventWebhookUrl() {
+        return eventWebhookUrl;
+    }
+
+    public Rules setEventWebhookUrl(String eventWebhookUrl) {
+        this.eventWebhookUrl = eventWebhookUrl;
+        return this;
+    }
+
+    public int getEventWebhookBatchSize() {
+        return eventWebhookBatchSize;
+    }
+
+    public Rules setEventWebhookBatchSize(int eventWebhookBatchSize) {
+        this.eventWebhookBatchSize = eventWebhookBatchSize;
+        return this;
+    }
+
+    public long getEventWebhookFlushIntervalMillis() {
+        return eventWebhookFlushIntervalMillis;
+    }
+
+    public Rules setEventWebhookFlushIntervalMillis(long eventWebhookFlushIntervalMillis) {
+        this.eventWebhookFlushIntervalMillis = eventWebhookFlushIntervalMillis;
+        return this;
+    }
+
+    public boolean isEventWebhookGzip() {
+        return eventWebhookGzip;
+    }
+
+    public Rules setEventWebhookGzip(boolean eventWebhookGzip) {
+        this.eventWebhookGzip = eventWebhookGzip;
+        return this;
+    }
+
+    /**
+     * @return how long posting a batch of events may take to connect, and to get the response
+     */
+    public long getEventWebhookTimeoutMillis() {
+        return eventWebhookTimeoutMillis;
+    }
+
+    public Rules setEventWebhookTimeoutMillis(long eventWebhookTimeoutMillis) {
+        this.eventWebhookTimeoutMillis = eventWebhookTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * @return true to run deliveries and upstream fetches on virtual threads, when the JVM has them
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public Rules setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    /**
+     * @return how long after GoCD notified us a message goes out with whatever enrichment is ready, 0 to wait for all of it
+     */
+    public long getEnrichmentDeadlineMillis() {
+        return enrichmentDeadlineMillis;
+    }
+
+    public Rules setEnrichmentDeadlineMillis(long enrichmentDeadlineMillis) {
+        this.enrichmentDeadlineMillis = enrichmentDeadlineMillis;
+        return this;
+    }
+
+    /**
+     * @return the stages notifications go through, in order, empty to handle them on the thread GoCD notifies us on
+     */
+    public List<StageSettings> getStages() {
+        return stages;
+    }
+
+    public Rules setStages(List<StageSettings> stages) {
+        this.stages = stages;
+        return this;
+    }
+
+    public String getSlackApiBaseUrl() {
+        return slackApiBaseUrl;
+    }
+
+    public Rules setSlackApiBaseUrl(String slackApiBaseUrl) {
+        this.slackApiBaseUrl = slackApiBaseUrl;
+        return this;
+    }
+
+    public int getSlackApiTrackedMessages() {
+        return slackApiTrackedMessages;
+    }
+
+    public Rules setSlackApiTrackedMessages(int slackApiTrackedMessages) {
+        this.slackApiTrackedMessages = slackApiTrackedMessages;
+        return this;
+    }
+
+    /**
+     * @return how long a call to Slack's Web API may take to connect, and to get the response
+     */
+    public long getSlackApiTimeoutMillis() {
+        return slackApiTimeoutMillis;
+    }
+
+    public Rules setSlackApiTimeoutMillis(long slackApiTimeoutMillis) {
+        this.slackApiTimeoutMillis = slackApiTimeoutMillis;
+        return this;
+    }
+
     public Proxy getProxy() {
         return proxy;
     }
@@ -188,26 +611,105 @@ public class Rules {
         return this;
     }
 
+    public String getListenerClass() {
+        return listenerClass;
+    }
+
+    public Rules setListenerClass(String listenerClass) {
+        this.listenerClass = listenerClass;
+        return this;
+    }
+
+    /**
+     * @return listeners that each get every notification in a bulkhead of their own, empty to use the single
+     * {@link #getListenerClass()}
+     */
+    public List<ListenerSettings> getListeners() {
+        return listeners;
+    }
+
+    public Rules setListeners(List<ListenerSettings> listeners) {
+        this.listeners = listeners;
+        return this;
+    }
+
     public PipelineListener getPipelineListener() {
         return pipelineListener;
     }
 
+    /**
+     * Instantiate the configured listener class (or classes) for these rules. Called once the rules have been
+     * built, either from the HOCON configuration or from the on-disk {@link RulesCache}.
+     */
+    void initializeListener() {
+        try {
+            if (listeners == null || listeners.isEmpty()) {
+                pipelineListener = newListener(listenerClass);
+            } else {
+                List<CompositePipelineListener.Bulkhead> bulkheads = new ArrayList<>();
+                for (ListenerSettings settings : listeners) {
+                    bulkheads.add(new CompositePipelineListener.Bulkhead(newListener(settings.getClassName()), settings));
+                }
+                pipelineListener = new CompositePipelineListener(this, bulkheads);
+            }
+        } catch (Exception e) {
+            LOGGER.error("Exception while initializing pipeline listener", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private PipelineListener newListener(String className) throws Exception {
+        return Class.forName(className).asSubclass(PipelineListener.class).getConstructor(Rules.class).newInstance(this);
+    }
+
     public List<PipelineRule> find(final String pipeline, final String stage, final String group, final String pipelineStatus) {
-        Predicate<PipelineRule> predicate = new Predicate<PipelineRule>() {
-            public Boolean apply(PipelineRule input) {
-                return input.matches(pipeline, stage, group, pipelineStatus);
+        List<PipelineRule> found = new ArrayList<PipelineRule>();
+        for (PipelineRule rule : pipelineRules) {
+            if (rule.isMisbehaving()) {
+                continue;
             }
-        };
-
-        if(processAllRules) {
-            return Lists.filter(pipelineRules, predicate);
-        } else {
-            List<PipelineRule> found = new ArrayList<PipelineRule>();
-            Option<PipelineRule> match = Lists.find(pipelineRules, predicate);
-            if(match.isDefined()) {
-                found.add(match.get());
+            long start = System.nanoTime();
+            boolean matched = rule.matches(pipeline, stage, group, pipelineStatus, ruleMatchTimeoutMillis);
+            rule.getStats().record(matched, System.nanoTime() - start);
+            if (matched) {
+                found.add(rule);
+                if (!processAllRules) {
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Keep only the first of the rules that post to the same {@link Destination}, so overlapping rules don't
+     * post the same notification twice. A rule that posts this status right away wins over one that digests it.
+     */
+    public List<PipelineRule> uniqueDestinations(List<PipelineRule> found, PipelineStatus status) {
+        Map<Destination, PipelineRule> unique = new LinkedHashMap<>();
+        for (PipelineRule rule : found) {
+            Destination destination = Destination.of(rule, this);
+            PipelineRule kept = unique.get(destination);
+            if (kept == null) {
+                unique.put(destination, rule);
+            } else if (kept.isDigested(status) && !rule.isDigested(status)) {
+                LOGGER.info(String.format("Skipping %s, %s posts to %s right away", kept, rule, destination));
+                unique.put(destination, rule);
+            } else {
+                LOGGER.info(String.format("Skipping %s, %s already posts to %s", rule, kept, destination));
+            }
+        }
+        return new ArrayList<>(unique.values());
+    }
+
+    /**
+     * @throws IllegalArgumentException if one of the rules refers to a server profile that isn't configured
+     */
+    static void checkServers(List<PipelineRule> pipelineRules, Map<String, GoServerSettings> servers) {
+        for (PipelineRule rule : pipelineRules) {
+            if (StringUtils.isNotEmpty(rule.getServer()) && !servers.containsKey(rule.getServer())) {
+                throw new IllegalArgumentException(String.format("%s refers to server %s, which isn't configured", rule, rule.getServer()));
             }
-            return found;
         }
     }
 
@@ -249,6 +751,44 @@ public class Rules {
             apiToken = config.getString("api-token");
         }
 
+        int maxConcurrentRequests = GoServerSettings.DEFAULT_MAX_CONCURRENT_REQUESTS;
+        if (config.hasPath("max-concurrent-requests")) {
+            maxConcurrentRequests = config.getInt("max-concurrent-requests");
+        }
+
+        long apiTimeoutMillis = GoServerSettings.DEFAULT_TIMEOUT_MILLIS;
+        if (config.hasPath("api-timeout")) {
+            apiTimeoutMillis = config.getDuration("api-timeout", TimeUnit.MILLISECONDS);
+        }
+
+        int hedgePercentile = 0;
+        double hedgeBudget = GoServerSettings.DEFAULT_HEDGE_BUDGET;
+        if (config.hasPath("hedge")) {
+            Config hedgeConfig = config.getConfig("hedge");
+            hedgePercentile = hedgeConfig.getInt("percentile");
+            if (hedgeConfig.hasPath("budget")) {
+                hedgeBudget = hedgeConfig.getDouble("budget");
+            }
+        }
+
+        long instanceCacheMaxBytes = DEFAULT_INSTANCE_CACHE_MAX_BYTES;
+        if (config.hasPath("instance-cache-size")) {
+            instanceCacheMaxBytes = config.getBytes("instance-cache-size");
+        }
+
+        Map<String, GoServerSettings> servers = new LinkedHashMap<>();
+        if (config.hasPath("servers")) {
+            Config serversConfig = config.getConfig("servers");
+            for (String name : serversConfig.root().keySet()) {
+                if (GoServerSettings.DEFAULT.equals(name)) {
+                    // would hide the server configured at the top level
+                    throw new IllegalArgumentException(String.format("servers.%s at %s: \"%s\" is the name of the top level server, please pick another one",
+                            name, serversConfig.origin().description(), name));
+                }
+                servers.put(name, GoServerSettings.fromConfig(name, serversConfig.getConfig(name)));
+            }
+        }
+
         boolean displayConsoleLogLinks = true;
         if (config.hasPath("display-console-log-links")) {
             displayConsoleLogLinks = config.getBoolean("display-console-log-links");
@@ -270,6 +810,157 @@ public class Rules {
             truncateChanges = config.getBoolean("truncate-changes");
         }
 
+        long ruleMatchTimeoutMillis = DEFAULT_RULE_MATCH_TIMEOUT_MILLIS;
+        if (config.hasPath("rule-match-timeout-ms")) {
+            ruleMatchTimeoutMillis = config.getLong("rule-match-timeout-ms");
+        }
+
+        String recordEventsTo = null;
+        if (config.hasPath("record-events-to")) {
+            recordEventsTo = config.getString("record-events-to");
+        }
+
+        int deliveryThreads = DEFAULT_DELIVERY_THREADS;
+        if (config.hasPath("delivery-threads")) {
+            deliveryThreads = config.getInt("delivery-threads");
+        }
+
+        int channelQuotaMessages = 0;
+        long channelQuotaWindowMillis = DEFAULT_CHANNEL_QUOTA_WINDOW_MILLIS;
+        if (config.hasPath("channel-quota")) {
+            Config quotaConfig = config.getConfig("channel-quota");
+            channelQuotaMessages = quotaConfig.getInt("messages");
+            if (quotaConfig.hasPath("window")) {
+                channelQuotaWindowMillis = quotaConfig.getDuration("window", TimeUnit.MILLISECONDS);
+            }
+        }
+
+        int failureStormThreshold = 0;
+        long failureStormWindowMillis = DEFAULT_FAILURE_STORM_WINDOW_MILLIS;
+        if (config.hasPath("failure-storm")) {
+            Config stormConfig = config.getConfig("failure-storm");
+            failureStormThreshold = stormConfig.getInt("threshold");
+            if (stormConfig.hasPath("window")) {
+                failureStormWindowMillis = stormConfig.getDuration("window", TimeUnit.MILLISECONDS);
+            }
+        }
+
+        long digestIntervalMillis = DEFAULT_DIGEST_INTERVAL_MILLIS;
+        int digestMaxSize = DEFAULT_DIGEST_MAX_SIZE;
+        if (config.hasPath("digest")) {
+            Config digestConfig = config.getConfig("digest");
+            if (digestConfig.hasPath("interval")) {
+                digestIntervalMillis = digestConfig.getDuration("interval", TimeUnit.MILLISECONDS);
+            }
+            if (digestConfig.hasPath("max-size")) {
+                digestMaxSize = digestConfig.getInt("max-size");
+            }
+        }
+
+        String slackApiToken = null;
+        String slackApiBaseUrl = SlackWebApi.DEFAULT_BASE_URL;
+        int slackApiTrackedMessages = DEFAULT_SLACK_API_TRACKED_MESSAGES;
+        long slackApiTimeoutMillis = SlackWebApi.DEFAULT_TIMEOUT_MILLIS;
+        if (config.hasPath("slack-api")) {
+            Config apiConfig = config.getConfig("slack-api");
+            slackApiToken = apiConfig.getString("token");
+            if (apiConfig.hasPath("base-url")) {
+                slackApiBaseUrl = apiConfig.getString("base-url");
+            }
+            if (apiConfig.hasPath("tracked-messages")) {
+                slackApiTrackedMessages = apiConfig.getInt("tracked-messages");
+            }
+            if (apiConfig.hasPath("timeout")) {
+                slackApiTimeoutMillis = apiConfig.getDuration("timeout", TimeUnit.MILLISECONDS);
+            }
+        }
+
+        boolean rollUp = false;
+        if (config.hasPath("roll-up")) {
+            rollUp = config.getBoolean("roll-up");
+        }
+
+        int dispatchWorkers = 0;
+        int dispatchMaxQueued = DEFAULT_DISPATCH_MAX_QUEUED;
+        Map<PipelineStatus, Integer> dispatchLaneDepths = new LinkedHashMap<>();
+        if (config.hasPath("dispatch")) {
+            Config dispatchConfig = config.getConfig("dispatch");
+            if (dispatchConfig.hasPath("workers")) {
+                dispatchWorkers = dispatchConfig.getInt("workers");
+            }
+            if (dispatchConfig.hasPath("max-queued")) {
+                dispatchMaxQueued = dispatchConfig.getInt("max-queued");
+            }
+            if (dispatchConfig.hasPath("lane-depth")) {
+                Config depthConfig = dispatchConfig.getConfig("lane-depth");
+                for (String status : depthConfig.root().keySet()) {
+                    dispatchLaneDepths.put(PipelineStatus.valueOf(status.toUpperCase()), depthConfig.getInt(status));
+                }
+            }
+        }
+
+        long shutdownTimeoutMillis = DEFAULT_SHUTDOWN_TIMEOUT_MILLIS;
+        if (config.hasPath("shutdown-timeout")) {
+            shutdownTimeoutMillis = config.getDuration("shutdown-timeout", TimeUnit.MILLISECONDS);
+        }
+
+        String eventWebhookUrl = null;
+        int eventWebhookBatchSize = DEFAULT_EVENT_WEBHOOK_BATCH_SIZE;
+        long eventWebhookFlushIntervalMillis = DEFAULT_EVENT_WEBHOOK_FLUSH_INTERVAL_MILLIS;
+        boolean eventWebhookGzip = false;
+        long eventWebhookTimeoutMillis = DEFAULT_EVENT_WEBHOOK_TIMEOUT_MILLIS;
+        if (config.hasPath("event-webhook")) {
+            Config webhookConfig = config.getConfig("event-webhook");
+            eventWebhookUrl = webhookConfig.getString("url");
+            if (webhookConfig.hasPath("batch-size")) {
+                eventWebhookBatchSize = webhookConfig.getInt("batch-size");
+                if (eventWebhookBatchSize <= 0) {
+                    throw new IllegalArgumentException(String.format("event-webhook.batch-size at %s should be more than 0", webhookConfig.origin().description()));
+                }
+            }
+            if (webhookConfig.hasPath("flush-interval")) {
+                eventWebhookFlushIntervalMillis = webhookConfig.getDuration("flush-interval", TimeUnit.MILLISECONDS);
+                if (eventWebhookFlushIntervalMillis <= 0) {
+                    throw new IllegalArgumentException(String.format("event-webhook.flush-interval at %s should be more than 0", webhookConfig.origin().description()));
+                }
+            }
+            if (webhookConfig.hasPath("gzip")) {
+                eventWebhookGzip = webhookConfig.getBoolean("gzip");
+            }
+            if (webhookConfig.hasPath("timeout")) {
+                eventWebhookTimeoutMillis = webhookConfig.getDuration("timeout", TimeUnit.MILLISECONDS);
+            }
+        }
+
+        boolean virtualThreads = false;
+        if (config.hasPath("virtual-threads")) {
+            virtualThreads = config.getBoolean("virtual-threads");
+        }
+
+        long enrichmentDeadlineMillis = 0;
+        if (config.hasPath("enrichment-deadline")) {
+            enrichmentDeadlineMillis = config.getDuration("enrichment-deadline", TimeUnit.MILLISECONDS);
+        }
+
+        List<StageSettings> stages = new ArrayList<>();
+        if (config.hasPath("stages")) {
+            Config stagesConfig = config.getConfig("stages");
+            for (String name : StageSettings.NAMES) {
+                if (stagesConfig.hasPath(name)) {
+                    stages.add(StageSettings.fromConfig(name, stagesConfig.getConfig(name)));
+                } else {
+                    stages.add(new StageSettings(name));
+                }
+            }
+        }
+
+        List<ListenerSettings> listeners = new ArrayList<>();
+        if (config.hasPath("listeners")) {
+            for (Config listenerConfig : config.getConfigList("listeners")) {
+                listeners.add(ListenerSettings.fromConfig(listenerConfig));
+            }
+        }
+
         Proxy proxy = null;
         if (config.hasPath("proxy")) {
             Config proxyConfig = config.getConfig("proxy");
@@ -282,13 +973,8 @@ public class Rules {
             }
         }
 
-        final PipelineRule defaultRule = PipelineRule.fromConfig(config.getConfig("default"), channel);
-
-        List<PipelineRule> pipelineRules = Lists.map((List<Config>) config.getConfigList("pipelines"), new Function<Config, PipelineRule>() {
-            public PipelineRule apply(Config input) {
-                return merge(PipelineRule.fromConfig(input), defaultRule);
-            }
-        });
+        List<PipelineRule> pipelineRules = pipelineRulesFromConfig(config.getConfigList("pipelines"), defaultRuleFromConfig(config));
+        checkServers(pipelineRules, servers);
 
         Rules rules = new Rules()
                 .setEnabled(isEnabled)
@@ -302,18 +988,66 @@ public class Rules {
                 .setGoLogin(login)
                 .setGoPassword(password)
                 .setGoAPIToken(apiToken)
+                .setGoMaxConcurrentRequests(maxConcurrentRequests)
+                .setGoApiTimeoutMillis(apiTimeoutMillis)
+                .setGoHedgePercentile(hedgePercentile)
+                .setGoHedgeBudget(hedgeBudget)
+                .setGoServers(servers)
+                .setInstanceCacheMaxBytes(instanceCacheMaxBytes)
                 .setDisplayConsoleLogLinks(displayConsoleLogLinks)
                 .setDisplayMaterialChanges(displayMaterialChanges)
                 .setProcessAllRules(processAllRules)
                 .setTruncateChanges(truncateChanges)
-                .setProxy(proxy);
-        try {
-            rules.pipelineListener = Class.forName(config.getString("listener")).asSubclass(PipelineListener.class).getConstructor(Rules.class).newInstance(rules);
-        } catch (Exception e) {
-            LOGGER.error("Exception while initializing pipeline listener", e);
-            throw new RuntimeException(e);
-        }
+                .setRuleMatchTimeoutMillis(ruleMatchTimeoutMillis)
+                .setRecordEventsTo(recordEventsTo)
+                .setDeliveryThreads(deliveryThreads)
+                .setChannelQuotaMessages(channelQuotaMessages)
+                .setChannelQuotaWindowMillis(channelQuotaWindowMillis)
+                .setFailureStormThreshold(failureStormThreshold)
+                .setFailureStormWindowMillis(failureStormWindowMillis)
+                .setDigestIntervalMillis(digestIntervalMillis)
+                .setDigestMaxSize(digestMaxSize)
+                .setSlackApiToken(slackApiToken)
+                .setSlackApiBaseUrl(slackApiBaseUrl)
+                .setSlackApiTrackedMessages(slackApiTrackedMessages)
+                .setSlackApiTimeoutMillis(slackApiTimeoutMillis)
+                .setRollUp(rollUp)
+                .setDispatchWorkers(dispatchWorkers)
+                .setDispatchMaxQueued(dispatchMaxQueued)
+                .setDispatchLaneDepths(dispatchLaneDepths)
+                .setShutdownTimeoutMillis(shutdownTimeoutMillis)
+                .setEventWebhookUrl(eventWebhookUrl)
+                .setEventWebhookBatchSize(eventWebhookBatchSize)
+                .setEventWebhookFlushIntervalMillis(eventWebhookFlushIntervalMillis)
+                .setEventWebhookGzip(eventWebhookGzip)
+                .setEventWebhookTimeoutMillis(eventWebhookTimeoutMillis)
+                .setVirtualThreads(virtualThreads)
+                .setEnrichmentDeadlineMillis(enrichmentDeadlineMillis)
+                .setStages(stages)
+                .setProxy(proxy)
+                .setListenerClass(config.getString("listener"))
+                .setListeners(listeners);
+        rules.initializeListener();
 
         return rules;
     }
+
+    /**
+     * Default rule every pipeline rule falls back to, taken from the <code>default</code> block of the config.
+     */
+    static PipelineRule defaultRuleFromConfig(Config config) {
+        String channel = null;
+        if (config.hasPath("channel")) {
+            channel = config.getString("channel");
+        }
+        return PipelineRule.fromConfig(config.getConfig("default"), channel);
+    }
+
+    static List<PipelineRule> pipelineRulesFromConfig(List<? extends Config> configs, final PipelineRule defaultRule) {
+        return Lists.map((List<Config>) configs, new Function<Config, PipelineRule>() {
+            public PipelineRule apply(Config input) {
+                return merge(PipelineRule.fromConfig(input), defaultRule);
+            }
+        });
+    }
 }
@@ -0,0 +1,151 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import in.ashwanthkumar.utils.lang.option.None;
+import in.ashwanthkumar.utils.lang.option.Option;
+import in.ashwanthkumar.utils.lang.option.Some;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * Keeps the last successfully compiled {@link Rules} on disk as JSON, so that the plugin can start
+ * serving notifications right away on the next start without having to re-parse the HOCON config.
+ * The config is still parsed again in the background, so values taken from the environment are picked up.
+ *
+ * The rules hold the credentials from the config, so only the owner may read the file.
+ */
+public class RulesCache {
+    private static Logger LOGGER = Logger.getLoggerFor(RulesCache.class);
+
+    // Bump this whenever the serialized shape of Rules / PipelineRule changes incompatibly.
+    static final int FORMAT_VERSION = 2;
+    static final String CACHE_FILE_NAME = "rules-cache.json";
+
+    private final Gson gson = new GsonBuilder().create();
+    private final File cacheFile;
+
+    public RulesCache(File dataDirectory) {
+        this.cacheFile = new File(dataDirectory, CACHE_FILE_NAME);
+    }
+
+    /**
+     * Load the cached rules if we have any, along with the fingerprint of the config they were compiled from.
+     */
+    public Option<CachedRules> load() {
+        if (!cacheFile.exists()) {
+            return new None<>();
+        }
+        try {
+            Snapshot snapshot = gson.fromJson(FileUtils.readFileToString(cacheFile, StandardCharsets.UTF_8), Snapshot.class);
+            if (snapshot == null || snapshot.version != FORMAT_VERSION || snapshot.rules == null) {
+                LOGGER.info("Ignoring rules cache at " + cacheFile.getAbsolutePath() + " since it was written by a different version");
+                return new None<>();
+            }
+            Rules rules = snapshot.rules;
+            if (snapshot.proxyType != null) {
+                rules.setProxy(new Proxy(Proxy.Type.valueOf(snapshot.proxyType), new InetSocketAddress(snapshot.proxyHostname, snapshot.proxyPort)));
+            }
+            rules.initializeListener();
+            return new Some<>(new CachedRules(rules, snapshot.sourcePath, snapshot.sourceFingerprint));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Unable to read rules cache at " + cacheFile.getAbsolutePath(), e);
+            return new None<>();
+        }
+    }
+
+    /**
+     * Persist the rules. Failures are only logged, the cache is an optimisation and never a requirement.
+     */
+    public void save(Rules rules, File source) {
+        Snapshot snapshot = new Snapshot();
+        snapshot.version = FORMAT_VERSION;
+        snapshot.sourcePath = source.getAbsolutePath();
+        snapshot.sourceFingerprint = fingerprint(source);
+        snapshot.rules = rules;
+        Proxy proxy = rules.getProxy();
+        if (proxy != null && proxy.address() instanceof InetSocketAddress) {
+            InetSocketAddress address = (InetSocketAddress) proxy.address();
+            snapshot.proxyType = proxy.type().name();
+            snapshot.proxyHostname = address.getHostString();
+            snapshot.proxyPort = address.getPort();
+        }
+
+        try {
+            FileUtils.forceMkdir(cacheFile.getParentFile());
+            // write to a temp file first so a crash half way through never leaves a corrupt cache behind
+            File tempFile = new File(cacheFile.getParentFile(), CACHE_FILE_NAME + ".tmp");
+            FileUtils.deleteQuietly(tempFile);
+            createOwnerOnly(tempFile);
+            FileUtils.writeStringToFile(tempFile, gson.toJson(snapshot), StandardCharsets.UTF_8);
+            Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to write rules cache to " + cacheFile.getAbsolutePath(), e);
+        }
+    }
+
+    private static void createOwnerOnly(File file) throws IOException {
+        try {
+            Files.createFile(file.toPath(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system
+            Files.createFile(file.toPath());
+            file.setReadable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(false, false);
+            file.setWritable(true, true);
+        }
+    }
+
+    /**
+     * Identifies the state of a config file or a directory of config fragments.
+     */
+    static String fingerprint(File source) {
+        if (source.isDirectory()) {
+            return RulesDirectory.fingerprint(source);
+        }
+        return source.lastModified() + ":" + source.length();
+    }
+
+    public static class CachedRules {
+        private final Rules rules;
+        private final String sourcePath;
+        private final String sourceFingerprint;
+
+        CachedRules(Rules rules, String sourcePath, String sourceFingerprint) {
+            this.rules = rules;
+            this.sourcePath = sourcePath;
+            this.sourceFingerprint = sourceFingerprint;
+        }
+
+        public Rules getRules() {
+            return rules;
+        }
+
+        /**
+         * @return true if these rules were compiled from the given config and it hasn't been touched since.
+         */
+        public boolean isUpToDateWith(File source) {
+            return source.getAbsolutePath().equals(sourcePath) && fingerprint(source).equals(sourceFingerprint);
+        }
+    }
+
+    private static class Snapshot {
+        int version;
+        String sourcePath;
+        String sourceFingerprint;
+        String proxyType;
+        String proxyHostname;
+        int proxyPort;
+        Rules rules;
+    }
+}
@@ -0,0 +1,234 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigObject;
+import com.typesafe.config.ConfigValue;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Rules spread across a directory of <code>*.conf</code> fragments, typically one per team.
+ *
+ * Every fragment has the same shape as go_notify.conf. The <code>pipelines</code> of all the fragments are
+ * concatenated in file name order, everything else is merged with later files overriding earlier ones.
+ * When only the <code>pipelines</code> of some fragments change, only those fragments are parsed and compiled
+ * again and merged into the live {@link Rules}, holding the lock that keeps notifications off the rules while they
+ * change; any other change rebuilds the rules from scratch.
+ *
+ * Substitutions are resolved per fragment against the environment, they can't refer to other fragments.
+ */
+public class RulesDirectory {
+    private static Logger LOGGER = Logger.getLoggerFor(RulesDirectory.class);
+
+    static final String FRAGMENT_EXTENSION = ".conf";
+    private static final String PIPELINES_PATH = "gocd.slack.pipelines";
+
+    private final File directory;
+    private final Lock swapLock;
+    private final RulesReader reader = new RulesReader();
+    private Map<String, Fragment> fragments = new TreeMap<>();
+    private PipelineRule defaultRule;
+    private Rules rules;
+    private String failedFingerprint;
+
+    public RulesDirectory(File directory) {
+        this(directory, new ReentrantLock());
+    }
+
+    /**
+     * @param swapLock held while the pipeline rules of the live {@link Rules} are swapped
+     */
+    public RulesDirectory(File directory, Lock swapLock) {
+        this.directory = directory;
+        this.swapLock = swapLock;
+    }
+
+    public boolean hasChanges() {
+        SortedMap<String, File> files = listFragments(directory);
+        if (fingerprint(directory).equals(failedFingerprint)) {
+            // don't retry a broken fragment every tick, wait for it to be edited again
+            return false;
+        }
+        if (rules == null || !files.keySet().equals(fragments.keySet())) {
+            return true;
+        }
+        for (Map.Entry<String, File> entry : files.entrySet()) {
+            if (entry.getValue().lastModified() != fragments.get(entry.getKey()).lastModified) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pick up the fragments that changed since the last call.
+     *
+     * @return the same {@link Rules} instance as before with its pipeline rules swapped if only pipelines changed,
+     * otherwise a freshly built {@link Rules}.
+     */
+    public Rules refresh() {
+        try {
+            Rules refreshed = doRefresh();
+            failedFingerprint = null;
+            return refreshed;
+        } catch (RuntimeException e) {
+            failedFingerprint = fingerprint(directory);
+            throw e;
+        }
+    }
+
+    private Rules doRefresh() {
+        SortedMap<String, File> files = listFragments(directory);
+        Map<String, Fragment> updated = new TreeMap<>();
+        Set<String> changed = new TreeSet<>();
+        boolean settingsChanged = rules == null;
+
+        for (Map.Entry<String, File> entry : files.entrySet()) {
+            Fragment existing = fragments.get(entry.getKey());
+            if (existing != null && existing.lastModified == entry.getValue().lastModified()) {
+                updated.put(entry.getKey(), existing);
+                continue;
+            }
+            Fragment fragment = Fragment.parse(entry.getValue());
+            if (existing == null) {
+                settingsChanged |= hasSettings(fragment.settings);
+            } else {
+                settingsChanged |= !existing.settings.equals(fragment.settings);
+            }
+            updated.put(entry.getKey(), fragment);
+            changed.add(entry.getKey());
+        }
+        for (Map.Entry<String, Fragment> entry : fragments.entrySet()) {
+            if (!updated.containsKey(entry.getKey())) {
+                settingsChanged |= hasSettings(entry.getValue().settings);
+                changed.add(entry.getKey());
+            }
+        }
+
+        Rules refreshed = rules;
+        if (settingsChanged) {
+            LOGGER.info("Settings changed in " + directory.getAbsolutePath() + ", rebuilding all the rules");
+            Config settings = ConfigFactory.empty();
+            for (Fragment fragment : updated.values()) {
+                settings = fragment.settings.withFallback(settings);
+            }
+            Config slackConfig = reader.withDefaults(settings).getConfig("gocd.slack");
+            refreshed = Rules.fromConfig(slackConfig);
+            defaultRule = Rules.defaultRuleFromConfig(slackConfig);
+            for (Fragment fragment : updated.values()) {
+                fragment.compile(defaultRule);
+            }
+        } else {
+            LOGGER.info("Recompiling pipeline rules from " + changed);
+            for (String name : changed) {
+                if (updated.containsKey(name)) {
+                    updated.get(name).compile(defaultRule);
+                }
+            }
+        }
+
+        List<PipelineRule> pipelineRules = new ArrayList<>();
+        boolean anyPipelines = false;
+        for (Fragment fragment : updated.values()) {
+            anyPipelines |= fragment.hasPipelines;
+            pipelineRules.addAll(fragment.pipelineRules);
+        }
+        // without any pipelines of our own, stick to the ones from reference.conf
+        if (anyPipelines) {
+            Rules.checkServers(pipelineRules, refreshed.getGoServers());
+            if (refreshed == rules) {
+                swapLock.lock();
+                try {
+                    refreshed.setPipelineRules(pipelineRules);
+                } finally {
+                    swapLock.unlock();
+                }
+            } else {
+                refreshed.setPipelineRules(pipelineRules);
+            }
+        }
+
+        fragments = updated;
+        rules = refreshed;
+        return refreshed;
+    }
+
+    static SortedMap<String, File> listFragments(File directory) {
+        SortedMap<String, File> fragments = new TreeMap<>();
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(FRAGMENT_EXTENSION);
+            }
+        });
+        if (files != null) {
+            for (File file : files) {
+                fragments.put(file.getName(), file);
+            }
+        }
+        return fragments;
+    }
+
+    /**
+     * Changes whenever a fragment is added, removed or modified.
+     */
+    static String fingerprint(File directory) {
+        StringBuilder sb = new StringBuilder();
+        for (File file : listFragments(directory).values()) {
+            sb.append(file.getName()).append(':').append(file.lastModified()).append(':').append(file.length()).append(';');
+        }
+        return sb.toString();
+    }
+
+    // true if there's anything besides gocd.slack.pipelines in the fragment
+    private static boolean hasSettings(Config settings) {
+        for (Map.Entry<String, ConfigValue> entry : settings.root().entrySet()) {
+            if (!entry.getKey().equals("gocd") || !(entry.getValue() instanceof ConfigObject)) {
+                return true;
+            }
+            ConfigValue slack = ((ConfigObject) entry.getValue()).get("slack");
+            if (((ConfigObject) entry.getValue()).size() > 1 || !(slack instanceof ConfigObject) || !((ConfigObject) slack).isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Fragment {
+        private final File file;
+        private final long lastModified;
+        private final Config config;
+        private final Config settings;
+        private boolean hasPipelines;
+        private List<PipelineRule> pipelineRules = new ArrayList<>();
+
+        private Fragment(File file, long lastModified, Config config) {
+            this.file = file;
+            this.lastModified = lastModified;
+            this.config = config;
+            this.settings = config.withoutPath(PIPELINES_PATH);
+        }
+
+        static Fragment parse(File file) {
+            long lastModified = file.lastModified();
+            return new Fragment(file, lastModified, ConfigFactory.parseFile(file));
+        }
+
+        void compile(PipelineRule defaultRule) {
+            Config resolved = config.resolveWith(RulesReader.envThenSystem());
+            hasPipelines = resolved.hasPath(PIPELINES_PATH);
+            if (hasPipelines) {
+                pipelineRules = Rules.pipelineRulesFromConfig(resolved.getConfigList(PIPELINES_PATH), defaultRule);
+            } else {
+                pipelineRules = new ArrayList<>();
+            }
+            LOGGER.info(String.format("Compiled %d pipeline rule(s) from %s", pipelineRules.size(), file.getName()));
+        }
+    }
+}
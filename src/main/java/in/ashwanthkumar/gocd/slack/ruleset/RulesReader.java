@@ -22,9 +22,18 @@ public class RulesReader {
     }
 
     protected Rules load(Config config) {
-        Config envThenSystem = ConfigFactory.systemEnvironment().withFallback(ConfigFactory.systemProperties());
-        Config configWithFallback = config.withFallback(ConfigFactory.load(getClass().getClassLoader())).resolveWith(envThenSystem);
-        return Rules.fromConfig(configWithFallback.getConfig("gocd.slack"));
+        return Rules.fromConfig(withDefaults(config).getConfig("gocd.slack"));
+    }
+
+    /**
+     * Fall back to reference.conf for everything that isn't set and resolve substitutions against the environment.
+     */
+    Config withDefaults(Config config) {
+        return config.withFallback(ConfigFactory.load(getClass().getClassLoader())).resolveWith(envThenSystem());
+    }
+
+    static Config envThenSystem() {
+        return ConfigFactory.systemEnvironment().withFallback(ConfigFactory.systemProperties());
     }
 
     public Rules load() {
@@ -0,0 +1,67 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import com.google.gson.GsonBuilder;
+import in.ashwanthkumar.gocd.slack.GoNotificationMessage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a file of recorded stage-status notifications (see <code>record-events-to</code>) through a set of rules
+ * and reports how often each rule was evaluated, how often it matched and how long matching took. Nothing is
+ * sent anywhere and the GoCD API isn't called, so the stage result is used as GoCD reported it.
+ *
+ * Usage: java -cp gocd-slack-notifier.jar in.ashwanthkumar.gocd.slack.ruleset.RulesReplay go_notify.conf events.json
+ */
+public class RulesReplay {
+
+    /**
+     * Replay the events against copies of the given rules, so their live stats aren't affected.
+     *
+     * @return the copies, with their {@link RuleStats} filled in
+     */
+    public static List<PipelineRule> replay(Rules rules, BufferedReader events) throws IOException {
+        List<PipelineRule> copies = new ArrayList<>();
+        for (PipelineRule rule : rules.getPipelineRules()) {
+            copies.add(new PipelineRule(rule));
+        }
+        Rules replayRules = new Rules()
+                .setPipelineRules(copies)
+                .setProcessAllRules(rules.getProcessAllRules())
+                .setRuleMatchTimeoutMillis(rules.getRuleMatchTimeoutMillis());
+
+        String line;
+        while ((line = events.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            GoNotificationMessage message = new GsonBuilder().create().fromJson(line, GoNotificationMessage.class);
+            replayRules.find(message.getPipelineName(), message.getStageName(), message.getPipelineGroup(), stageResult(message));
+        }
+        return copies;
+    }
+
+    // the part of GoNotificationMessage.tryToFixStageResult that doesn't need the pipeline history
+    private static String stageResult(GoNotificationMessage message) {
+        if ("BUILDING".equalsIgnoreCase(message.getStageState()) && "UNKNOWN".equalsIgnoreCase(message.getStageResult())) {
+            return "Building";
+        }
+        return message.getStageResult();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: RulesReplay <go_notify.conf or config directory> <recorded events>");
+            System.exit(1);
+        }
+        File config = new File(args[0]);
+        Rules rules = config.isDirectory() ? new RulesDirectory(config).refresh() : RulesReader.read(config);
+        try (BufferedReader events = new BufferedReader(new FileReader(args[1]))) {
+            System.out.print(RuleStatsReport.format(replay(rules, events)));
+        }
+    }
+}
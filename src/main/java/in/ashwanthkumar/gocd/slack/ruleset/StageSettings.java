@@ -0,0 +1,100 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.typesafe.config.Config;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One of the <code>stages</code> notifications go through: how many threads work on it and how many notifications
+ * it takes in before the stage in front of it has to wait. <code>parse</code> always runs on a single thread, the
+ * pipeline a notification belongs to, which spreads the notifications over the threads, isn't known before it.
+ */
+public class StageSettings {
+    private static Logger LOGGER = Logger.getLoggerFor(StageSettings.class);
+
+    public static final String PARSE = "parse";
+    public static final String CLASSIFY = "classify";
+    public static final String ROUTE = "route";
+    public static final String ENRICH = "enrich";
+    public static final String DELIVER = "deliver";
+    // in the order notifications go through them
+    public static final List<String> NAMES = Arrays.asList(PARSE, CLASSIFY, ROUTE, ENRICH, DELIVER);
+
+    static final int DEFAULT_THREADS = 1;
+    static final int DEFAULT_BUFFER_SIZE = 64;
+
+    private String name;
+    private int threads = DEFAULT_THREADS;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    public StageSettings(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public StageSettings setThreads(int threads) {
+        this.threads = PARSE.equals(name) ? 1 : threads;
+        return this;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public StageSettings setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    public static StageSettings fromConfig(String name, Config config) {
+        StageSettings settings = new StageSettings(name);
+        if (config.hasPath("threads")) {
+            settings.setThreads(config.getInt("threads"));
+            if (settings.getThreads() != config.getInt("threads")) {
+                LOGGER.warn(String.format("stages.%s.threads at %s is ignored, %s runs on a single thread", name, config.origin().description(), name));
+            }
+        }
+        if (config.hasPath("buffer")) {
+            settings.setBufferSize(config.getInt("buffer"));
+        }
+        return settings;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        StageSettings that = (StageSettings) o;
+
+        if (threads != that.threads) return false;
+        if (bufferSize != that.bufferSize) return false;
+        return name.equals(that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = name.hashCode();
+        result = 31 * result + threads;
+        result = 31 * result + bufferSize;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "StageSettings{" +
+                "name='" + name + '\'' +
+                ", threads=" + threads +
+                ", bufferSize=" + bufferSize +
+                '}';
+    }
+}
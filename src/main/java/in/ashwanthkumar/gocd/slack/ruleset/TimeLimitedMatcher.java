@@ -0,0 +1,65 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import java.util.regex.Pattern;
+
+/**
+ * Runs a regex match that gives up once a deadline passes. java.util.regex can't be interrupted, but the
+ * engine keeps reading the input while it backtracks, so the input is wrapped in a CharSequence that checks
+ * the clock every so often and throws {@link RegexTimeoutException}.
+ */
+class TimeLimitedMatcher {
+    // checking System.nanoTime on every charAt would cost more than most matches
+    private static final int CHECK_EVERY = 1024;
+
+    static class RegexTimeoutException extends RuntimeException {
+        RegexTimeoutException(String message) {
+            super(message);
+        }
+    }
+
+    static boolean matches(Pattern pattern, String input, long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            return pattern.matcher(input).matches();
+        }
+        long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        return pattern.matcher(new DeadlineCharSequence(input, deadline, pattern, new int[1])).matches();
+    }
+
+    private static class DeadlineCharSequence implements CharSequence {
+        private final CharSequence input;
+        private final long deadline;
+        private final Pattern pattern;
+        // shared with sub sequences so they count towards the same budget
+        private final int[] reads;
+
+        DeadlineCharSequence(CharSequence input, long deadline, Pattern pattern, int[] reads) {
+            this.input = input;
+            this.deadline = deadline;
+            this.pattern = pattern;
+            this.reads = reads;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++reads[0] % CHECK_EVERY == 0 && System.nanoTime() > deadline) {
+                throw new RegexTimeoutException("Matching " + pattern.pattern() + " against " + input + " took too long");
+            }
+            return input.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return input.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new DeadlineCharSequence(input.subSequence(start, end), deadline, pattern, reads);
+        }
+
+        @Override
+        public String toString() {
+            return input.toString();
+        }
+    }
+}
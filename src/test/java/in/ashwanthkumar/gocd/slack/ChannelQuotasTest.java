@@ -0,0 +1,55 @@
+package in.ashwanthkumar.gocd.slack;
+
+import in.ashwanthkumar.gocd.slack.ruleset.Destination;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ChannelQuotasTest {
+
+    private static final Destination BUILDS = new Destination("https://hooks.slack.com/services/", "#builds");
+    private static final Destination OTHER = new Destination("https://hooks.slack.com/services/", "#other");
+
+    @Test
+    public void shouldHoldBackMessagesOverTheQuotaAndSummarizeThemWhenTheWindowEnds() {
+        ChannelQuotas quotas = new ChannelQuotas(2, 60000);
+
+        assertThat(quotas.tryAcquire(BUILDS, PipelineStatus.FAILED, 0), is(true));
+        assertThat(quotas.tryAcquire(BUILDS, PipelineStatus.FAILED, 1000), is(true));
+        assertThat(quotas.tryAcquire(BUILDS, PipelineStatus.FAILED, 2000), is(false));
+        assertThat(quotas.tryAcquire(BUILDS, PipelineStatus.BROKEN, 3000), is(false));
+        assertThat(quotas.tryAcquire(BUILDS, PipelineStatus.FAILED, 4000), is(false));
+        // every destination has its own quota
+        assertThat(quotas.tryAcquire(OTHER, PipelineStatus.FAILED, 4000), is(true));
+        assertThat(quotas.getHeld(), is(3));
+
+        assertThat(quotas.endedWindows(59999).size(), is(0));
+        List<ChannelQuotas.Overflow> ended = quotas.endedWindows(60000);
+        assertThat(ended.size(), is(1));
+        assertThat(ended.get(0).getDestination(), is(BUILDS));
+        assertThat(ended.get(0).getTotal(), is(3));
+        assertThat(ended.get(0).getHeld().get(PipelineStatus.FAILED), is(2));
+        assertThat(ended.get(0).getHeld().get(PipelineStatus.BROKEN), is(1));
+
+        // a new window starts from scratch
+        assertThat(quotas.tryAcquire(BUILDS, PipelineStatus.FAILED, 61000), is(true));
+        assertThat(quotas.getHeld(), is(0));
+    }
+
+    @Test
+    public void shouldSummarizeAWindowThatEndedWhileNewMessagesArrive() {
+        ChannelQuotas quotas = new ChannelQuotas(1, 60000);
+        quotas.tryAcquire(BUILDS, PipelineStatus.FAILED, 0);
+        quotas.tryAcquire(BUILDS, PipelineStatus.FAILED, 1000);
+
+        assertThat(quotas.tryAcquire(BUILDS, PipelineStatus.FAILED, 70000), is(true));
+
+        List<ChannelQuotas.Overflow> ended = quotas.endedWindows(70000);
+        assertThat(ended.size(), is(1));
+        assertThat(ended.get(0).getTotal(), is(1));
+    }
+}
@@ -0,0 +1,122 @@
+package in.ashwanthkumar.gocd.slack;
+
+import in.ashwanthkumar.gocd.slack.jsonapi.Server;
+import in.ashwanthkumar.gocd.slack.ruleset.ListenerSettings;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineRule;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+import in.ashwanthkumar.gocd.slack.ruleset.Rules;
+import in.ashwanthkumar.gocd.slack.util.TestUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CompositePipelineListenerTest {
+
+    @Test
+    public void shouldNotLetAStalledListenerHoldUpTheOthers() throws Exception {
+        Rules rules = new Rules().setPipelineRules(Collections.singletonList(new PipelineRule("pipeline", ".*")
+                .setGroupRegex(".*")
+                .setChannel("#builds")
+                .setStatus(new HashSet<>(Collections.singletonList(PipelineStatus.CANCELLED)))));
+        final CountDownLatch unstall = new CountDownLatch(1);
+        final AtomicInteger delivered = new AtomicInteger();
+        PipelineListener stalled = new PipelineListenerTest.RecordingListener(rules) {
+            @Override
+            public void onCancelled(PipelineRule rule, GoNotificationMessage message) throws Exception {
+                unstall.await(10, TimeUnit.SECONDS);
+            }
+        };
+        PipelineListener audit = new PipelineListenerTest.RecordingListener(rules) {
+            @Override
+            public void onCancelled(PipelineRule rule, GoNotificationMessage message) throws Exception {
+                delivered.incrementAndGet();
+            }
+        };
+        CompositePipelineListener listener = new CompositePipelineListener(rules, Arrays.asList(
+                new CompositePipelineListener.Bulkhead(stalled, new ListenerSettings("com.example.StalledListener").setQueueSize(1).setTimeoutMillis(100)),
+                new CompositePipelineListener.Bulkhead(audit, new ListenerSettings("com.example.AuditListener"))));
+
+        CompositePipelineListener.Bulkhead stalledBulkhead = listener.getBulkheads().get(0);
+        try {
+            long startedAt = System.currentTimeMillis();
+            listener.notify(cancelledMessage());
+            listener.notify(cancelledMessage());
+            // the thread handing over the notifications doesn't wait for the stalled listener
+            assertThat(System.currentTimeMillis() - startedAt < 100, is(true));
+            try {
+                listener.notify(cancelledMessage());
+                fail("expected the queue of the stalled listener to be full");
+            } catch (DeliveryFailedException e) {
+                assertThat(e.getFailures(), is(Collections.singletonList("StalledListener: queue is full")));
+            }
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((stalledBulkhead.getTimedOut() < 2 || delivered.get() < 3) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(stalledBulkhead.getTimedOut(), is(2L));
+            assertThat(stalledBulkhead.getRejected(), is(1L));
+            assertThat(delivered.get(), is(3));
+            assertThat(listener.getBulkheads().get(1).getDelivered(), is(3L));
+        } finally {
+            unstall.countDown();
+            listener.close();
+        }
+    }
+
+    @Test
+    public void shouldClassifyOnceForAllTheListeners() throws Exception {
+        Rules rules = new Rules().setPipelineRules(Collections.singletonList(new PipelineRule("pipeline", ".*")
+                .setGroupRegex(".*")
+                .setChannel("#builds")
+                .setStatus(new HashSet<>(Collections.singletonList(PipelineStatus.PASSED)))));
+        Server server = mock(Server.class);
+        when(server.getPipelineHistory("pipeline")).thenThrow(new IOException("server is down"));
+        CompositePipelineListener listener = new CompositePipelineListener(rules, Arrays.asList(
+                new CompositePipelineListener.Bulkhead(new PipelineListenerTest.RecordingListener(rules), new ListenerSettings("com.example.SlackListener")),
+                new CompositePipelineListener.Bulkhead(new PipelineListenerTest.RecordingListener(rules), new ListenerSettings("com.example.AuditListener"))));
+
+        GoNotificationMessage.PipelineInfo pipeline = new GoNotificationMessage.PipelineInfo();
+        pipeline.name = "pipeline";
+        pipeline.counter = "1";
+        pipeline.group = "ci";
+        pipeline.stage = new GoNotificationMessage.StageInfo();
+        pipeline.stage.name = "build";
+        pipeline.stage.counter = "1";
+        pipeline.stage.state = "Passed";
+        pipeline.stage.result = "Passed";
+        try {
+            listener.notify(new GoNotificationMessage(TestUtils.createMockServerFactory(server), pipeline));
+        } finally {
+            listener.close();
+        }
+        verify(server, times(1)).getPipelineHistory("pipeline");
+    }
+
+    private static GoNotificationMessage cancelledMessage() {
+        GoNotificationMessage.PipelineInfo pipeline = new GoNotificationMessage.PipelineInfo();
+        pipeline.name = "pipeline";
+        pipeline.counter = "1";
+        pipeline.group = "ci";
+        pipeline.stage = new GoNotificationMessage.StageInfo();
+        pipeline.stage.name = "build";
+        pipeline.stage.counter = "1";
+        pipeline.stage.state = "Cancelled";
+        pipeline.stage.result = "Cancelled";
+        return new GoNotificationMessage(TestUtils.createMockServerFactory(mock(Server.class)), pipeline);
+    }
+}
@@ -0,0 +1,99 @@
+package in.ashwanthkumar.gocd.slack;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import in.ashwanthkumar.gocd.slack.jsonapi.Server;
+import in.ashwanthkumar.gocd.slack.ruleset.Rules;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Not a test: compares fetching pipeline instances from a slow GoCD server with a pool of platform threads against
+ * a virtual thread per fetch. Run it with
+ *
+ * <pre>mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=in.ashwanthkumar.gocd.slack.ExecutionModeBenchmark -Dexec.args="2000 50"</pre>
+ *
+ * (fetches, then server latency in ms) and compare the throughput and the peak number of live platform threads.
+ */
+public class ExecutionModeBenchmark {
+    private static final int PLATFORM_THREADS = 64;
+
+    public static void main(String[] args) throws Exception {
+        int fetches = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final long latencyMillis = args.length > 1 ? Long.parseLong(args[1]) : 50;
+
+        HttpServer goServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        goServer.createContext("/go/api/pipelines/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = "{\"name\":\"pipeline\",\"counter\":1,\"stages\":[]}".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        goServer.setExecutor(Executors.newCachedThreadPool());
+        goServer.start();
+
+        try {
+            // no limit of our own in the way, and a server per run so the second one doesn't hit the first one's cache
+            Rules rules = new Rules()
+                    .setGoServerHost("http://127.0.0.1:" + goServer.getAddress().getPort())
+                    .setGoMaxConcurrentRequests(fetches);
+            run("platform (" + PLATFORM_THREADS + " threads)", Executors.newFixedThreadPool(PLATFORM_THREADS), new Server(rules), fetches);
+            if (ExecutorFactory.isVirtualThreadsAvailable()) {
+                run("virtual", ExecutorFactory.newVirtualThreadPerTaskExecutor(), new Server(rules), fetches);
+            } else {
+                System.out.println("virtual: not available on Java " + System.getProperty("java.version"));
+            }
+        } finally {
+            goServer.stop(0);
+            ((ExecutorService) goServer.getExecutor()).shutdownNow();
+        }
+    }
+
+    private static void run(String mode, ExecutorService executor, final Server server, int fetches) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        long started = System.nanoTime();
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < fetches; i++) {
+                final int counter = i + 1;
+                results.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return server.getPipelineInstance("pipeline", counter);
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.println(String.format("%s: %d fetches in %.2fs, %.0f fetches/s, peak %d platform threads",
+                mode, fetches, seconds, fetches / seconds, threads.getPeakThreadCount()));
+    }
+}
@@ -0,0 +1,47 @@
+package in.ashwanthkumar.gocd.slack;
+
+import in.ashwanthkumar.gocd.slack.ruleset.Rules;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class ExecutorFactoryTest {
+
+    @After
+    public void tearDown() {
+        ExecutorFactory.shutdown();
+    }
+
+    @Test
+    public void shouldStopTheExecutorsOnShutdownAndCreateThemAgainWhenAskedFor() {
+        Rules rules = new Rules();
+        ExecutorService hedge = ExecutorFactory.hedgeExecutor(rules);
+        assertThat(ExecutorFactory.hedgeExecutor(rules), sameInstance(hedge));
+
+        ExecutorFactory.shutdown();
+
+        assertThat(hedge.isShutdown(), is(true));
+        ExecutorService again = ExecutorFactory.hedgeExecutor(rules);
+        assertThat(again, not(sameInstance(hedge)));
+        assertThat(again.isShutdown(), is(false));
+    }
+
+    @Test
+    public void shouldReplaceTheExecutorsWhenVirtualThreadsAreTurnedOnOrOff() {
+        assumeTrue(ExecutorFactory.isVirtualThreadsAvailable());
+        ExecutorService platform = ExecutorFactory.enrichmentExecutor(new Rules());
+
+        ExecutorService virtual = ExecutorFactory.enrichmentExecutor(new Rules().setVirtualThreads(true));
+
+        assertThat(platform.isShutdown(), is(true));
+        assertThat(virtual, not(sameInstance(platform)));
+        assertThat(ExecutorFactory.enrichmentExecutor(new Rules().setVirtualThreads(true)), sameInstance(virtual));
+    }
+}
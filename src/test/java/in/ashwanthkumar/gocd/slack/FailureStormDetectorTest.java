@@ -0,0 +1,71 @@
+package in.ashwanthkumar.gocd.slack;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+
+import static in.ashwanthkumar.gocd.slack.FailureStormDetector.Verdict.*;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class FailureStormDetectorTest {
+
+    @Test
+    public void shouldCollapseFailuresOverTheThresholdIntoOneIncident() {
+        FailureStormDetector detector = new FailureStormDetector(2, 60000);
+
+        assertThat(detector.record("a", 0), is(DELIVER));
+        assertThat(detector.record("b", 1000), is(DELIVER));
+        assertThat(detector.record("c", 2000), is(STORM_STARTED));
+        assertThat(detector.record("a", 3000), is(SUPPRESS));
+
+        FailureStormDetector.Incident incident = detector.current();
+        assertThat(incident.getStartedAt(), is(2000L));
+        assertThat(incident.getFailures(), is(4));
+        assertThat(new ArrayList<>(incident.getFailuresByPipeline().keySet()), is(Arrays.asList("a", "b", "c")));
+        assertThat(incident.getFailuresByPipeline().get("a"), is(2));
+        assertThat(incident.isOver(), is(false));
+    }
+
+    @Test
+    public void shouldReportGrowthOncePerWindowAndTheEndOfTheStorm() {
+        FailureStormDetector detector = new FailureStormDetector(1, 60000);
+        detector.record("a", 0);
+        detector.record("b", 1000);
+
+        // nothing new yet
+        assertThat(detector.check(30000), is(nullValue()));
+        detector.record("c", 40000);
+        // grew, but was announced less than a window ago
+        assertThat(detector.check(50000), is(nullValue()));
+        detector.record("d", 55000);
+
+        FailureStormDetector.Incident update = detector.check(61000);
+        assertThat(update.isOver(), is(false));
+        assertThat(update.getFailures(), is(4));
+        assertThat(detector.check(62000), is(nullValue()));
+
+        // c and d are out of the window by then
+        FailureStormDetector.Incident over = detector.check(115000);
+        assertThat(over.isOver(), is(true));
+        assertThat(over.getFailures(), is(4));
+        assertThat(detector.current(), is(nullValue()));
+        assertThat(detector.record("e", 116000), is(DELIVER));
+    }
+
+    @Test
+    public void shouldReportEveryGrowthWhenTheIncidentIsEditedInPlace() {
+        FailureStormDetector detector = new FailureStormDetector(1, 60000, true);
+        detector.record("a", 0);
+        detector.record("b", 1000);
+
+        assertThat(detector.check(10000), is(nullValue()));
+        detector.record("c", 15000);
+        assertThat(detector.check(20000).getFailures(), is(3));
+        assertThat(detector.check(30000), is(nullValue()));
+        detector.record("d", 35000);
+        assertThat(detector.check(40000).getFailures(), is(4));
+    }
+}
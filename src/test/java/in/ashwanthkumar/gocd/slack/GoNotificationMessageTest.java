@@ -5,12 +5,21 @@ import in.ashwanthkumar.gocd.slack.ruleset.Rules;
 import in.ashwanthkumar.gocd.slack.util.TestUtils;
 import in.ashwanthkumar.utils.collections.Lists;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class GoNotificationMessageTest {
@@ -133,6 +142,130 @@ public class GoNotificationMessageTest {
         assertThat(revisions.size(), is(2));
     }
 
+    @Test
+    public void shouldFetchEnrichmentOnceForAllRules() throws Exception {
+        Server server = mock(Server.class);
+
+        Pipeline instance = pipeline(PIPELINE_NAME, 10);
+        instance.buildCause = new BuildCause();
+        instance.buildCause.materialRevisions = new MaterialRevision[0];
+        instance.stages = new Stage[]{new Stage()};
+        instance.stages[0].name = "stage";
+        instance.stages[0].jobs = new Job[0];
+
+        History pipelineHistory = new History();
+        pipelineHistory.pipelines = new Pipeline[]{instance};
+        when(server.getPipelineHistory(PIPELINE_NAME)).thenReturn(pipelineHistory);
+        when(server.getPipelineInstance(PIPELINE_NAME, 10)).thenReturn(instance);
+
+        GoNotificationMessage.PipelineInfo info = info(PIPELINE_NAME, 10);
+        info.stage = new GoNotificationMessage.StageInfo();
+        info.stage.name = "stage";
+        info.stage.result = "Failed";
+        GoNotificationMessage message = new GoNotificationMessage(TestUtils.createMockServerFactory(server), info);
+
+        NotificationEnrichment first = message.enrichment(new Rules());
+        NotificationEnrichment second = message.enrichment(new Rules());
+
+        assertThat(second, sameInstance(first));
+        assertThat(first.getDetails().counter, is(10));
+        assertThat(first.getStage().name, is("stage"));
+        assertThat(first.getChanges().size(), is(0));
+        verify(server, times(1)).getPipelineHistory(PIPELINE_NAME);
+        verify(server, times(1)).getPipelineInstance(PIPELINE_NAME, 10);
+    }
+
+    @Test
+    public void shouldSettleForWhatsReadyAtTheDeadlineAndCompleteLater() throws Exception {
+        Server server = mock(Server.class);
+
+        final Pipeline instance = pipeline(PIPELINE_NAME, 10);
+        instance.buildCause = new BuildCause();
+        instance.buildCause.materialRevisions = new MaterialRevision[0];
+        instance.stages = new Stage[]{new Stage()};
+        instance.stages[0].name = "stage";
+        instance.stages[0].jobs = new Job[0];
+
+        History pipelineHistory = new History();
+        pipelineHistory.pipelines = new Pipeline[]{instance};
+        when(server.getPipelineHistory(PIPELINE_NAME)).thenReturn(pipelineHistory);
+        final CountDownLatch slowInstance = new CountDownLatch(1);
+        when(server.getPipelineInstance(PIPELINE_NAME, 10)).thenAnswer(new Answer<Pipeline>() {
+            @Override
+            public Pipeline answer(InvocationOnMock invocation) throws Throwable {
+                slowInstance.await(5, TimeUnit.SECONDS);
+                return instance;
+            }
+        });
+
+        GoNotificationMessage.PipelineInfo info = info(PIPELINE_NAME, 10);
+        info.stage = new GoNotificationMessage.StageInfo();
+        info.stage.name = "stage";
+        info.stage.result = "Failed";
+        GoNotificationMessage message = new GoNotificationMessage(TestUtils.createMockServerFactory(server), info);
+        Rules rules = new Rules().setEnrichmentDeadlineMillis(200);
+
+        NotificationEnrichment partial = message.enrichment(rules);
+        assertThat(partial.isComplete(), is(false));
+        assertThat(partial.isDetailsPending(), is(false));
+        assertThat(partial.getDetails().counter, is(10));
+        assertThat(partial.isChangesPending(), is(true));
+        assertThat(partial.getChanges(), is(nullValue()));
+
+        slowInstance.countDown();
+        NotificationEnrichment complete = partial.whenComplete().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertThat(complete.isComplete(), is(true));
+        assertThat(complete.getDetails().counter, is(10));
+        assertThat(complete.getChanges().size(), is(0));
+        assertThat(message.enrichment(rules), sameInstance(complete));
+    }
+
+    @Test
+    public void shouldRecordUnexpectedResponsesAsErrorsOfTheirPart() throws Exception {
+        Server server = mock(Server.class);
+
+        Pipeline instance = pipeline(PIPELINE_NAME, 10);
+        instance.stages = new Stage[]{new Stage()};
+        instance.stages[0].name = "another-stage";
+        instance.stages[0].jobs = new Job[0];
+
+        History pipelineHistory = new History();
+        pipelineHistory.pipelines = new Pipeline[]{instance};
+        when(server.getPipelineHistory(PIPELINE_NAME)).thenReturn(pipelineHistory);
+        // the instance isn't found, getPipelineInstance answers null
+
+        GoNotificationMessage.PipelineInfo info = info(PIPELINE_NAME, 10);
+        info.stage = new GoNotificationMessage.StageInfo();
+        info.stage.name = "stage";
+        info.stage.result = "Failed";
+        GoNotificationMessage message = new GoNotificationMessage(TestUtils.createMockServerFactory(server), info);
+
+        NotificationEnrichment enrichment = message.enrichment(new Rules().setEnrichmentDeadlineMillis(5000));
+        assertThat(enrichment.isComplete(), is(true));
+        assertThat(enrichment.getDetailsError() instanceof IllegalArgumentException, is(true));
+        assertThat(enrichment.getChangesError() instanceof RuntimeException, is(true));
+    }
+
+    @Test
+    public void shouldClassifyOnlyOnce() throws Exception {
+        Server server = mock(Server.class);
+        when(server.getPipelineHistory(PIPELINE_NAME)).thenThrow(new IOException("server is down"));
+
+        GoNotificationMessage.PipelineInfo info = info(PIPELINE_NAME, 10);
+        info.stage = new GoNotificationMessage.StageInfo();
+        info.stage.name = "stage";
+        info.stage.counter = "1";
+        info.stage.state = "Passed";
+        info.stage.result = "Passed";
+        GoNotificationMessage message = new GoNotificationMessage(TestUtils.createMockServerFactory(server), info);
+
+        message.tryToFixStageResult(new Rules());
+        message.tryToFixStageResult(new Rules());
+
+        assertThat(message.getStageResult(), is("Passed"));
+        verify(server, times(1)).getPipelineHistory(PIPELINE_NAME);
+    }
+
     private static Pipeline pipeline(String name, int counter) {
         Pipeline pipeline = new Pipeline();
         pipeline.name = name;
@@ -107,6 +107,22 @@ public class GoNotificationPluginTest {
         assertThat(rv.responseBody(), equalTo(NOTIFICATION_INTEREST_RESPONSE));
     }
 
+    @Test
+    public void shouldQueueStageNotificationsReceivedBeforeRulesAreLoaded() {
+        GoNotificationPlugin plugin = createGoNotificationPluginFromConfigAtEnvironmentVariableLocation(GO_NOTIFY_CONF);
+
+        GoPluginApiRequest request = mock(GoPluginApiRequest.class);
+        when(request.requestName()).thenReturn(REQUEST_STAGE_STATUS);
+        when(request.requestBody()).thenReturn("{\"pipeline\":{\"name\":\"pipeline\",\"counter\":\"1\",\"group\":\"ci\"," +
+                "\"stage\":{\"name\":\"build\",\"counter\":\"1\",\"state\":\"Failed\",\"result\":\"Failed\"}}}");
+
+        GoPluginApiResponse rv = plugin.handle(request);
+
+        assertThat(rv.responseCode(), is(SUCCESS_RESPONSE_CODE));
+        assertThat(plugin.getPendingNotificationsCount(), is(1));
+        assertThat(plugin.getStartupTimeMillis(), is(-1L));
+    }
+
     public GoNotificationPlugin createGoNotificationPluginFromConfigAtHomeDir() {
         String folder = TestUtils.getResourceDirectory("configs/go_notify.conf");
 
@@ -0,0 +1,254 @@
+package in.ashwanthkumar.gocd.slack;
+
+import in.ashwanthkumar.gocd.slack.jsonapi.Server;
+import in.ashwanthkumar.gocd.slack.ruleset.Destination;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineRule;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+import in.ashwanthkumar.gocd.slack.ruleset.Rules;
+import in.ashwanthkumar.gocd.slack.util.TestUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+public class PipelineListenerTest {
+
+    @Test
+    public void shouldDeliverToAllMatchedRulesConcurrentlyAndReportPartialFailures() throws Exception {
+        Rules rules = new Rules()
+                .setProcessAllRules(true)
+                .setDeliveryThreads(3)
+                .setPipelineRules(Arrays.asList(rule("#one"), rule("#two"), rule("#broken")));
+        // every delivery waits for the other two, so this only passes if they run at the same time
+        final CountDownLatch allStarted = new CountDownLatch(3);
+        final Set<String> delivered = new ConcurrentSkipListSet<>();
+        PipelineListener listener = new RecordingListener(rules) {
+            @Override
+            public void onCancelled(PipelineRule rule, GoNotificationMessage message) throws Exception {
+                allStarted.countDown();
+                if (!allStarted.await(5, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("deliveries ran one after another");
+                }
+                if (rule.getChannel().equals("#broken")) {
+                    throw new IllegalStateException("channel_not_found");
+                }
+                delivered.add(rule.getChannel());
+            }
+        };
+
+        try {
+            listener.notify(cancelledMessage());
+            fail("expected the failed delivery to be reported");
+        } catch (DeliveryFailedException e) {
+            assertThat(e.getAttempted(), is(3));
+            assertThat(e.getFailures(), is(Collections.singletonList("#broken: channel_not_found")));
+        } finally {
+            listener.close();
+        }
+        assertThat(delivered, is((Set<String>) new HashSet<>(Arrays.asList("#one", "#two"))));
+    }
+
+    @Test
+    public void shouldCompleteAsyncDeliveriesWithoutTheDeliveryThreads() throws Exception {
+        Rules rules = new Rules()
+                .setProcessAllRules(true)
+                .setPipelineRules(Arrays.asList(rule("#one"), rule("#broken")));
+        final ExecutorService client = Executors.newSingleThreadExecutor();
+        final Set<String> startedOn = new ConcurrentSkipListSet<>();
+        PipelineListener listener = new AsyncPipelineListener(rules) {
+            @Override
+            public CompletionStage<DeliveryResult> onNotification(final PipelineRule rule, PipelineStatus status, GoNotificationMessage message) {
+                startedOn.add(Thread.currentThread().getName());
+                return CompletableFuture.supplyAsync(new Supplier<DeliveryResult>() {
+                    @Override
+                    public DeliveryResult get() {
+                        if (rule.getChannel().equals("#broken")) {
+                            return DeliveryResult.failed(rule, new IllegalStateException("channel_not_found"));
+                        }
+                        return DeliveryResult.delivered(rule);
+                    }
+                }, client);
+            }
+        };
+
+        try {
+            listener.notify(cancelledMessage());
+            fail("expected the failed delivery to be reported");
+        } catch (DeliveryFailedException e) {
+            assertThat(e.getFailures(), is(Collections.singletonList("#broken: channel_not_found")));
+        } finally {
+            listener.close();
+            client.shutdown();
+        }
+        assertThat(startedOn, is((Set<String>) Collections.singleton(Thread.currentThread().getName())));
+    }
+
+    @Test
+    public void shouldGatherDigestedStatusesAndPostThemOnceTheDigestIsFull() throws Exception {
+        Rules rules = new Rules()
+                .setDigestMaxSize(2)
+                .setPipelineRules(Collections.singletonList(rule("#builds")
+                        .setDigest(new HashSet<>(Collections.singletonList(PipelineStatus.CANCELLED)))));
+        final List<List<NotificationDigest.Entry>> digests = new ArrayList<>();
+        PipelineListener listener = new RecordingListener(rules) {
+            @Override
+            public void onCancelled(PipelineRule rule, GoNotificationMessage message) throws Exception {
+                fail("digested notifications shouldn't be posted on their own");
+            }
+
+            @Override
+            public void onDigest(Destination destination, List<NotificationDigest.Entry> entries) throws Exception {
+                assertThat(destination.getChannel(), is("#builds"));
+                digests.add(entries);
+            }
+        };
+
+        try {
+            listener.notify(cancelledMessage());
+            assertThat(digests.size(), is(0));
+            assertThat(listener.getDigestSize(), is(1));
+
+            listener.notify(cancelledMessage());
+            assertThat(digests.size(), is(1));
+            assertThat(digests.get(0).size(), is(2));
+            assertThat(digests.get(0).get(0).getPipeline(), is("pipeline"));
+            assertThat(digests.get(0).get(0).getStatus(), is(PipelineStatus.CANCELLED));
+            assertThat(listener.getDigestSize(), is(0));
+        } finally {
+            listener.close();
+        }
+    }
+
+    @Test
+    public void shouldStillDeliverOnTheCallingThreadOnceClosed() throws Exception {
+        Rules rules = new Rules()
+                .setProcessAllRules(true)
+                .setPipelineRules(Arrays.asList(rule("#one"), rule("#two").setDigest(
+                        new HashSet<>(Collections.singletonList(PipelineStatus.CANCELLED)))));
+        final Set<String> deliveredOn = new ConcurrentSkipListSet<>();
+        final Set<String> delivered = new ConcurrentSkipListSet<>();
+        PipelineListener listener = new RecordingListener(rules) {
+            @Override
+            public void onCancelled(PipelineRule rule, GoNotificationMessage message) throws Exception {
+                deliveredOn.add(Thread.currentThread().getName());
+                delivered.add(rule.getChannel());
+            }
+        };
+        listener.close();
+
+        listener.notify(cancelledMessage());
+        assertThat(delivered, is((Set<String>) new HashSet<>(Arrays.asList("#one", "#two"))));
+        assertThat(deliveredOn, is((Set<String>) Collections.singleton(Thread.currentThread().getName())));
+        assertThat(listener.getDigestSize(), is(0));
+    }
+
+    @Test
+    public void shouldRouteOnceAndDeliverWhatWasRouted() throws Exception {
+        PipelineRule posted = rule("#builds");
+        PipelineRule digested = rule("#digest").setDigest(new HashSet<>(Collections.singletonList(PipelineStatus.CANCELLED)));
+        Rules rules = new Rules()
+                .setProcessAllRules(true)
+                .setPipelineRules(Arrays.asList(posted, digested));
+        final List<String> delivered = new ArrayList<>();
+        PipelineListener listener = new RecordingListener(rules) {
+            @Override
+            public void onCancelled(PipelineRule rule, GoNotificationMessage message) throws Exception {
+                delivered.add(rule.getChannel());
+            }
+        };
+
+        try {
+            RoutedNotification routed = listener.route(cancelledMessage());
+            assertThat(routed.needsEnrichment(), is(true));
+            assertThat(listener.getDigestSize(), is(1));
+            routed.deliver();
+
+            assertThat(delivered, is(Collections.singletonList("#builds")));
+            assertThat(posted.getStats().getEvaluations(), is(1L));
+            assertThat(digested.getStats().getEvaluations(), is(1L));
+        } finally {
+            listener.close();
+        }
+    }
+
+    @Test
+    public void shouldRouteNothingForDigestedNotifications() throws Exception {
+        Rules rules = new Rules().setPipelineRules(Collections.singletonList(rule("#builds")
+                .setDigest(new HashSet<>(Collections.singletonList(PipelineStatus.CANCELLED)))));
+        PipelineListener listener = new RecordingListener(rules);
+        try {
+            assertThat(listener.route(cancelledMessage()), is(nullValue()));
+            assertThat(listener.getDigestSize(), is(1));
+        } finally {
+            listener.close();
+        }
+    }
+
+    private static PipelineRule rule(String channel) {
+        return new PipelineRule("pipeline", ".*")
+                .setGroupRegex(".*")
+                .setChannel(channel)
+                .setStatus(new HashSet<>(Collections.singletonList(PipelineStatus.CANCELLED)));
+    }
+
+    private static GoNotificationMessage cancelledMessage() {
+        GoNotificationMessage.PipelineInfo pipeline = new GoNotificationMessage.PipelineInfo();
+        pipeline.name = "pipeline";
+        pipeline.counter = "1";
+        pipeline.group = "ci";
+        pipeline.stage = new GoNotificationMessage.StageInfo();
+        pipeline.stage.name = "build";
+        pipeline.stage.counter = "1";
+        pipeline.stage.state = "Cancelled";
+        pipeline.stage.result = "Cancelled";
+        return new GoNotificationMessage(TestUtils.createMockServerFactory(mock(Server.class)), pipeline);
+    }
+
+    static class RecordingListener extends PipelineListener {
+        RecordingListener(Rules rules) {
+            super(rules);
+        }
+
+        @Override
+        public void onBuilding(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        }
+
+        @Override
+        public void onPassed(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        }
+
+        @Override
+        public void onFailed(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        }
+
+        @Override
+        public void onBroken(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        }
+
+        @Override
+        public void onFixed(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        }
+
+        @Override
+        public void onCancelled(PipelineRule rule, GoNotificationMessage message) throws Exception {
+        }
+    }
+}
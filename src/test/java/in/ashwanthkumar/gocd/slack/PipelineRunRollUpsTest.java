@@ -0,0 +1,98 @@
+package in.ashwanthkumar.gocd.slack;
+
+import in.ashwanthkumar.gocd.slack.jsonapi.*;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+import in.ashwanthkumar.gocd.slack.ruleset.Rules;
+import in.ashwanthkumar.gocd.slack.util.TestUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.*;
+
+public class PipelineRunRollUpsTest {
+
+    @Test
+    public void shouldTrackEveryStageOfARunAndEnrichItOnce() throws Exception {
+        Server server = mock(Server.class);
+        Pipeline instance = new Pipeline();
+        instance.name = "pipeline";
+        instance.counter = 7;
+        instance.buildCause = new BuildCause();
+        instance.buildCause.materialRevisions = new MaterialRevision[0];
+        History history = new History();
+        history.pipelines = new Pipeline[]{instance};
+        when(server.getPipelineHistory("pipeline")).thenReturn(history);
+        when(server.getPipelineInstance("pipeline", 7)).thenReturn(instance);
+        ServerFactory serverFactory = TestUtils.createMockServerFactory(server);
+
+        PipelineRunRollUps rollUps = new PipelineRunRollUps(10);
+        GoNotificationMessage build = message(serverFactory, "build", "Passed");
+        GoNotificationMessage deploy = message(serverFactory, "deploy", "Building");
+
+        PipelineRunRollUps.Run run = rollUps.run(build);
+        run.update("build", "1", PipelineStatus.PASSED);
+        NotificationEnrichment first = run.enrichment(build, new Rules());
+
+        assertThat(rollUps.run(deploy), sameInstance(run));
+        run.update("deploy", "1", PipelineStatus.BUILDING);
+        run.update("deploy", "1", PipelineStatus.FAILED);
+        NotificationEnrichment second = run.enrichment(deploy, new Rules());
+
+        assertThat(second, sameInstance(first));
+        verify(server, times(1)).getPipelineHistory("pipeline");
+        verify(server, times(1)).getPipelineInstance("pipeline", 7);
+
+        List<PipelineRunRollUps.StageState> stages = run.getStages();
+        assertThat(stages.size(), is(2));
+        assertThat(stages.get(0).getName(), is("build"));
+        assertThat(stages.get(0).getStatus(), is(PipelineStatus.PASSED));
+        assertThat(stages.get(1).getName(), is("deploy"));
+        assertThat(stages.get(1).getStatus(), is(PipelineStatus.FAILED));
+    }
+
+    @Test
+    public void shouldFetchAFailedEnrichmentAgainForTheNextStage() throws Exception {
+        Server server = mock(Server.class);
+        Pipeline instance = new Pipeline();
+        instance.name = "pipeline";
+        instance.counter = 7;
+        instance.buildCause = new BuildCause();
+        instance.buildCause.materialRevisions = new MaterialRevision[0];
+        History history = new History();
+        history.pipelines = new Pipeline[]{instance};
+        when(server.getPipelineHistory("pipeline"))
+                .thenThrow(new IOException("server is down"))
+                .thenReturn(history);
+        when(server.getPipelineInstance("pipeline", 7))
+                .thenThrow(new IOException("server is down"))
+                .thenReturn(instance);
+        ServerFactory serverFactory = TestUtils.createMockServerFactory(server);
+
+        PipelineRunRollUps.Run run = new PipelineRunRollUps(10).run(message(serverFactory, "build", "Passed"));
+        NotificationEnrichment failed = run.enrichment(message(serverFactory, "build", "Passed"), new Rules());
+        assertThat(failed.getDetailsError() instanceof IOException, is(true));
+
+        NotificationEnrichment second = run.enrichment(message(serverFactory, "deploy", "Building"), new Rules());
+        assertThat(second.getDetailsError(), is(nullValue()));
+        assertThat(second.getChangesError(), is(nullValue()));
+        assertThat(run.enrichment(message(serverFactory, "deploy", "Passed"), new Rules()), sameInstance(second));
+        verify(server, times(2)).getPipelineHistory("pipeline");
+    }
+
+    private static GoNotificationMessage message(ServerFactory serverFactory, String stage, String result) {
+        GoNotificationMessage.PipelineInfo pipeline = new GoNotificationMessage.PipelineInfo();
+        pipeline.name = "pipeline";
+        pipeline.counter = "7";
+        pipeline.stage = new GoNotificationMessage.StageInfo();
+        pipeline.stage.name = stage;
+        pipeline.stage.counter = "1";
+        pipeline.stage.result = result;
+        return new GoNotificationMessage(serverFactory, pipeline);
+    }
+}
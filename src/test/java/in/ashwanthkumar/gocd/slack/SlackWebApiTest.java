@@ -0,0 +1,187 @@
+package in.ashwanthkumar.gocd.slack;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import in.ashwanthkumar.slack.webhook.SlackAttachment;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class SlackWebApiTest {
+
+    private HttpServer server;
+    private final List<String> methods = Collections.synchronizedList(new ArrayList<String>());
+    private final List<JsonObject> payloads = Collections.synchronizedList(new ArrayList<JsonObject>());
+    private volatile String updateError;
+    private int posts;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String method = exchange.getRequestURI().getPath().substring("/api/".length());
+                JsonObject payload = new JsonParser().parse(IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8)).getAsJsonObject();
+                methods.add(method);
+                payloads.add(payload);
+
+                String response;
+                if (!"Bearer xoxb-test".equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                    response = "{\"ok\":false,\"error\":\"invalid_auth\"}";
+                } else if (method.equals("chat.update") && updateError != null) {
+                    response = "{\"ok\":false,\"error\":\"" + updateError + "\"}";
+                } else if (method.equals("chat.update")) {
+                    response = "{\"ok\":true,\"channel\":\"" + payload.get("channel").getAsString() + "\",\"ts\":\"" + payload.get("ts").getAsString() + "\"}";
+                } else {
+                    response = "{\"ok\":true,\"channel\":\"C0001\",\"ts\":\"1600000000.00010" + (++posts) + "\"}";
+                }
+                byte[] body = response.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldUpdateTheMessagePostedForTheSameKey() throws IOException {
+        SlackWebApi api = api(10);
+
+        SlackWebApi.PostedMessage building = api.postOrUpdate("#builds/pipeline/1/build/1", "#builds", new SlackAttachment("").title("Building"));
+        SlackWebApi.PostedMessage passed = api.postOrUpdate("#builds/pipeline/1/build/1", "#builds", new SlackAttachment("").title("Passed"));
+
+        assertThat(methods, is(Arrays.asList("chat.postMessage", "chat.update")));
+        assertThat(payloads.get(0).get("channel").getAsString(), is("builds"));
+        assertThat(payloads.get(0).get("username").getAsString(), is("gocd-slack-bot"));
+        assertThat(payloads.get(1).get("channel").getAsString(), is("C0001"));
+        assertThat(payloads.get(1).get("ts").getAsString(), is(building.getTs()));
+        assertThat(payloads.get(1).get("attachments").getAsJsonArray().get(0).getAsJsonObject().get("title").getAsString(), is("Passed"));
+        assertThat(passed.getTs(), is(building.getTs()));
+    }
+
+    @Test
+    public void shouldNotGoBackToAnOlderState() throws IOException {
+        SlackWebApi api = api(10);
+
+        api.postOrUpdate("#builds/pipeline/1/build/1", "#builds", new SlackAttachment("").title("Passed"), 2000);
+        // delivered late, GoCD sent it before the one above
+        api.postOrUpdate("#builds/pipeline/1/build/1", "#builds", new SlackAttachment("").title("Building"), 1000);
+
+        assertThat(methods, is(Collections.singletonList("chat.postMessage")));
+    }
+
+    @Test
+    public void shouldPostASingleMessageForConcurrentCallsAboutTheSameKey() throws Exception {
+        final SlackWebApi api = api(10);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        api.postOrUpdate("#builds/pipeline/1/build/1", "#builds", new SlackAttachment("").title("Building"), 1000);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+
+        assertThat(methods.size(), is(8));
+        assertThat(Collections.frequency(methods, "chat.postMessage"), is(1));
+    }
+
+    @Test
+    public void shouldPostAgainWhenTheMessageIsGoneOrForgotten() throws IOException {
+        SlackWebApi api = api(1);
+
+        api.postOrUpdate("#builds/pipeline/1/build/1", "#builds", new SlackAttachment("").title("Building"));
+        // pushes the first one out of the tracked messages
+        api.postOrUpdate("#builds/pipeline/2/build/1", "#builds", new SlackAttachment("").title("Building"));
+        api.postOrUpdate("#builds/pipeline/1/build/1", "#builds", new SlackAttachment("").title("Passed"));
+
+        updateError = "message_not_found";
+        api.postOrUpdate("#builds/pipeline/1/build/1", "#builds", new SlackAttachment("").title("Failed"));
+
+        assertThat(methods, is(Arrays.asList("chat.postMessage", "chat.postMessage", "chat.postMessage",
+                "chat.update", "chat.postMessage")));
+    }
+
+    @Test(expected = SlackWebApi.SlackApiException.class)
+    public void shouldFailWhenSlackSaysSo() throws IOException {
+        new SlackWebApi(baseUrl(), "not-the-token", null, null, null, 10)
+                .postOrUpdate(null, "#builds", new SlackAttachment("").title("Building"));
+    }
+
+    @Test
+    public void shouldGiveUpOnASlackThatDoesNotAnswer() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        server.createContext("/stalled/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+            }
+        });
+        SlackWebApi api = new SlackWebApi("http://127.0.0.1:" + server.getAddress().getPort() + "/stalled/", "xoxb-test",
+                null, null, null, 10, 200);
+
+        try {
+            api.postOrUpdate(null, "#builds", new SlackAttachment("").title("Building"));
+            fail("expected the call to time out");
+        } catch (SocketTimeoutException e) {
+            // expected
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private SlackWebApi api(int maxTrackedMessages) {
+        return new SlackWebApi(baseUrl(), "xoxb-test", null, "gocd-slack-bot", null, maxTrackedMessages);
+    }
+
+    private String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/api/";
+    }
+}
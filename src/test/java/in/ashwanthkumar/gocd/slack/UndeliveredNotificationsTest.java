@@ -0,0 +1,47 @@
+package in.ashwanthkumar.gocd.slack;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class UndeliveredNotificationsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldHandBackWhatWasSavedOnlyOnce() {
+        File dataDirectory = new File(folder.getRoot(), ".go_notify");
+        List<String> requestBodies = Arrays.asList(
+                "{\"pipeline\":{\"name\":\"up42\",\"counter\":\"1\"}}",
+                "{\"pipeline\":{\"name\":\"up42\",\"counter\":\"2\"}}");
+
+        new UndeliveredNotifications(dataDirectory).save(requestBodies);
+
+        UndeliveredNotifications undelivered = new UndeliveredNotifications(dataDirectory);
+        assertThat(undelivered.takeAll(), is(requestBodies));
+        assertThat(undelivered.takeAll(), is(Collections.<String>emptyList()));
+        assertThat(new File(dataDirectory, UndeliveredNotifications.FILE_NAME).exists(), is(false));
+    }
+
+    @Test
+    public void shouldAddToWhatWasSaved() {
+        File dataDirectory = new File(folder.getRoot(), ".go_notify");
+        String first = "{\"pipeline\":{\"name\":\"up42\",\"counter\":\"1\"}}";
+        String late = "{\"pipeline\":{\"name\":\"up42\",\"counter\":\"2\"}}";
+
+        UndeliveredNotifications undelivered = new UndeliveredNotifications(dataDirectory);
+        undelivered.save(Collections.singletonList(first));
+        undelivered.add(late);
+
+        assertThat(new UndeliveredNotifications(dataDirectory).takeAll(), is(Arrays.asList(first, late)));
+    }
+}
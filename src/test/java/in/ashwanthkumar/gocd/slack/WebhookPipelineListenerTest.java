@@ -0,0 +1,164 @@
+package in.ashwanthkumar.gocd.slack;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineRule;
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+import in.ashwanthkumar.gocd.slack.ruleset.Rules;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class WebhookPipelineListenerTest {
+
+    private HttpServer server;
+    private final List<JsonArray> batches = Collections.synchronizedList(new ArrayList<JsonArray>());
+    private final List<String> encodings = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/events", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+                encodings.add(String.valueOf(encoding));
+                InputStream body = "gzip".equals(encoding) ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody();
+                JsonObject payload = new JsonParser().parse(IOUtils.toString(body, StandardCharsets.UTF_8)).getAsJsonObject();
+                batches.add(payload.get("events").getAsJsonArray());
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldSendEventsInBatches() throws Exception {
+        WebhookPipelineListener listener = new WebhookPipelineListener(rules().setEventWebhookBatchSize(2));
+        try {
+            listener.onBuilding(rule(), message("1", "Building"));
+            assertThat(batches.size(), is(0));
+            listener.onPassed(rule(), message("1", "Passed"));
+            listener.onFailed(rule(), message("2", "Failed"));
+        } finally {
+            // sends what's left
+            listener.close();
+        }
+
+        assertThat(batches.size(), is(2));
+        assertThat(batches.get(0).size(), is(2));
+        JsonObject first = batches.get(0).get(0).getAsJsonObject();
+        assertThat(first.get("pipeline").getAsString(), is("pipeline"));
+        assertThat(first.get("counter").getAsString(), is("1"));
+        assertThat(first.get("stage").getAsString(), is("build"));
+        assertThat(first.get("status").getAsString(), is("building"));
+        assertThat(first.get("channel").getAsString(), is("#builds"));
+        assertThat(batches.get(1).get(0).getAsJsonObject().get("status").getAsString(), is("failed"));
+        assertThat(encodings.get(0), is("null"));
+    }
+
+    @Test
+    public void shouldGzipTheBatchesWhenAskedTo() throws Exception {
+        WebhookPipelineListener listener = new WebhookPipelineListener(rules().setEventWebhookGzip(true));
+        listener.onCancelled(rule(), message("1", "Cancelled"));
+        listener.flush();
+        listener.close();
+
+        assertThat(batches.size(), is(1));
+        assertThat(encodings.get(0), is("gzip"));
+        assertThat(batches.get(0).get(0).getAsJsonObject().get("status").getAsString(), is("cancelled"));
+    }
+
+    @Test
+    public void shouldCountTheEventsOfFailedBatchesRatherThanFailTheNotification() throws Exception {
+        server.createContext("/broken", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+            }
+        });
+        WebhookPipelineListener listener = new WebhookPipelineListener(new Rules()
+                .setEventWebhookUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/broken")
+                .setEventWebhookBatchSize(2));
+        listener.onBuilding(rule(), message("1", "Building"));
+        // fills the batch, which fails on the listener's thread
+        listener.onPassed(rule(), message("1", "Passed"));
+        listener.close();
+
+        assertThat(listener.getLostEvents(), is(2L));
+    }
+
+    @Test
+    public void shouldSendAnEventForEveryMatchedRuleEvenInAFailureStorm() throws Exception {
+        Set<PipelineStatus> failed = new HashSet<>(Collections.singletonList(PipelineStatus.FAILED));
+        Rules rules = rules()
+                .setProcessAllRules(true)
+                .setFailureStormThreshold(1)
+                .setPipelineRules(Arrays.asList(
+                        rule().setGroupRegex(".*").setStatus(failed).setDigest(failed),
+                        rule().setGroupRegex(".*").setStatus(failed)));
+        WebhookPipelineListener listener = new WebhookPipelineListener(rules);
+        try {
+            listener.notify(message("1", "Failed"));
+            listener.notify(message("2", "Failed"));
+            listener.notify(message("3", "Failed"));
+        } finally {
+            listener.close();
+        }
+
+        int events = 0;
+        for (JsonArray batch : batches) {
+            events += batch.size();
+        }
+        assertThat(events, is(6));
+        assertThat(listener.getDigestSize(), is(0));
+    }
+
+    private Rules rules() {
+        return new Rules().setEventWebhookUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/events");
+    }
+
+    private static PipelineRule rule() {
+        return new PipelineRule("pipeline", ".*").setChannel("#builds");
+    }
+
+    private static GoNotificationMessage message(String counter, String result) {
+        GoNotificationMessage.PipelineInfo pipeline = new GoNotificationMessage.PipelineInfo();
+        pipeline.name = "pipeline";
+        pipeline.counter = counter;
+        pipeline.group = "ci";
+        pipeline.stage = new GoNotificationMessage.StageInfo();
+        pipeline.stage.name = "build";
+        pipeline.stage.counter = "1";
+        pipeline.stage.state = result;
+        pipeline.stage.result = result;
+        return new GoNotificationMessage(null, pipeline);
+    }
+}
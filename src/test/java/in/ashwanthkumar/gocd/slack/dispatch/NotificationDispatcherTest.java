@@ -0,0 +1,56 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class NotificationDispatcherTest {
+
+    @Test
+    public void shouldDeliverEveryPipelineInOrder() throws InterruptedException {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(4, Collections.<PipelineStatus, Integer>emptyMap(), 1000);
+        final Map<String, List<Integer>> delivered = new HashMap<>();
+        final CountDownLatch done = new CountDownLatch(8 * 50);
+        try {
+            for (int i = 0; i < 50; i++) {
+                for (int p = 0; p < 8; p++) {
+                    final String pipeline = "pipeline-" + p;
+                    final int counter = i;
+                    PipelineStatus status = i % 2 == 0 ? PipelineStatus.BUILDING : PipelineStatus.FAILED;
+                    dispatcher.submit(pipeline, status, new Runnable() {
+                        @Override
+                        public void run() {
+                            synchronized (delivered) {
+                                if (!delivered.containsKey(pipeline)) {
+                                    delivered.put(pipeline, new ArrayList<Integer>());
+                                }
+                                delivered.get(pipeline).add(counter);
+                            }
+                            done.countDown();
+                        }
+                    });
+                }
+            }
+            assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+        } finally {
+            dispatcher.close();
+        }
+
+        for (List<Integer> counters : delivered.values()) {
+            List<Integer> sorted = new ArrayList<>(counters);
+            Collections.sort(sorted);
+            assertThat(counters, is(sorted));
+        }
+        assertThat(delivered.size(), is(8));
+    }
+}
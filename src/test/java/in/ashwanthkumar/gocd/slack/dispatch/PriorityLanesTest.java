@@ -0,0 +1,76 @@
+package in.ashwanthkumar.gocd.slack.dispatch;
+
+import in.ashwanthkumar.gocd.slack.ruleset.PipelineStatus;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class PriorityLanesTest {
+
+    @Test
+    public void shouldTakeTheMostImportantStatusFirst() {
+        PriorityLanes<String> lanes = new PriorityLanes<>(Collections.<PipelineStatus, Integer>emptyMap(), 10);
+        lanes.offer(PipelineStatus.BUILDING, "building");
+        lanes.offer(PipelineStatus.PASSED, "passed");
+        lanes.offer(PipelineStatus.FAILED, "failed-1");
+        lanes.offer(PipelineStatus.FAILED, "failed-2");
+
+        assertThat(lanes.poll(), is("failed-1"));
+        assertThat(lanes.poll(), is("failed-2"));
+        assertThat(lanes.poll(), is("passed"));
+        assertThat(lanes.poll(), is("building"));
+        assertThat(lanes.poll(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldKeepTheOrderOfItemsWithTheSameKey() {
+        PriorityLanes<String> lanes = new PriorityLanes<>(Collections.<PipelineStatus, Integer>emptyMap(), 10);
+        lanes.offer(PipelineStatus.BUILDING, "up42", "up42-building");
+        lanes.offer(PipelineStatus.PASSED, "other", "other-passed");
+        lanes.offer(PipelineStatus.FAILED, "up42", "up42-failed");
+        lanes.offer(PipelineStatus.CANCELLED, "other", "other-cancelled");
+
+        // up42 failed but its building notification has to go first, other's passed one can't be overtaken either
+        assertThat(lanes.poll(), is("other-passed"));
+        assertThat(lanes.poll(), is("other-cancelled"));
+        assertThat(lanes.poll(), is("up42-building"));
+        assertThat(lanes.poll(), is("up42-failed"));
+    }
+
+    @Test
+    public void shouldShedTheLeastImportantStatusOnceFull() {
+        PriorityLanes<String> lanes = new PriorityLanes<>(Collections.singletonMap(PipelineStatus.BUILDING, 2), 3);
+        lanes.offer(PipelineStatus.BUILDING, "building-1");
+        lanes.offer(PipelineStatus.BUILDING, "building-2");
+        // the building lane is full, the oldest one goes
+        assertThat(lanes.offer(PipelineStatus.BUILDING, "building-3"), is(true));
+        lanes.offer(PipelineStatus.PASSED, "passed");
+        // the whole queue is full, building goes before passed
+        assertThat(lanes.offer(PipelineStatus.FAILED, "failed"), is(true));
+        // a newer building one replaces the older one
+        assertThat(lanes.offer(PipelineStatus.BUILDING, "building-4"), is(true));
+
+        Map<PipelineStatus, Long> shed = lanes.getShed();
+        assertThat(shed.get(PipelineStatus.BUILDING), is(3L));
+        assertThat(shed.get(PipelineStatus.PASSED), is(0L));
+        assertThat(lanes.poll(), is("failed"));
+        assertThat(lanes.poll(), is("passed"));
+        assertThat(lanes.poll(), is("building-4"));
+    }
+
+    @Test
+    public void shouldShedTheNewOneWhenEverythingQueuedIsMoreImportant() {
+        PriorityLanes<String> lanes = new PriorityLanes<>(Collections.<PipelineStatus, Integer>emptyMap(), 2);
+        lanes.offer(PipelineStatus.FAILED, "failed-1");
+        lanes.offer(PipelineStatus.FAILED, "failed-2");
+
+        assertThat(lanes.offer(PipelineStatus.PASSED, "passed"), is(false));
+        assertThat(lanes.getShed().get(PipelineStatus.PASSED), is(1L));
+        assertThat(lanes.size(), is(2));
+    }
+}
@@ -0,0 +1,143 @@
+package in.ashwanthkumar.gocd.slack.flow;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class StagedPipelineTest {
+
+    private static final Function<String, String> PIPELINE = new Function<String, String>() {
+        @Override
+        public String apply(String item) {
+            return item.substring(0, item.indexOf('/'));
+        }
+    };
+
+    @Test
+    public void shouldPassItemsThroughEveryStageInOrderPerKey() throws Exception {
+        final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+        StagedPipeline<String> pipeline = new StagedPipeline<>(4, Arrays.asList(
+                new Stage<>("route", 3, 4, PIPELINE, new Stage.Step<String>() {
+                    @Override
+                    public String process(String item) {
+                        // stops here
+                        return item.startsWith("ignored") ? null : item;
+                    }
+                }),
+                new Stage<>("deliver", 2, 4, PIPELINE, new Stage.Step<String>() {
+                    @Override
+                    public String process(String item) {
+                        delivered.add(item);
+                        return item;
+                    }
+                })));
+
+        for (int i = 1; i <= 20; i++) {
+            pipeline.submit("a/" + i);
+            pipeline.submit("b/" + i);
+            pipeline.submit("ignored/" + i);
+        }
+        assertThat(pipeline.awaitIdle(5000), is(true));
+
+        List<String> a = new ArrayList<>(), b = new ArrayList<>();
+        for (String item : delivered) {
+            (item.startsWith("a") ? a : b).add(item);
+        }
+        assertThat(a.size(), is(20));
+        assertThat(b.size(), is(20));
+        for (int i = 0; i < 20; i++) {
+            assertThat(a.get(i), is("a/" + (i + 1)));
+            assertThat(b.get(i), is("b/" + (i + 1)));
+        }
+
+        List<Map<String, Object>> stats = pipeline.getStageStats();
+        assertThat(stats.get(0).get("name"), is((Object) "route"));
+        assertThat(stats.get(0).get("processed"), is((Object) 60L));
+        assertThat(stats.get(0).get("dropped"), is((Object) 20L));
+        assertThat(stats.get(1).get("processed"), is((Object) 40L));
+        assertThat(pipeline.getInFlight().size(), is(0));
+        pipeline.close();
+    }
+
+    @Test
+    public void shouldCountTheItemsAStageFailedOn() throws Exception {
+        StagedPipeline<String> pipeline = new StagedPipeline<>(4, Collections.singletonList(
+                new Stage<>("deliver", 1, 4, PIPELINE, new Stage.Step<String>() {
+                    @Override
+                    public String process(String item) throws Exception {
+                        if (item.startsWith("down")) {
+                            throw new IOException("Slack is down");
+                        }
+                        return item;
+                    }
+                })));
+
+        pipeline.submit("up/1");
+        pipeline.submit("down/1");
+        pipeline.submit("down/2");
+        assertThat(pipeline.awaitIdle(5000), is(true));
+
+        Map<String, Object> stats = pipeline.getStageStats().get(0);
+        assertThat(stats.get("processed"), is((Object) 3L));
+        assertThat(stats.get("failed"), is((Object) 2L));
+        assertThat(stats.get("dropped"), is((Object) 0L));
+        pipeline.close();
+    }
+
+    @Test
+    public void shouldMakeTheIntakeWaitWhileTheLastStageIsStuck() throws Exception {
+        final CountDownLatch stuck = new CountDownLatch(1);
+        final AtomicInteger delivered = new AtomicInteger();
+        final StagedPipeline<String> pipeline = new StagedPipeline<>(1, Arrays.asList(
+                new Stage<>("parse", 1, 1, PIPELINE, new Stage.Step<String>() {
+                    @Override
+                    public String process(String item) {
+                        return item;
+                    }
+                }),
+                new Stage<>("deliver", 1, 1, PIPELINE, new Stage.Step<String>() {
+                    @Override
+                    public String process(String item) throws Exception {
+                        stuck.await(5, TimeUnit.SECONDS);
+                        delivered.incrementAndGet();
+                        return item;
+                    }
+                })));
+
+        final AtomicInteger submitted = new AtomicInteger();
+        Thread intake = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= 50; i++) {
+                    pipeline.submit("a/" + i);
+                    submitted.incrementAndGet();
+                }
+            }
+        });
+        intake.start();
+        intake.join(500);
+
+        // the buffers in between are small, the rest waits at the intake
+        assertThat(intake.isAlive(), is(true));
+        assertThat(submitted.get() < 50, is(true));
+        assertThat(delivered.get(), is(0));
+
+        stuck.countDown();
+        intake.join(5000);
+        assertThat(pipeline.awaitIdle(5000), is(true));
+        assertThat(delivered.get(), is(50));
+        pipeline.close();
+    }
+}
@@ -0,0 +1,64 @@
+package in.ashwanthkumar.gocd.slack.jsonapi;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void shouldShrinkWhileTheServerIsSlowAndGrowBackOnceItRecovers() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(16);
+        rounds(limiter, 20, 10);
+        assertThat(limiter.getLimit(), is(16));
+
+        rounds(limiter, 3, 100);
+        assertThat(limiter.getLimit() < 8, is(true));
+
+        rounds(limiter, 20, 10);
+        assertThat(limiter.getLimit(), is(16));
+    }
+
+    @Test
+    public void shouldMakeCallsOverTheLimitWait() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2);
+        assertThat(limiter.acquire(0), is(true));
+        assertThat(limiter.acquire(0), is(true));
+        assertThat(limiter.acquire(50), is(false));
+        assertThat(limiter.getInFlight(), is(2));
+
+        limiter.release(TimeUnit.MILLISECONDS.toNanos(10));
+        assertThat(limiter.acquire(0), is(true));
+    }
+
+    @Test
+    public void shouldApplyALowerMaximumRightAway() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4);
+        assertThat(limiter.acquire(0), is(true));
+        assertThat(limiter.acquire(0), is(true));
+
+        limiter.setMaxLimit(1);
+
+        assertThat(limiter.getLimit(), is(1));
+        assertThat(limiter.tryAcquire(), is(false));
+        limiter.release(TimeUnit.MILLISECONDS.toNanos(10));
+        limiter.release(TimeUnit.MILLISECONDS.toNanos(10));
+        assertThat(limiter.tryAcquire(), is(true));
+    }
+
+    // as many calls as the limit lets through, all taking that long
+    private static void rounds(ConcurrencyLimiter limiter, int rounds, long latencyMillis) throws InterruptedException {
+        for (int round = 0; round < rounds; round++) {
+            int calls = 0;
+            while (limiter.acquire(0)) {
+                calls++;
+            }
+            for (int i = 0; i < calls; i++) {
+                limiter.release(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package in.ashwanthkumar.gocd.slack.jsonapi;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class PipelineInstanceCacheTest {
+    private static final String SERVER = "https://gocd.example.org";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldStillHaveTheInstancesAfterARestart() throws Exception {
+        File directory = folder.newFolder("instances");
+        new PipelineInstanceCache(directory, 1024 * 1024).put(SERVER, "build", 7, instance("build", 7));
+
+        PipelineInstanceCache restarted = new PipelineInstanceCache(directory, 1024 * 1024);
+        assertThat(restarted.getSize(), is(1));
+        assertThat(restarted.get(SERVER, "build", 7), is(instance("build", 7)));
+        assertThat(restarted.get(SERVER, "build", 8), is(nullValue()));
+        assertThat(restarted.get("https://other.example.org", "build", 7), is(nullValue()));
+        assertThat(restarted.getHits(), is(1L));
+        assertThat(restarted.getMisses(), is(2L));
+    }
+
+    @Test
+    public void shouldDeleteTheLeastRecentlyUsedInstancesOverTheLimit() throws Exception {
+        File directory = folder.newFolder("instances");
+        PipelineInstanceCache cache = new PipelineInstanceCache(directory, 1024 * 1024);
+        cache.put(SERVER, "build", 1, instance("build", 1));
+        // room for three and a half, gzip doesn't make them all the same size
+        long maxBytes = cache.getBytes() * 7 / 2;
+        cache.setMaxBytes(maxBytes);
+        cache.put(SERVER, "build", 2, instance("build", 2));
+        cache.put(SERVER, "build", 3, instance("build", 3));
+        // used again, so 2 is the least recently used one
+        cache.get(SERVER, "build", 1);
+
+        cache.put(SERVER, "build", 4, instance("build", 4));
+
+        assertThat(cache.getSize() < 4, is(true));
+        assertThat(cache.getBytes() <= maxBytes, is(true));
+        assertThat(cache.get(SERVER, "build", 2), is(nullValue()));
+        assertThat(cache.get(SERVER, "build", 1), is(instance("build", 1)));
+        assertThat(cache.get(SERVER, "build", 4), is(instance("build", 4)));
+        assertThat(directory.list().length, is(cache.getSize()));
+    }
+
+    @Test
+    public void shouldIgnoreFilesOfAnotherFormatVersion() throws Exception {
+        File directory = folder.newFolder("instances");
+        JsonObject entry = new JsonObject();
+        entry.addProperty("version", PipelineInstanceCache.FORMAT_VERSION + 1);
+        entry.addProperty("server", SERVER);
+        entry.addProperty("pipeline", "build");
+        entry.addProperty("counter", 7);
+        entry.add("instance", instance("build", 7));
+        File file = new File(directory, PipelineInstanceCache.fileName(SERVER, "build", 7));
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            IOUtils.write(entry.toString(), out, StandardCharsets.UTF_8);
+        }
+
+        PipelineInstanceCache cache = new PipelineInstanceCache(directory, 1024 * 1024);
+        assertThat(cache.get(SERVER, "build", 7), is(nullValue()));
+        assertThat(file.exists(), is(false));
+        assertThat(cache.getSize(), is(0));
+    }
+
+    private static JsonObject instance(String name, int counter) {
+        JsonObject instance = new JsonObject();
+        instance.addProperty("name", name);
+        instance.addProperty("counter", counter);
+        instance.add("label", new JsonPrimitive(name + "-" + counter));
+        return instance;
+    }
+}
@@ -0,0 +1,69 @@
+package in.ashwanthkumar.gocd.slack.jsonapi;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PipelineTest {
+
+    @Test
+    public void shouldFindTheSameRootChangesWhenFetchingUpstreamsInParallel() throws Exception {
+        MaterialRevision apiCommit = commit(1, "api-sha");
+        MaterialRevision webCommit = commit(2, "web-sha");
+        MaterialRevision libCommit = commit(3, "lib-sha");
+        Server server = mock(Server.class);
+        when(server.getPipelineInstance("api", 7)).thenReturn(pipeline("api", 7, upstream(10, "lib/3/build/1"), apiCommit));
+        when(server.getPipelineInstance("web", 4)).thenReturn(pipeline("web", 4, webCommit));
+        when(server.getPipelineInstance("lib", 3)).thenReturn(pipeline("lib", 3, libCommit));
+        Pipeline deploy = pipeline("deploy", 1, upstream(11, "api/7/build/1"), upstream(12, "web/4/build/1"));
+
+        List<MaterialRevision> sequential = deploy.rootChanges(server);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<MaterialRevision> parallel;
+        try {
+            parallel = deploy.rootChanges(server, executor);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(sequential, is(Arrays.asList(libCommit, apiCommit, webCommit)));
+        assertThat(parallel, is(sequential));
+    }
+
+    private static Pipeline pipeline(String name, int counter, MaterialRevision... revisions) {
+        Pipeline pipeline = new Pipeline();
+        pipeline.name = name;
+        pipeline.counter = counter;
+        pipeline.buildCause = new BuildCause();
+        pipeline.buildCause.materialRevisions = revisions;
+        return pipeline;
+    }
+
+    private static MaterialRevision upstream(int id, String revision) {
+        return revision(id, "Pipeline", revision);
+    }
+
+    private static MaterialRevision commit(int id, String revision) {
+        return revision(id, "Git", revision);
+    }
+
+    private static MaterialRevision revision(int id, String type, String revision) {
+        MaterialRevision materialRevision = new MaterialRevision();
+        materialRevision.changed = true;
+        materialRevision.material = new Material();
+        materialRevision.material.id = id;
+        materialRevision.material.type = type;
+        Modification modification = new Modification();
+        modification.revision = revision;
+        materialRevision.modifications = Arrays.asList(modification);
+        return materialRevision;
+    }
+}
@@ -0,0 +1,52 @@
+package in.ashwanthkumar.gocd.slack.jsonapi;
+
+import in.ashwanthkumar.gocd.slack.ruleset.GoServerSettings;
+import in.ashwanthkumar.gocd.slack.ruleset.Rules;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class ServerFactoryTest {
+
+    @Test
+    public void shouldKeepTheServersOfAProfileAcrossReloads() {
+        ServerFactory factory = new ServerFactory();
+        Rules rules = rules(4, "mobile", "legacy");
+        Server defaultServer = factory.getServer(rules);
+        Server mobile = factory.getServer(rules, "ios", "ios");
+        Server legacy = factory.getServer(rules, "old", "legacy");
+        assertThat(mobile.getName(), is("mobile"));
+        assertThat(legacy.getName(), is("legacy"));
+
+        Rules reloaded = rules(2, "mobile");
+        assertThat(factory.getServer(reloaded), sameInstance(defaultServer));
+        assertThat(factory.getServer(reloaded, "ios", "ios"), sameInstance(mobile));
+        assertThat(mobile.getMaxConcurrentRequests(), is(2));
+        assertThat(defaultServer.getMaxConcurrentRequests(), is(2));
+        assertThat(ServerFactory.getServers().contains(legacy), is(false));
+
+        // a late notification of the replaced rules doesn't take the servers back to them
+        assertThat(factory.getServer(rules, "ios", "ios"), sameInstance(mobile));
+        assertThat(mobile.getMaxConcurrentRequests(), is(2));
+    }
+
+    private static Rules rules(int maxConcurrentRequests, String... profiles) {
+        Map<String, GoServerSettings> servers = new LinkedHashMap<>();
+        for (String profile : profiles) {
+            servers.put(profile, new GoServerSettings(profile)
+                    .setServerHost("https://" + profile + ".example.com")
+                    .setGroups(Collections.singletonList(profile.equals("mobile") ? "ios" : profile))
+                    .setMaxConcurrentRequests(maxConcurrentRequests));
+        }
+        return new Rules()
+                .setGoServerHost("https://gocd.example.com")
+                .setGoMaxConcurrentRequests(maxConcurrentRequests)
+                .setGoServers(servers);
+    }
+}
@@ -1,21 +1,35 @@
 package in.ashwanthkumar.gocd.slack.jsonapi;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import in.ashwanthkumar.gocd.slack.ruleset.GoServerSettings;
 import in.ashwanthkumar.gocd.slack.ruleset.Rules;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.*;
 
 public class ServerTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testGetPipelineHistory() throws Exception {
         HttpConnectionUtil httpConnectionUtil = mockConnection();
@@ -191,6 +205,148 @@ public class ServerTest {
         verify(conn, never()).setRequestProperty(eq("Authorization"), anyString());
     }
 
+    @Test
+    public void shouldCallTheServerOfItsProfileWithItsCredentials() throws IOException {
+        HttpConnectionUtil httpConnectionUtil = mockConnection();
+        Rules rules = new Rules();
+        rules.setGoServerHost("https://example.org");
+        rules.setGoAPIToken("default-token");
+        rules.getGoServers().put("mobile", new GoServerSettings("mobile")
+                .setServerHost("https://mobile.example.org")
+                .setApiToken("mobile-token"));
+        Server server = new Server(rules, "mobile", httpConnectionUtil);
+
+        HttpURLConnection conn = mock(HttpURLConnection.class);
+        when(httpConnectionUtil.getConnection(any(URL.class))).thenReturn(conn);
+        when(conn.getContent()).thenReturn(new Object());
+
+        server.getPipelineHistory("pipeline-test");
+
+        ArgumentCaptor<URL> url = ArgumentCaptor.forClass(URL.class);
+        verify(httpConnectionUtil).getConnection(url.capture());
+        assertThat(url.getValue().toString(), is("https://mobile.example.org/go/api/pipelines/pipeline-test/history"));
+        verify(conn).setRequestProperty("Authorization", "Bearer mobile-token");
+    }
+
+    @Test
+    public void shouldGiveUpWhenTheServerIsBusyWithOtherCalls() throws Exception {
+        HttpConnectionUtil httpConnectionUtil = mockConnection();
+        Rules rules = new Rules()
+                .setGoServerHost("https://example.org")
+                .setGoMaxConcurrentRequests(1)
+                .setGoApiTimeoutMillis(100);
+        final Server server = new Server(rules, httpConnectionUtil);
+
+        final CountDownLatch slow = new CountDownLatch(1);
+        HttpURLConnection conn = mock(HttpURLConnection.class);
+        when(httpConnectionUtil.getConnection(any(URL.class))).thenReturn(conn);
+        when(conn.getContent()).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                slow.await(5, TimeUnit.SECONDS);
+                return new Object();
+            }
+        });
+        Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.getUrl(new URL("http://example.org/slow"));
+                } catch (IOException ignored) {
+                }
+            }
+        });
+        first.start();
+        while (server.getInFlight() == 0) {
+            Thread.sleep(5);
+        }
+
+        try {
+            server.getUrl(new URL("http://example.org/"));
+            fail("should have given up waiting");
+        } catch (IOException expected) {
+            assertThat(server.getTimedOut(), is(1L));
+        } finally {
+            slow.countDown();
+            first.join();
+        }
+        assertThat(server.getInFlight(), is(0));
+    }
+
+    @Test
+    public void shouldCallAgainWhenTheServerIsSlowerThanUsualAndTakeTheFirstAnswer() throws Exception {
+        HttpConnectionUtil httpConnectionUtil = mockConnection();
+        Rules rules = new Rules()
+                .setGoServerHost("https://example.org")
+                .setGoHedgePercentile(50)
+                .setGoHedgeBudget(1.0);
+        Server server = new Server(rules, httpConnectionUtil);
+
+        Object fastContent = new Object(), slowContent = new Object();
+        when(httpConnectionUtil.responseToJson(fastContent)).thenReturn(new JsonPrimitive("fast"));
+        when(httpConnectionUtil.responseToJson(slowContent)).thenReturn(new JsonPrimitive("slow"));
+        HttpURLConnection fast = mock(HttpURLConnection.class);
+        when(fast.getContent()).thenReturn(fastContent);
+        when(httpConnectionUtil.getConnection(any(URL.class))).thenReturn(fast);
+        // what's usual for this server
+        for (int i = 0; i < HedgePolicy.MIN_SAMPLES; i++) {
+            assertThat(server.getUrl(new URL("http://example.org/")).getAsString(), is("fast"));
+        }
+        assertThat(server.getHedged(), is(0L));
+
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        HttpURLConnection slow = mock(HttpURLConnection.class);
+        when(slow.getContent()).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                if (disconnected.await(5, TimeUnit.SECONDS)) {
+                    throw new IOException("disconnected");
+                }
+                return slowContent;
+            }
+        });
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                disconnected.countDown();
+                return null;
+            }
+        }).when(slow).disconnect();
+        when(httpConnectionUtil.getConnection(any(URL.class))).thenReturn(slow, fast);
+
+        long startedAt = System.currentTimeMillis();
+        assertThat(server.getUrl(new URL("http://example.org/")).getAsString(), is("fast"));
+        assertThat(server.getHedged(), is(1L));
+        // the slow call was cancelled rather than left to run its course
+        while (server.getInFlight() > 0 && System.currentTimeMillis() - startedAt < 2000) {
+            Thread.sleep(5);
+        }
+        assertThat(server.getInFlight(), is(0));
+    }
+
+    @Test
+    public void shouldTakeTheInstancesCachedOnDiskBeforeARestart() throws Exception {
+        File directory = folder.newFolder("instances");
+        Rules rules = new Rules().setGoServerHost("https://example.org");
+        JsonObject json = new JsonObject();
+        json.addProperty("name", "pipeline-test");
+        Pipeline instance = new Pipeline();
+
+        HttpConnectionUtil httpConnectionUtil = mockConnection();
+        when(httpConnectionUtil.responseToJson(any())).thenReturn(json);
+        when(httpConnectionUtil.convertResponse(json, Pipeline.class)).thenReturn(instance);
+        Server server = new Server(rules, httpConnectionUtil);
+        server.setInstanceCache(new PipelineInstanceCache(directory, 1024 * 1024));
+        assertThat(server.getPipelineInstance("pipeline-test", 42), is(instance));
+
+        HttpConnectionUtil afterRestart = mockConnection();
+        when(afterRestart.convertResponse(json, Pipeline.class)).thenReturn(instance);
+        Server restarted = new Server(rules, afterRestart);
+        restarted.setInstanceCache(new PipelineInstanceCache(directory, 1024 * 1024));
+        assertThat(restarted.getPipelineInstance("pipeline-test", 42), is(instance));
+        verify(afterRestart, never()).getConnection(any(URL.class));
+    }
+
     private HttpConnectionUtil mockConnection() throws IOException {
         HttpConnectionUtil httpConnectionUtil = mock(HttpConnectionUtil.class);
 
@@ -55,5 +55,34 @@ public class PipelineRuleTest {
         assertFalse(pipelineRule.matches("gocd", "publish", "ci", "failed"));
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectRegexWithNestedQuantifiers() {
+        PipelineRule.fromConfig(ConfigFactory.parseString("name = \"(a+)+b\""));
+    }
+
+    @Test
+    public void shouldAssessRegexSafety() {
+        assertThat(RegexSafety.assess("gocd-.*"), is(RegexSafety.Risk.NONE));
+        assertThat(RegexSafety.assess("(build|test)-\\d+"), is(RegexSafety.Risk.NONE));
+        assertThat(RegexSafety.assess("[(+)]*"), is(RegexSafety.Risk.NONE));
+        assertThat(RegexSafety.assess("(a|ab)*c"), is(RegexSafety.Risk.WARN));
+        assertThat(RegexSafety.assess(".*-.*.*"), is(RegexSafety.Risk.WARN));
+        assertThat(RegexSafety.assess("(.*)*"), is(RegexSafety.Risk.REJECT));
+        assertThat(RegexSafety.assess("((a+)b)+"), is(RegexSafety.Risk.REJECT));
+        assertThat(RegexSafety.assess("(\\w{2,})+x"), is(RegexSafety.Risk.REJECT));
+        assertThat(RegexSafety.assess("(.*a){12}b"), is(RegexSafety.Risk.REJECT));
+        assertThat(RegexSafety.assess("(a{1,3}){5}"), is(RegexSafety.Risk.NONE));
+        assertThat(RegexSafety.assess("(.*)?b"), is(RegexSafety.Risk.NONE));
+    }
+
+    @Test
+    public void shouldGiveUpOnSlowRulesAndMarkThemAsMisbehaving() {
+        // built directly since fromConfig would refuse the regex
+        PipelineRule pipelineRule = new PipelineRule("(.*a){12}b", ".*").setStatus(Sets.of(FAILED));
+
+        assertFalse(pipelineRule.matches("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!", "build", "ci", "failed", 20));
+        assertTrue(pipelineRule.isMisbehaving());
+    }
+
 
 }
\ No newline at end of file
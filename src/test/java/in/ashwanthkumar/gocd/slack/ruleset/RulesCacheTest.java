@@ -0,0 +1,77 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import in.ashwanthkumar.utils.lang.option.Option;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class RulesCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReadBackTheRulesItSaved() throws IOException {
+        Rules rules = RulesReader.read("configs/test-config-with-proxy.conf");
+        File config = folder.newFile("go_notify.conf");
+        RulesCache cache = new RulesCache(new File(folder.getRoot(), ".go_notify"));
+
+        cache.save(rules, config);
+        Option<RulesCache.CachedRules> cached = cache.load();
+
+        assertThat(cached.isDefined(), is(true));
+        Rules cachedRules = cached.get().getRules();
+        assertThat(cachedRules.getPipelineRules(), is(rules.getPipelineRules()));
+        assertThat(cachedRules.getWebHookUrl(), is(rules.getWebHookUrl()));
+        assertThat(cachedRules.getSlackChannel(), is(rules.getSlackChannel()));
+        assertThat(cachedRules.getProxy(), is(rules.getProxy()));
+        assertThat(cachedRules.getPipelineListener(), notNullValue());
+        assertThat(cached.get().isUpToDateWith(config), is(true));
+    }
+
+    @Test
+    public void shouldOnlyLetTheOwnerReadTheCache() throws IOException {
+        Rules rules = RulesReader.read("configs/test-config-1.conf");
+        File config = folder.newFile("go_notify.conf");
+        RulesCache cache = new RulesCache(folder.getRoot());
+
+        cache.save(rules, config);
+
+        File cacheFile = new File(folder.getRoot(), RulesCache.CACHE_FILE_NAME);
+        assumeTrue(Files.getFileStore(cacheFile.toPath()).supportsFileAttributeView(PosixFileAttributeView.class));
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(cacheFile.toPath())), is("rw-------"));
+    }
+
+    @Test
+    public void shouldNotBeUpToDateOnceTheConfigIsModified() throws IOException {
+        Rules rules = RulesReader.read("configs/test-config-1.conf");
+        File config = folder.newFile("go_notify.conf");
+        RulesCache cache = new RulesCache(folder.getRoot());
+
+        cache.save(rules, config);
+        config.setLastModified(config.lastModified() + 10000);
+
+        assertThat(cache.load().get().isUpToDateWith(config), is(false));
+    }
+
+    @Test
+    public void shouldIgnoreMissingOrCorruptCache() throws IOException {
+        RulesCache cache = new RulesCache(folder.getRoot());
+        assertThat(cache.load().isDefined(), is(false));
+
+        FileUtils.writeStringToFile(new File(folder.getRoot(), RulesCache.CACHE_FILE_NAME), "{not json");
+        assertThat(cache.load().isDefined(), is(false));
+    }
+}
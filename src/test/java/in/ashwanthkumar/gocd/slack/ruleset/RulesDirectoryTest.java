@@ -0,0 +1,146 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class RulesDirectoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RulesDirectory rulesDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        writeFragment("00-settings.conf", "gocd.slack {\n" +
+                "  server-host = \"http://localhost:8153/\"\n" +
+                "  webhookUrl = \"https://hooks.slack.com/services/\"\n" +
+                "  channel = \"#build\"\n" +
+                "}", 1000);
+        writeFragment("team-a.conf", "gocd.slack.pipelines = [{ name = \"a-.*\", channel = \"#team-a\" }]", 1000);
+        writeFragment("team-b.conf", "gocd.slack.pipelines = [{ name = \"b-.*\" }, { name = \"b2-.*\" }]", 1000);
+        writeFragment("notes.txt", "not a fragment", 1000);
+        rulesDirectory = new RulesDirectory(folder.getRoot());
+    }
+
+    @Test
+    public void shouldConcatenatePipelinesOfAllFragmentsInFileNameOrder() {
+        assertThat(rulesDirectory.hasChanges(), is(true));
+        Rules rules = rulesDirectory.refresh();
+
+        assertThat(rules.getSlackChannel(), is("#build"));
+        assertThat(rules.getPipelineRules().size(), is(3));
+        assertThat(rules.getPipelineRules().get(0).getNameRegex(), is("a-.*"));
+        assertThat(rules.getPipelineRules().get(0).getChannel(), is("#team-a"));
+        assertThat(rules.getPipelineRules().get(1).getNameRegex(), is("b-.*"));
+        assertThat(rules.getPipelineRules().get(1).getChannel(), is("#build"));
+        assertThat(rulesDirectory.hasChanges(), is(false));
+    }
+
+    @Test
+    public void shouldMergeChangedPipelinesIntoTheLiveRules() throws IOException {
+        Rules rules = rulesDirectory.refresh();
+
+        writeFragment("team-b.conf", "gocd.slack.pipelines = [{ name = \"b3-.*\" }]", 2000);
+        assertThat(rulesDirectory.hasChanges(), is(true));
+        Rules refreshed = rulesDirectory.refresh();
+
+        assertThat(refreshed, sameInstance(rules));
+        assertThat(refreshed.getPipelineRules().size(), is(2));
+        assertThat(refreshed.getPipelineRules().get(1).getNameRegex(), is("b3-.*"));
+    }
+
+    @Test
+    public void shouldDropPipelinesOfRemovedFragments() {
+        Rules rules = rulesDirectory.refresh();
+
+        new File(folder.getRoot(), "team-a.conf").delete();
+        Rules refreshed = rulesDirectory.refresh();
+
+        assertThat(refreshed, sameInstance(rules));
+        assertThat(refreshed.getPipelineRules().size(), is(2));
+    }
+
+    @Test
+    public void shouldRebuildEverythingWhenSettingsChange() throws IOException {
+        Rules rules = rulesDirectory.refresh();
+
+        writeFragment("team-b.conf", "gocd.slack {\n" +
+                "  channel = \"#team-b\"\n" +
+                "  pipelines = [{ name = \"b-.*\" }]\n" +
+                "}", 2000);
+        Rules refreshed = rulesDirectory.refresh();
+
+        assertThat(refreshed, not(sameInstance(rules)));
+        assertThat(refreshed.getSlackChannel(), is("#team-b"));
+        assertThat(refreshed.getPipelineRules().size(), is(2));
+        assertThat(refreshed.getPipelineRules().get(1).getChannel(), is("#team-b"));
+    }
+
+    @Test
+    public void shouldNotRetryABrokenFragmentUntilItChanges() throws IOException {
+        rulesDirectory.refresh();
+
+        writeFragment("team-a.conf", "gocd.slack.pipelines = [{ channel = \"#no-name\" }]", 2000);
+        try {
+            rulesDirectory.refresh();
+        } catch (RuntimeException expected) {
+            // name is mandatory
+        }
+        assertThat(rulesDirectory.hasChanges(), is(false));
+
+        writeFragment("team-a.conf", "gocd.slack.pipelines = [{ name = \"a-.*\" }]", 3000);
+        assertThat(rulesDirectory.hasChanges(), is(true));
+        assertThat(rulesDirectory.refresh().getPipelineRules().size(), is(3));
+    }
+
+    @Test
+    public void shouldSwapPipelinesUnderTheGivenLock() throws IOException {
+        final AtomicInteger locked = new AtomicInteger();
+        rulesDirectory = new RulesDirectory(folder.getRoot(), new ReentrantLock() {
+            @Override
+            public void lock() {
+                locked.incrementAndGet();
+                super.lock();
+            }
+        });
+        rulesDirectory.refresh();
+        assertThat(locked.get(), is(0));
+
+        writeFragment("team-b.conf", "gocd.slack.pipelines = [{ name = \"b3-.*\" }]", 2000);
+        rulesDirectory.refresh();
+        assertThat(locked.get(), is(1));
+    }
+
+    @Test
+    public void shouldRejectFragmentPipelinesOfUnknownServers() throws IOException {
+        Rules rules = rulesDirectory.refresh();
+
+        writeFragment("team-b.conf", "gocd.slack.pipelines = [{ name = \"b-.*\", server = \"nowhere\" }]", 2000);
+        try {
+            rulesDirectory.refresh();
+            fail("nowhere isn't a configured server");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertThat(rules.getPipelineRules().size(), is(3));
+        assertThat(rules.getPipelineRules().get(1).getServer(), is(nullValue()));
+    }
+
+    private void writeFragment(String name, String content, long lastModified) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        FileUtils.writeStringToFile(file, content);
+        file.setLastModified(lastModified);
+    }
+}
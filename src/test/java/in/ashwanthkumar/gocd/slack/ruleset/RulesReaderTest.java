@@ -1,5 +1,7 @@
 package in.ashwanthkumar.gocd.slack.ruleset;
 
+import com.typesafe.config.ConfigFactory;
+import in.ashwanthkumar.gocd.slack.CompositePipelineListener;
 import in.ashwanthkumar.utils.collections.Sets;
 import org.junit.Test;
 
@@ -41,6 +43,58 @@ public class RulesReaderTest {
         assertThat(rules.getPipelineListener(), notNullValue());
     }
 
+    @Test
+    public void shouldReadListenersWithTheirBulkheads() {
+        Rules rules = RulesReader.read("configs/test-config-with-listeners.conf");
+
+        assertThat(rules.getListeners().size(), is(2));
+        ListenerSettings defaults = rules.getListeners().get(0);
+        assertThat(defaults.getName(), is("SlackPipelineListener"));
+        assertThat(defaults.getThreads(), is(1));
+        assertThat(defaults.getQueueSize(), is(100));
+        assertThat(defaults.getTimeoutMillis(), is(30000L));
+        ListenerSettings tuned = rules.getListeners().get(1);
+        assertThat(tuned.getThreads(), is(2));
+        assertThat(tuned.getQueueSize(), is(10));
+        assertThat(tuned.getTimeoutMillis(), is(5000L));
+
+        assertThat(rules.getPipelineListener(), instanceOf(CompositePipelineListener.class));
+        assertThat(((CompositePipelineListener) rules.getPipelineListener()).getBulkheads().size(), is(2));
+    }
+
+    @Test
+    public void shouldReadStagesInTheOrderNotificationsGoThroughThem() {
+        Rules rules = RulesReader.read("configs/test-config-with-stages.conf");
+
+        assertThat(rules.getStages().size(), is(5));
+        assertThat(rules.getStages().get(0), is(new StageSettings("parse")));
+        assertThat(rules.getStages().get(0).getThreads(), is(1));
+        assertThat(rules.getStages().get(3), is(new StageSettings("enrich").setThreads(4)));
+        assertThat(rules.getStages().get(4), is(new StageSettings("deliver").setThreads(2).setBufferSize(16)));
+        assertThat(RulesReader.read("configs/test-config-minimal.conf").getStages().isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldPickTheServerProfileByRuleThenByGroup() {
+        Rules rules = RulesReader.read("configs/test-config-with-servers.conf");
+
+        assertThat(rules.getGoServers().size(), is(2));
+        GoServerSettings mobile = rules.getGoServers().get("mobile");
+        assertThat(mobile.getApiServerHost(), is("https://mobile-gocd.example.com/"));
+        assertThat(mobile.getApiToken(), is("mobile-token"));
+        assertThat(mobile.getMaxConcurrentRequests(), is(2));
+        assertThat(mobile.getTimeoutMillis(), is(5000L));
+        assertThat(rules.getGoServers().get("legacy").getApiServerHost(), is("http://legacy-gocd-internal:8153/"));
+
+        assertThat(rules.goServerFor("old-app", "ios-apps").getName(), is("legacy"));
+        assertThat(rules.goServerFor("app", "ios-apps").getName(), is("mobile"));
+        assertThat(rules.goServerFor("app", "android").getName(), is("mobile"));
+        GoServerSettings fallback = rules.goServerFor("app", "web");
+        assertThat(fallback.getName(), is(GoServerSettings.DEFAULT));
+        assertThat(fallback.getServerHost(), is("http://localhost:8153/"));
+        assertThat(fallback.getMaxConcurrentRequests(), is(4));
+    }
+
     @Test
     public void shouldReadMinimalConfig() {
         Rules rules = RulesReader.read("configs/test-config-minimal.conf");
@@ -116,6 +170,30 @@ public class RulesReaderTest {
         assertThat(rules.getProxy(), nullValue());
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRefuseAServerProfileNamedLikeTheTopLevelServer() {
+        new RulesReader().load(ConfigFactory.parseString("gocd.slack {\n" +
+                "  server-host = \"http://localhost:8153/\"\n" +
+                "  webhookUrl = \"https://hooks.slack.com/services/\"\n" +
+                "  servers { default { server-host = \"https://other-gocd.example.com\" } }\n" +
+                "}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRefuseAnEventWebhookThatWouldNeverFlush() {
+        new RulesReader().load(ConfigFactory.parseString("gocd.slack {\n" +
+                "  server-host = \"http://localhost:8153/\"\n" +
+                "  webhookUrl = \"https://hooks.slack.com/services/\"\n" +
+                "  event-webhook { url = \"https://collector.example.com/gocd\", flush-interval = 0 seconds }\n" +
+                "}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRefuseServerGroupsThatBacktrackCatastrophically() {
+        GoServerSettings.fromConfig("mobile", ConfigFactory.parseString(
+                "server-host = \"https://mobile-gocd.example.com\"\ngroups = [\"ios\", \"(a+)+b\"]"));
+    }
+
     @Test(expected = RuntimeException.class)
     public void shouldThrowExceptionIfConfigInvalid() {
         RulesReader.read("test-config-invalid.conf");
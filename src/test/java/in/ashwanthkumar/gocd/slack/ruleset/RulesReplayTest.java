@@ -0,0 +1,33 @@
+package in.ashwanthkumar.gocd.slack.ruleset;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class RulesReplayTest {
+
+    @Test
+    public void shouldReportCostPerRuleWithoutTouchingLiveStats() throws IOException {
+        Rules rules = RulesReader.read("configs/test-config-1.conf");
+        BufferedReader events = new BufferedReader(new InputStreamReader(getClass().getClassLoader().getResourceAsStream("events/recorded-events.json")));
+
+        List<PipelineRule> replayed = RulesReplay.replay(rules, events);
+
+        assertThat(replayed.get(0).getNameRegex(), is("gocd-slack-build-notifier"));
+        assertThat(replayed.get(0).getStats().getEvaluations(), is(3L));
+        assertThat(replayed.get(0).getStats().getHits(), is(1L));
+        assertThat(replayed.get(1).getStats().getEvaluations(), is(2L));
+        // the building event doesn't match the failed state of the rule
+        assertThat(replayed.get(1).getStats().getHits(), is(1L));
+        assertThat(rules.getPipelineRules().get(0).getStats().getEvaluations(), is(0L));
+
+        assertThat(RuleStatsReport.format(replayed), containsString("gocd-slack-build-notifier"));
+    }
+}
@@ -5,6 +5,7 @@ import in.ashwanthkumar.utils.lang.option.Option;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.HashSet;
 import java.util.Set;
@@ -112,6 +113,53 @@ public class RulesTest {
         assertThat(rules.find("p1", "s1", "ci", Status.Unknown.getStatus()).size(), is(1));
     }
 
+    @Test
+    public void shouldRecordEvaluationsAndHitsPerRule() {
+        Rules rules = new Rules();
+        PipelineRule first = pipelineRule("pipeline1", ".*", "ch1", statuses(PipelineStatus.FAILED));
+        PipelineRule second = pipelineRule(".*", ".*", "ch2", statuses(PipelineStatus.FAILED));
+        PipelineRule third = pipelineRule(".*", ".*", "ch3", statuses(PipelineStatus.FAILED));
+        rules.setPipelineRules(Arrays.asList(first, second, third));
+
+        rules.find("pipeline1", "stage1", "ci", Status.Failed.getStatus());
+        rules.find("pipeline2", "stage1", "ci", Status.Failed.getStatus());
+
+        assertThat(first.getStats().getEvaluations(), is(2L));
+        assertThat(first.getStats().getHits(), is(1L));
+        assertThat(second.getStats().getEvaluations(), is(1L));
+        assertThat(second.getStats().getHits(), is(1L));
+        // first match wins, so the last rule is never looked at
+        assertThat(third.getStats().getEvaluations(), is(0L));
+    }
+
+    @Test
+    public void shouldKeepTheFirstRuleForEachDestination() {
+        Rules rules = new Rules().setWebHookUrl("https://hooks.slack.com/global").setSlackChannel("ch1");
+        PipelineRule first = pipelineRule("pipeline1", ".*", "ch1", statuses(PipelineStatus.FAILED));
+        PipelineRule sameAsFirst = pipelineRule(".*", ".*", null, statuses(PipelineStatus.FAILED));
+        PipelineRule otherChannel = pipelineRule(".*", ".*", "ch2", statuses(PipelineStatus.FAILED));
+        PipelineRule otherWebhook = pipelineRule(".*", ".*", "ch2", statuses(PipelineStatus.FAILED))
+                .setWebhookUrl("https://hooks.slack.com/other");
+
+        List<PipelineRule> unique = rules.uniqueDestinations(Arrays.asList(first, sameAsFirst, otherChannel, otherWebhook), PipelineStatus.FAILED);
+
+        assertThat(unique, is(Arrays.asList(first, otherChannel, otherWebhook)));
+    }
+
+    @Test
+    public void shouldPreferTheRuleThatPostsRightAwayOverTheOneThatDigests() {
+        Rules rules = new Rules().setWebHookUrl("https://hooks.slack.com/global").setSlackChannel("ch1");
+        PipelineRule digested = pipelineRule(".*", ".*", "ch1", statuses(PipelineStatus.FAILED))
+                .setDigest(statuses(PipelineStatus.FAILED));
+        PipelineRule realTime = pipelineRule("pipeline1", ".*", "ch1", statuses(PipelineStatus.FAILED));
+        PipelineRule otherChannel = pipelineRule(".*", ".*", "ch2", statuses(PipelineStatus.FAILED));
+
+        assertThat(rules.uniqueDestinations(Arrays.asList(digested, otherChannel, realTime), PipelineStatus.FAILED),
+                is(Arrays.asList(realTime, otherChannel)));
+        assertThat(rules.uniqueDestinations(Arrays.asList(realTime, digested), PipelineStatus.FAILED),
+                is(Collections.singletonList(realTime)));
+    }
+
     @Test
     public void shouldGetAPIServerHost() {
         Rules rules = new Rules();
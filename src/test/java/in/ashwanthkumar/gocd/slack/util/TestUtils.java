@@ -5,6 +5,7 @@ import in.ashwanthkumar.gocd.slack.jsonapi.ServerFactory;
 import in.ashwanthkumar.gocd.slack.ruleset.Rules;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -13,6 +14,7 @@ public class TestUtils {
     public static ServerFactory createMockServerFactory(Server server) {
         ServerFactory factory = mock(ServerFactory.class);
         when(factory.getServer(any(Rules.class))).thenReturn(server);
+        when(factory.getServer(any(Rules.class), anyString(), anyString())).thenReturn(server);
         return factory;
     }
 